@@ -15,58 +15,98 @@
  */
 package com.rbmhtechnology.apidocserver.controller;
 
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.hash.HashCode;
 import com.google.common.io.ByteStreams;
 import com.rbmhtechnology.apidocserver.exception.AccessNotAllowedException;
 import com.rbmhtechnology.apidocserver.exception.RepositoryException;
+import com.rbmhtechnology.apidocserver.exception.RepositoryUnavailableException;
+import com.rbmhtechnology.apidocserver.service.ArtifactIdentifier;
 import com.rbmhtechnology.apidocserver.service.GroupIdWhitelistService;
+import com.rbmhtechnology.apidocserver.service.Prefetcher;
 import com.rbmhtechnology.apidocserver.service.RepositoryService;
+import com.rbmhtechnology.apidocserver.service.jar.EntryIndex;
+import com.rbmhtechnology.apidocserver.service.jar.HotEntryCache;
+import com.rbmhtechnology.apidocserver.service.jar.HotEntryCache.HotEntry;
+import com.rbmhtechnology.apidocserver.service.jar.JarFileCache;
+import com.rbmhtechnology.apidocserver.service.jar.JarHandle;
+import com.rbmhtechnology.apidocserver.service.jar.JarLeases;
+import com.rbmhtechnology.apidocserver.service.jar.RangeReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
-import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import javax.activation.MimetypesFileTypeMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.View;
 
 @Controller
 public class ApiDocController {
 
   private static final Logger LOG = LoggerFactory.getLogger(ApiDocController.class);
 
-  private static final List<String> DEFAULT_INDEX_FILES = Arrays.asList("index.html", "index.htm");
+  // documentation of a concrete release version never changes
+  private static final String IMMUTABLE_CACHE_CONTROL =
+      CacheControl.maxAge(365, DAYS).getHeaderValue() + ", immutable";
+
+  // served while the repository is unavailable
+  private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
+  // the page the documentation of an artifact is opened with
+  private static final String START_PAGE = "index.html";
 
   private final RepositoryService repositoryService;
   private final GroupIdWhitelistService groupIdWhitelistService;
+  private final JarFileCache jarFileCache;
+  private final HotEntryCache hotEntryCache;
+  private final Prefetcher prefetcher;
+  private final JarLeases jarLeases;
 
   @Autowired
   public ApiDocController(RepositoryService repositoryService,
-      GroupIdWhitelistService groupIdWhitelistService) {
+      GroupIdWhitelistService groupIdWhitelistService,
+      JarFileCache jarFileCache,
+      HotEntryCache hotEntryCache,
+      Prefetcher prefetcher,
+      JarLeases jarLeases) {
     this.repositoryService = repositoryService;
     this.groupIdWhitelistService = groupIdWhitelistService;
+    this.jarFileCache = jarFileCache;
+    this.hotEntryCache = hotEntryCache;
+    this.prefetcher = prefetcher;
+    this.jarLeases = jarLeases;
   }
 
   @GetMapping("/{groupId}/{artifactId}")
-  String versions(Model model,
+  CompletableFuture<String> versions(Model model,
       @PathVariable String groupId,
       @PathVariable String artifactId) throws RepositoryException {
     LOG.trace("groupId: {}, artifactId: {}.", groupId, artifactId, null);
     ensureValidGroupId(groupId);
-    List<String> versions = repositoryService.getAvailableVersions(groupId, artifactId);
-    model.addAttribute("groupId", groupId);
-    model.addAttribute("artifactId", artifactId);
-    model.addAttribute("versions", versions);
-    return "listVersions";
+    return repositoryService.getAvailableVersionsAsync(groupId, artifactId)
+        .thenApply(versions -> {
+          model.addAttribute("groupId", groupId);
+          model.addAttribute("artifactId", artifactId);
+          model.addAttribute("versions", versions);
+          return "listVersions";
+        });
   }
 
   private void ensureValidGroupId(String groupId) throws AccessNotAllowedException {
@@ -76,24 +116,24 @@ public class ApiDocController {
   }
 
   @GetMapping("/{groupId}/{artifactId}/{version:.*}")
-  String base(@PathVariable String groupId, @PathVariable String artifactId,
+  CompletableFuture<String> base(@PathVariable String groupId, @PathVariable String artifactId,
       @PathVariable String version, Model model) throws RepositoryException {
     LOG.trace("groupId: {}, artifactId: {}, version: {}. redirect to index.html",
         groupId, artifactId, version);
     ensureValidGroupId(groupId);
 
-    final List<String> classifiers = repositoryService
-        .getAvailableClassifier(groupId, artifactId, version);
-
-    if (classifiers.size() == 1) {
-      return "redirect:/{groupId}/{artifactId}/{version}/" + classifiers.get(0)
-          + "/index.html";
-    }
+    return repositoryService.getAvailableClassifierAsync(groupId, artifactId, version)
+        .thenApply(classifiers -> {
+          if (classifiers.size() == 1) {
+            return "redirect:/{groupId}/{artifactId}/{version}/" + classifiers.get(0)
+                + "/index.html";
+          }
 
-    model.addAttribute("groupId", groupId);
-    model.addAttribute("artifactId", artifactId);
-    model.addAttribute("classifiers", classifiers);
-    return "listClassifiers";
+          model.addAttribute("groupId", groupId);
+          model.addAttribute("artifactId", artifactId);
+          model.addAttribute("classifiers", classifiers);
+          return "listClassifiers";
+        });
   }
 
   @GetMapping(value = "/{groupId}/{artifactId}/{version:.*}/{classifier}")
@@ -107,10 +147,20 @@ public class ApiDocController {
     return "redirect:/{groupId}/{artifactId}/{version}/{classifier}/index.html";
   }
 
+  /**
+   * Serves an entry of a documentation jar. Entries of jars which are already in the local storage
+   * are written right away, otherwise the request is suspended until the repository executor has
+   * resolved and downloaded the artifact, so no request thread waits for the maven repository.
+   * The entry of a cold load is written by the container thread the completed request is
+   * dispatched to, so slow clients do not occupy the repository executor.
+   *
+   * @return null if the entry has already been written, or the pending cold load, which completes
+   *     with the view writing the entry
+   */
   // see https://thecruskit.com/spring-pathvariable-and-truncation-after-dot-period/
   @GetMapping(value = "/{groupId}/{artifactId}/{version:.*}/{classifier}/**")
   @ResponseBody
-  void serve(@PathVariable String groupId,
+  CompletableFuture<View> serve(@PathVariable String groupId,
       @PathVariable String artifactId,
       @PathVariable String version,
       @PathVariable String classifier,
@@ -121,82 +171,253 @@ public class ApiDocController {
     LOG.trace("groupId: {}, artifactId: {}, version: {}, classifier: {}, subPath :{}",
         groupId, artifactId, version, classifier, subPath);
     ensureValidGroupId(groupId);
+    ServletWebRequest webRequest = new ServletWebRequest(request, response);
 
-    File jar = repositoryService.retrieveJarFile(groupId, artifactId, version, classifier);
-
-    if (jar == null) {
-      throw new RuntimeException(
-          "No documentation artifact file available for group:" + groupId + ", artifact:"
-              + artifactId + " and version:" + version + "");
+    ArtifactIdentifier artifact = repositoryService
+        .getResolvedArtifactIdentifier(groupId, artifactId, version, classifier);
+    File jar = artifact == null ? null : repositoryService.getCachedJarFile(artifact);
+    JarLeases.Lease lease = jar == null ? null : jarLeases.lease(jar);
+    if (lease != null) {
+      serveEntry(webRequest, artifact, version, lease, subPath);
+      return null;
     }
-    try {
-      serveFileFromJarFile(response, jar, subPath);
+
+    return repositoryService
+        .resolveArtifactIdentifierAsync(groupId, artifactId, version, classifier)
+        .thenCompose(resolved -> leaseJarAsync(resolved, true)
+            .thenApply(leased -> (model, dispatched, dispatchedResponse) -> serveEntry(
+                new ServletWebRequest(dispatched, dispatchedResponse), resolved, version, leased,
+                subPath)));
+  }
+
+  /**
+   * Loads the jar of an artifact and leases it. A jar which has been deleted since it was loaded
+   * is loaded once more.
+   *
+   * @param retry true if the jar may be loaded again
+   */
+  private CompletableFuture<JarLeases.Lease> leaseJarAsync(ArtifactIdentifier artifact,
+      boolean retry) {
+    return repositoryService.retrieveJarFileAsync(artifact).thenCompose(jar -> {
+      if (jar == null) {
+        throw new RuntimeException(
+            "No documentation artifact file available for group:" + artifact.getGroupId()
+                + ", artifact:" + artifact.getArtifactId() + " and version:"
+                + artifact.getVersion());
+      }
+      JarLeases.Lease lease = jarLeases.lease(jar);
+      if (lease != null) {
+        return CompletableFuture.completedFuture(lease);
+      }
+      if (retry) {
+        LOG.debug("'{}' has been evicted while it was loaded, loading it again", jar);
+        return leaseJarAsync(artifact, false);
+      }
+      CompletableFuture<JarLeases.Lease> evicted = new CompletableFuture<>();
+      evicted.completeExceptionally(new RepositoryUnavailableException(
+          "Documentation artifact for group:" + artifact.getGroupId() + ", artifact:"
+              + artifact.getArtifactId() + " and version:" + artifact.getVersion()
+              + " has been evicted while it was loaded"));
+      return evicted;
+    });
+  }
+
+  /**
+   * Writes an entry of a leased jar, the lease is released once the entry has been written.
+   */
+  private void serveEntry(ServletWebRequest webRequest, ArtifactIdentifier artifact,
+      String requestedVersion, JarLeases.Lease lease, String subPath) {
+    // the jar is not deleted while the entry is written, even if it is evicted
+    try (JarLeases.Lease leased = lease; JarHandle handle = jarFileCache.acquire(lease.getJar())) {
+      if (START_PAGE.equals(subPath)) {
+        // count the documentation once, not every page, frame and stylesheet of it
+        prefetcher.record(new ArtifactIdentifier(artifact.getGroupId(), artifact.getArtifactId(),
+            requestedVersion, artifact.getClassifier()));
+      }
+      String cacheControl = cacheControl(artifact, requestedVersion);
+      long staleAge = repositoryService.getStaleAgeSeconds(requestedVersion, artifact);
+      if (staleAge >= 0) {
+        // RFC 7234: the documentation could not be revalidated with the repository
+        webRequest.getResponse().setHeader(HttpHeaders.WARNING, STALE_WARNING);
+        webRequest.getResponse().setHeader(HttpHeaders.AGE, Long.toString(staleAge));
+      }
+      int entry = handle.index().resolve(subPath);
+      if (entry < 0) {
+        webRequest.getResponse().sendError(404);
+        return;
+      }
+      File directory = handle.directory();
+      if (directory.isDirectory()) {
+        serveFileFromDirectory(webRequest, cacheControl, handle.index(), entry, directory);
+      } else {
+        serveFileFromJarFile(webRequest, cacheControl, handle, entry);
+      }
     } catch (IOException e) {
       throw new RuntimeException(
-          "Error serving '" + subPath + "' for group:" + groupId + ", artifact:"
-              + artifactId + " and version:" + version);
+          "Error serving '" + subPath + "' for group:" + artifact.getGroupId() + ", artifact:"
+              + artifact.getArtifactId() + " and version:" + requestedVersion);
     }
   }
 
-  private void serveFileFromJarFile(HttpServletResponse response, File jar, String subPath)
-      throws IOException {
-    try (JarFile jarFile = new JarFile(jar)) {
-      JarEntry entry = jarFile.getJarEntry(subPath);
+  private String cacheControl(ArtifactIdentifier artifact, String requestedVersion) {
+    if (artifact.isSnapshot() || RepositoryService.isVersionShortcut(requestedVersion)) {
+      return CacheControl.maxAge(repositoryService.getSnapshotCacheTimeoutSeconds(), SECONDS)
+          .getHeaderValue();
+    }
+    return IMMUTABLE_CACHE_CONTROL;
+  }
 
-      if (entry == null) {
-        response.sendError(404);
-        return;
-      }
+  /**
+   * Builds a strong entity tag from the content of an entry, so identical files of different
+   * versions share the same tag.
+   *
+   * @param contentHash the hash of the uncompressed content of the entry
+   * @return the quoted entity tag
+   */
+  private static String etag(HashCode contentHash) {
+    return "\"" + contentHash.toString().substring(0, 32) + "\"";
+  }
 
-      // fallback for requesting a directory without a trailing /
-      // this leads to a jarentry which is not null, and not a directory and of size 0
-      // this shouldn't be
-      if (!entry.isDirectory() && entry.getSize() == 0) {
-        if (!subPath.endsWith("/")) {
-          JarEntry entryWithSlash = jarFile.getJarEntry(subPath + "/");
-          if (entryWithSlash != null && entryWithSlash.isDirectory()) {
-            entry = entryWithSlash;
-          }
-        }
-      }
+  /**
+   * @return the entity tag of the gzip encoded representation of an entry, which is weak as the
+   *     compressed bytes of identical content may differ between jars
+   */
+  private static String gzipEtag(HashCode contentHash) {
+    return "W/\"" + contentHash.toString().substring(0, 32) + "-gzip\"";
+  }
 
-      if (entry.isDirectory()) {
-        for (String indexFile : DEFAULT_INDEX_FILES) {
-          entry = jarFile
-              .getJarEntry((subPath.endsWith("/") ? subPath : subPath + "/") + indexFile);
-          if (entry != null) {
-            break;
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parameters = coding.split(";");
+      if ("gzip".equalsIgnoreCase(parameters[0].trim())) {
+        for (int i = 1; i < parameters.length; i++) {
+          String parameter = parameters[i].trim();
+          if (parameter.startsWith("q=") && isZeroQuality(parameter.substring(2))) {
+            return false;
           }
         }
+        return true;
       }
+    }
+    return false;
+  }
 
-      if (entry == null) {
-        response.sendError(404);
-        return;
-      }
+  private static boolean isZeroQuality(String quality) {
+    try {
+      return Double.parseDouble(quality) <= 0;
+    } catch (NumberFormatException e) {
+      return true;
+    }
+  }
 
-      response.setContentLength((int) entry.getSize());
-      String mimetype = getMimeType(entry.getName());
-      response.setContentType(mimetype);
-      try (InputStream input = jarFile.getInputStream(entry)) {
-        ByteStreams.copy(input, response.getOutputStream());
+  private void serveFileFromJarFile(ServletWebRequest webRequest, String cacheControl,
+      JarHandle handle, int entry) throws IOException {
+    HttpServletResponse response = webRequest.getResponse();
+    EntryIndex index = handle.index();
+    // deflated entries are sent as they are stored, if the client is able to inflate them,
+    // ranges always refer to the inflated content
+    boolean gzip = handle.isDeflated(entry)
+        && webRequest.getHeader(HttpHeaders.RANGE) == null
+        && acceptsGzip(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    HashCode contentHash = index.contentHash(entry);
+    long size = index.size(entry);
+    long lastModified = index.time(entry);
+    String etag = gzip ? gzipEtag(contentHash) : etag(contentHash);
+    if (checkNotModified(webRequest, cacheControl, etag, lastModified)) {
+      return;
+    }
+
+    String mimetype = index.mimeType(entry);
+    HotEntryCache.Key key = new HotEntryCache.Key(contentHash, gzip);
+    HotEntry hotEntry = hotEntryCache.get(key);
+    if (RangeRequests.isRangeRequest(webRequest, etag, lastModified)) {
+      try (RangeReader reader = hotEntry != null ? hotEntry.rangeReader()
+          : handle.rangeReader(entry)) {
+        RangeRequests.write(webRequest, size, mimetype, reader);
       }
+      return;
+    }
+
+    long length = gzip ? handle.gzipLength(entry) : size;
+    if (hotEntry == null && hotEntryCache.shouldAdmit(key, length)) {
+      ByteBuffer content = ByteBuffer.allocateDirect((int) length);
+      handle.read(entry, gzip, content);
+      content.flip();
+      hotEntry = hotEntryCache.put(key, new HotEntry(content));
+    }
+
+    response.setContentType(mimetype);
+    if (gzip) {
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+    }
+    if (hotEntry != null) {
+      // the gzip member of identical content may have been taken from another jar
+      response.setContentLength(hotEntry.length());
+      hotEntry.writeTo(response.getOutputStream());
+      return;
+    }
+
+    response.setContentLengthLong(length);
+    if (gzip) {
+      handle.writeGzip(entry, response.getOutputStream());
+      return;
+    }
+    try (InputStream input = handle.getInputStream(entry)) {
+      ByteStreams.copy(input, response.getOutputStream());
     }
   }
 
-  private String getMimeType(String filename) {
-    String mimeType = MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(filename);
-    if (filename.endsWith(".css")) {
-      return "text/css";
+  /**
+   * Sets the caching headers of an entry served from a jar and answers conditional requests.
+   *
+   * @return true if the response is complete
+   */
+  private static boolean checkNotModified(ServletWebRequest webRequest, String cacheControl,
+      String etag, long lastModified) {
+    HttpServletResponse response = webRequest.getResponse();
+    response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+    response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+    response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    return webRequest.checkNotModified(etag, lastModified);
+  }
+
+  private void serveFileFromDirectory(ServletWebRequest webRequest, String cacheControl,
+      EntryIndex index, int entry, File directory) throws IOException {
+    HttpServletResponse response = webRequest.getResponse();
+    // names of the index have been checked to stay within the directory during extraction
+    Path path = directory.toPath().resolve(index.name(entry));
+    long length = index.size(entry);
+    // extracted files have the content of their entry
+    long lastModified = index.time(entry);
+    String etag = etag(index.contentHash(entry));
+    response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+    response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+    // the same url is served gzipped out of the jar while it is not extracted
+    response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (webRequest.checkNotModified(etag, lastModified)) {
+      return;
     }
-    if (filename.endsWith(".js")) {
-      return "application/javascript";
+
+    String mimetype = index.mimeType(entry);
+    if (RangeRequests.isRangeRequest(webRequest, etag, lastModified)) {
+      try (FileChannel channel = FileChannel.open(path, READ)) {
+        RangeRequests.write(webRequest, length, mimetype, RangeReader.of(channel, 0));
+      }
+      return;
     }
-    if (filename.endsWith(".svg")) {
-      return "image/svg+xml";
+
+    response.setContentLengthLong(length);
+    response.setContentType(mimetype);
+
+    // copied through the response rather than handed over to the connector's sendfile support:
+    // tomcat would read the file after the lease on the jar has been released, when the directory
+    // may already have been deleted
+    try (FileChannel channel = FileChannel.open(path, READ)) {
+      RangeReader.of(channel, 0).copy(0, length, response.getOutputStream());
     }
-    LOG.trace("resolved {} as mime type for filename {}", mimeType, filename);
-    return mimeType;
   }
 
   private String getSubPath(String groupId,
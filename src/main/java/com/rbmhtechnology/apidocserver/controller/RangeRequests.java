@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.controller;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.rbmhtechnology.apidocserver.service.jar.RangeReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+/**
+ * Answers HTTP range requests (RFC 7233) for a single entry.
+ */
+final class RangeRequests {
+
+  private RangeRequests() {
+  }
+
+  /**
+   * @param webRequest the current request
+   * @param etag the entity tag of the current representation
+   * @param lastModified the modification time of the current representation
+   * @return true if only ranges of the representation have been requested
+   */
+  static boolean isRangeRequest(ServletWebRequest webRequest, String etag, long lastModified) {
+    if (webRequest.getHeader(HttpHeaders.RANGE) == null) {
+      return false;
+    }
+    String ifRange = webRequest.getHeader(HttpHeaders.IF_RANGE);
+    if (ifRange == null) {
+      return true;
+    }
+    // ranges of a changed representation are useless to the client, send all of it instead
+    ifRange = ifRange.trim();
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      return ifRange.equals(etag);
+    }
+    try {
+      long date = webRequest.getRequest().getDateHeader(HttpHeaders.IF_RANGE);
+      return lastModified >= 0 && date / 1000 == lastModified / 1000;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Writes the requested ranges as 206 Partial Content, or 416 if they cannot be satisfied.
+   *
+   * @param webRequest the current request
+   * @param length the length of the complete representation
+   * @param contentType the content type of the complete representation
+   * @param reader the reader for the content of the representation
+   * @throws IOException if reading the content or writing the response failed
+   */
+  static void write(ServletWebRequest webRequest, long length, String contentType,
+      RangeReader reader) throws IOException {
+    HttpServletResponse response = webRequest.getResponse();
+    List<HttpRange> ranges;
+    try {
+      ranges = HttpRange.parseRanges(webRequest.getHeader(HttpHeaders.RANGE));
+      for (HttpRange range : ranges) {
+        if (range.getRangeStart(length) >= length
+            || range.getRangeStart(length) > range.getRangeEnd(length)) {
+          throw new IllegalArgumentException("Range " + range + " exceeds " + length);
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+      response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    }
+
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    if (ranges.size() == 1) {
+      HttpRange range = ranges.get(0);
+      long start = range.getRangeStart(length);
+      long end = range.getRangeEnd(length);
+      response.setContentType(contentType);
+      response.setContentLengthLong(end - start + 1);
+      response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(start, end, length));
+      reader.copy(start, end - start + 1, response.getOutputStream());
+      return;
+    }
+
+    String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+    response.setContentType("multipart/byteranges; boundary=" + boundary);
+    OutputStream output = response.getOutputStream();
+    for (HttpRange range : ranges) {
+      long start = range.getRangeStart(length);
+      long end = range.getRangeEnd(length);
+      print(output, "\r\n--" + boundary + "\r\n");
+      print(output, HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n");
+      print(output, HttpHeaders.CONTENT_RANGE + ": " + contentRange(start, end, length) + "\r\n");
+      print(output, "\r\n");
+      reader.copy(start, end - start + 1, output);
+    }
+    print(output, "\r\n--" + boundary + "--\r\n");
+  }
+
+  private static String contentRange(long start, long end, long length) {
+    return "bytes " + start + "-" + end + "/" + length;
+  }
+
+  private static void print(OutputStream output, String text) throws IOException {
+    output.write(text.getBytes(US_ASCII));
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.controller;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.rbmhtechnology.apidocserver.service.Deadline;
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Gives every request the deadline after which its response times out. Work done on behalf of the
+ * request, like waiting for the repository, is given up at that deadline.
+ */
+@Component
+public class RequestDeadlineFilter extends OncePerRequestFilter {
+
+  private final long timeoutMillis;
+
+  public RequestDeadlineFilter(
+      @Value("${spring.mvc.async.request-timeout:30000}") long timeoutMillis) {
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+      FilterChain filterChain) throws ServletException, IOException {
+    try (Deadline.Scope scope = Deadline.enter(Deadline.after(timeoutMillis, MILLISECONDS))) {
+      filterChain.doFilter(request, response);
+    }
+  }
+}
@@ -29,4 +29,8 @@ public class DownloadException extends RepositoryException {
   public DownloadException(String message, Throwable cause) {
     super(message, cause);
   }
+
+  protected DownloadException(String message, Throwable cause, boolean writableStackTrace) {
+    super(message, cause, writableStackTrace);
+  }
 }
\ No newline at end of file
@@ -30,4 +30,12 @@ public class RepositoryException extends Exception {
     super(message, cause);
   }
 
+  /**
+   * @param writableStackTrace false for expected outcomes, which are not worth the cost of
+   *     recording the stack trace
+   */
+  protected RepositoryException(String message, Throwable cause, boolean writableStackTrace) {
+    super(message, cause, true, writableStackTrace);
+  }
+
 }
\ No newline at end of file
@@ -18,7 +18,8 @@ package com.rbmhtechnology.apidocserver.exception;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
 /**
- * Indicates an exception caused by a not found artifact version in the repository
+ * Indicates an exception caused by a not found artifact version in the repository. It is an
+ * expected answer of the repository, so no stack trace is recorded.
  */
 @ResponseStatus(org.springframework.http.HttpStatus.NOT_FOUND)
 public class VersionNotFoundException extends RepositoryException {
@@ -26,10 +27,10 @@ public class VersionNotFoundException extends RepositoryException {
   private static final long serialVersionUID = 1L;
 
   public VersionNotFoundException(String message) {
-    super(message);
+    super(message, null, false);
   }
 
   public VersionNotFoundException(String message, Throwable cause) {
-    super(message, cause);
+    super(message, cause, false);
   }
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import java.io.File;
+
+/**
+ * Published when a downloaded documentation jar is no longer served from the caches of the
+ * {@link RepositoryService}, e.g. because a snapshot expired.
+ */
+public class ArtifactEvictedEvent {
+
+  private final ArtifactIdentifier artifactIdentifier;
+  private final File file;
+
+  public ArtifactEvictedEvent(ArtifactIdentifier artifactIdentifier, File file) {
+    this.artifactIdentifier = artifactIdentifier;
+    this.file = file;
+  }
+
+  public ArtifactIdentifier getArtifactIdentifier() {
+    return artifactIdentifier;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public String toString() {
+    return "ArtifactEvictedEvent{" + artifactIdentifier + ", " + file + "}";
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Loads the values missing from a cache on the requesting thread, like
+ * {@link LoadingCache#get(Object)}, but without holding a monitor. Guava loads a missing entry
+ * while synchronized on it, which pins a virtual thread to its carrier thread for the whole
+ * download, so no more artifacts than there are processors could be loaded at a time. Concurrent
+ * requests for the same key wait for the same load. Refreshes are still run by the cache itself.
+ */
+final class CacheLoads<K, V> {
+
+  private final LoadingCache<K, V> cache;
+  private final CacheLoader<K, V> loader;
+  private final ConcurrentMap<K, CompletableFuture<V>> running = new ConcurrentHashMap<>();
+
+  /**
+   * @param cache the cache the loaded values are put into
+   * @param loader the loader of the cache
+   */
+  CacheLoads(LoadingCache<K, V> cache, CacheLoader<K, V> loader) {
+    this.cache = cache;
+    this.loader = loader;
+  }
+
+  V getIfPresent(K key) {
+    return cache.getIfPresent(key);
+  }
+
+  /**
+   * @return the cached value, or the value loaded by this or a concurrent call
+   * @throws ExecutionException if the loader threw a checked exception
+   * @throws UncheckedExecutionException if the loader threw an unchecked exception
+   */
+  V get(K key) throws ExecutionException {
+    V value = cache.getIfPresent(key);
+    if (value != null) {
+      return value;
+    }
+    CompletableFuture<V> load = new CompletableFuture<>();
+    CompletableFuture<V> concurrent = running.putIfAbsent(key, load);
+    if (concurrent != null) {
+      try {
+        return Uninterruptibles.getUninterruptibly(concurrent);
+      } catch (ExecutionException e) {
+        throw failure(e.getCause());
+      }
+    }
+    try {
+      // a concurrent load may have completed in the meantime
+      value = cache.asMap().get(key);
+      if (value == null) {
+        value = loader.load(key);
+        if (value == null) {
+          throw new InvalidCacheLoadException("CacheLoader returned null for key " + key + ".");
+        }
+        cache.put(key, value);
+      }
+      load.complete(value);
+      return value;
+    } catch (Throwable t) {
+      load.completeExceptionally(t);
+      throw failure(t);
+    } finally {
+      running.remove(key, load);
+    }
+  }
+
+  /**
+   * Wraps a failed load the way {@link LoadingCache#get(Object)} does.
+   */
+  private static ExecutionException failure(Throwable cause) {
+    if (cause instanceof InterruptedException) {
+      Thread.currentThread().interrupt();
+    }
+    if (cause instanceof RuntimeException) {
+      throw new UncheckedExecutionException(cause);
+    }
+    if (cause instanceof Error) {
+      throw new ExecutionError((Error) cause);
+    }
+    return new ExecutionException(cause);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Estimates how often keys have been seen recently, in a fixed amount of memory. This is a
+ * count-min sketch of counters up to 15, as used by TinyLFU: once ten times as many keys have been
+ * counted as the sketch is wide, all counters are halved, so past popularity fades.
+ */
+public final class FrequencySketch<K> {
+
+  /**
+   * the highest frequency a key can reach
+   */
+  public static final int MAX_FREQUENCY = 15;
+
+  private static final int DEPTH = 4;
+  private static final int[] SEEDS = {0x97cb3127, 0x9e3779b9, 0x85ebca6b, 0xc2b2ae35};
+
+  private final AtomicIntegerArray counters;
+  private final int width;
+  private final int sampleSize;
+  private final AtomicInteger additions = new AtomicInteger();
+  private final ReentrantLock aging = new ReentrantLock();
+
+  /**
+   * @param expectedKeys the number of distinct keys which are expected to be counted
+   */
+  public FrequencySketch(int expectedKeys) {
+    this.width = Integer.highestOneBit(Math.max(16, expectedKeys - 1) << 1);
+    this.counters = new AtomicIntegerArray(width * DEPTH);
+    this.sampleSize = 10 * width;
+  }
+
+  public void increment(K key) {
+    int hash = spread(key.hashCode());
+    boolean added = false;
+    for (int row = 0; row < DEPTH; row++) {
+      int index = index(hash, row);
+      int count;
+      do {
+        count = counters.get(index);
+      } while (count < MAX_FREQUENCY && !counters.compareAndSet(index, count, count + 1));
+      added |= count < MAX_FREQUENCY;
+    }
+    if (added && additions.incrementAndGet() >= sampleSize) {
+      age();
+    }
+  }
+
+  /**
+   * @return the estimated number of times the key has been counted recently, at most 15
+   */
+  public int frequency(K key) {
+    int hash = spread(key.hashCode());
+    int frequency = MAX_FREQUENCY;
+    for (int row = 0; row < DEPTH; row++) {
+      frequency = Math.min(frequency, counters.get(index(hash, row)));
+    }
+    return frequency;
+  }
+
+  private void age() {
+    // the thread which is aging the counters already covers these additions as well
+    if (!aging.tryLock()) {
+      return;
+    }
+    try {
+      if (additions.get() < sampleSize) {
+        // another thread aged the counters in the meantime
+        return;
+      }
+      for (int i = 0; i < counters.length(); i++) {
+        counters.set(i, counters.get(i) >>> 1);
+      }
+      additions.addAndGet(-sampleSize / 2);
+    } finally {
+      aging.unlock();
+    }
+  }
+
+  private int index(int hash, int row) {
+    int h = (hash + SEEDS[row]) * SEEDS[row];
+    h ^= h >>> 16;
+    return row * width + (h & (width - 1));
+  }
+
+  private static int spread(int hash) {
+    int h = hash * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Remembers the last value loaded from the repository for each key, so it can be served stale
+ * while the repository is unavailable. Keeps track of which values have been served stale since
+ * they were loaded.
+ */
+final class LastKnownGood<K, V> {
+
+  private final Cache<K, Entry<V>> entries;
+
+  /**
+   * @param maximumSize the number of keys to remember
+   * @param discard called for values which are forgotten other than by replacing them
+   */
+  LastKnownGood(int maximumSize, BiConsumer<K, V> discard) {
+    this.entries = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .<K, Entry<V>>removalListener(notification -> {
+          if (notification.getCause() != RemovalCause.REPLACED && notification.getKey() != null
+              && notification.getValue() != null && !notification.getValue().taken) {
+            discard.accept(notification.getKey(), notification.getValue().value);
+          }
+        })
+        .build();
+  }
+
+  /**
+   * @param loadedAt the time the value has been loaded from the repository, in milliseconds
+   */
+  void put(K key, V value, long loadedAt) {
+    entries.put(key, new Entry<>(value, loadedAt));
+  }
+
+  void put(K key, V value) {
+    put(key, value, System.currentTimeMillis());
+  }
+
+  /**
+   * @return the remembered value, which is marked as served stale, or null
+   */
+  V serveStale(K key) {
+    Entry<V> entry = entries.getIfPresent(key);
+    if (entry == null) {
+      return null;
+    }
+    entry.servedStale = true;
+    return entry.value;
+  }
+
+  /**
+   * @return the age in seconds of the value if it has been served stale since it was loaded,
+   *     otherwise -1
+   */
+  long staleAgeSeconds(K key) {
+    Entry<V> entry = entries.getIfPresent(key);
+    if (entry == null || !entry.servedStale) {
+      return -1;
+    }
+    return TimeUnit.MILLISECONDS
+        .toSeconds(Math.max(0, System.currentTimeMillis() - entry.loadedAt));
+  }
+
+  void invalidate(K key) {
+    entries.invalidate(key);
+  }
+
+  /**
+   * Forgets the value of a key without discarding it, as it is in use again.
+   *
+   * @return the remembered value or null
+   */
+  V take(K key) {
+    Entry<V> entry = entries.getIfPresent(key);
+    if (entry == null) {
+      return null;
+    }
+    entry.taken = true;
+    entries.asMap().remove(key, entry);
+    return entry.value;
+  }
+
+  private static final class Entry<V> {
+
+    private final V value;
+    private final long loadedAt;
+    private volatile boolean servedStale;
+    private volatile boolean taken;
+
+    Entry(V value, long loadedAt) {
+      this.value = value;
+      this.loadedAt = loadedAt;
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the server as out of service while the {@link LocalStorageIndexer} restores the local
+ * storage, so load balancers only send requests once documentation downloaded before the restart
+ * is served from the local storage again.
+ */
+@Component
+public class LocalStorageHealthIndicator implements HealthIndicator {
+
+  private final LocalStorageIndexer indexer;
+
+  public LocalStorageHealthIndicator(LocalStorageIndexer indexer) {
+    this.indexer = indexer;
+  }
+
+  @Override
+  public Health health() {
+    boolean indexing = indexer.isIndexing();
+    return Health.status(indexing ? Status.OUT_OF_SERVICE : Status.UP)
+        .withDetail("indexing", indexing)
+        .withDetail("restored", indexer.getRestored())
+        .withDetail("rejected", indexer.getRejected())
+        .build();
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rbmhtechnology.apidocserver.service.jar.JarManifest;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rebuilds the caches of the {@link RepositoryService} from the jars in the local storage when the
+ * server starts, so documentation downloaded before a restart is not downloaded again. Every jar
+ * is verified against its {@link JarManifest} first, jars without a matching manifest are
+ * downloaded again when they are requested.
+ * <p>
+ * By default requests are served while the local storage is being indexed, released jars which
+ * are requested before they have been indexed are verified on demand. If startup should wait for
+ * the index, the server only starts listening once it is complete.
+ */
+@Component
+public class LocalStorageIndexer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LocalStorageIndexer.class);
+
+  private final RepositoryService repositoryService;
+  private final boolean enabled;
+  private final boolean waitForIndex;
+  private final int threads;
+  private final AtomicInteger restored = new AtomicInteger();
+  private final AtomicInteger rejected = new AtomicInteger();
+  private volatile boolean indexing;
+
+  /**
+   * @param enabled false to start with empty caches
+   * @param waitForIndex true to complete startup only after the local storage has been indexed
+   * @param threads the number of jars verified at the same time
+   */
+  public LocalStorageIndexer(RepositoryService repositoryService,
+      @Value("${localstorage.warmup.enabled:true}") boolean enabled,
+      @Value("${localstorage.warmup.wait:false}") boolean waitForIndex,
+      @Value("${localstorage.warmup.threads:4}") int threads) {
+    this.repositoryService = repositoryService;
+    this.enabled = enabled;
+    this.waitForIndex = waitForIndex;
+    this.threads = threads;
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    indexing = true;
+    if (waitForIndex) {
+      index();
+    } else {
+      Thread thread = new Thread(this::index, "localstorage-indexer");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * @return true while the local storage is being indexed
+   */
+  public boolean isIndexing() {
+    return indexing;
+  }
+
+  /**
+   * @return the number of jars restored from the local storage
+   */
+  public int getRestored() {
+    return restored.get();
+  }
+
+  /**
+   * @return the number of jars which did not match their manifest
+   */
+  public int getRejected() {
+    return rejected.get();
+  }
+
+  private void index() {
+    try {
+      File storage = repositoryService.getLocalJarStorage();
+      if (storage == null || !storage.isDirectory()) {
+        return;
+      }
+      long start = System.nanoTime();
+      List<StoredJar> jars = scan(storage);
+      // the most recently stored jars last, so they are the ones kept if the caches are too small
+      jars.sort(Comparator.comparingLong(jar -> jar.manifest.storedAt()));
+
+      ExecutorService verifiers = Executors.newFixedThreadPool(threads,
+          new ThreadFactoryBuilder().setNameFormat("localstorage-indexer-%d").setDaemon(true)
+              .build());
+      try {
+        jars.forEach(jar -> verifiers.execute(() -> restore(jar)));
+        verifiers.shutdown();
+        verifiers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } finally {
+        verifiers.shutdownNow();
+      }
+      LOG.info("Restored {} of {} jars from '{}' in {} ms", restored.get(), jars.size(), storage,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Indexing the local storage has been interrupted");
+    } catch (RuntimeException e) {
+      LOG.error("Could not index the local storage", e);
+    } finally {
+      indexing = false;
+    }
+  }
+
+  /**
+   * Finds the jars of the expected classifiers in the layout
+   * {@code <groupId>/<artifactId>/<version>/<classifier>.jar} which have a manifest.
+   */
+  private List<StoredJar> scan(File storage) {
+    List<StoredJar> jars = new ArrayList<>();
+    for (File group : directories(storage)) {
+      for (File artifact : directories(group)) {
+        for (File version : directories(artifact)) {
+          for (String classifier : repositoryService.getExpectedClassifiers()) {
+            File jar = new File(version, classifier + ".jar");
+            JarManifest manifest = jar.isFile() ? JarManifest.read(jar) : null;
+            if (manifest != null) {
+              jars.add(new StoredJar(new ArtifactIdentifier(group.getName(), artifact.getName(),
+                  version.getName(), classifier), jar, manifest));
+            }
+          }
+        }
+      }
+    }
+    return jars;
+  }
+
+  private static File[] directories(File parent) {
+    // hidden directories, like the blob store, are not part of the layout
+    File[] directories = parent.listFiles(file -> file.isDirectory()
+        && !file.getName().startsWith("."));
+    return directories == null ? new File[0] : directories;
+  }
+
+  private void restore(StoredJar jar) {
+    try {
+      if (!jar.manifest.matches(jar.file)) {
+        rejected.incrementAndGet();
+        LOG.warn("Not restoring '{}', it does not match its manifest", jar.file);
+        return;
+      }
+    } catch (IOException e) {
+      rejected.incrementAndGet();
+      LOG.warn("Not restoring '{}', it could not be verified", jar.file, e);
+      return;
+    }
+    if (repositoryService.restore(jar.artifactIdentifier, jar.file, jar.manifest.storedAt())) {
+      restored.incrementAndGet();
+      LOG.debug("Restored '{}' from '{}'", jar.artifactIdentifier, jar.file);
+    }
+  }
+
+  private static final class StoredJar {
+
+    private final ArtifactIdentifier artifactIdentifier;
+    private final File file;
+    private final JarManifest manifest;
+
+    StoredJar(ArtifactIdentifier artifactIdentifier, File file, JarManifest manifest) {
+      this.artifactIdentifier = artifactIdentifier;
+      this.file = file;
+      this.manifest = manifest;
+    }
+  }
+}
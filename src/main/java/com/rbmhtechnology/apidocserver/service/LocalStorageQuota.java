@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rbmhtechnology.apidocserver.service.jar.EntryIndex;
+import com.rbmhtechnology.apidocserver.service.jar.ExplodedJars;
+import com.rbmhtechnology.apidocserver.service.jar.JarManifest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the jars in the local storage within a byte quota. A jar occupies its own bytes, those of
+ * its index and manifest, and, if it has been extracted, the bytes of its entries. Once the stored
+ * jars exceed the high watermark of the quota, a sweeper evicts jars until they fit below the low
+ * watermark again. The jars which are requested least per byte they occupy are evicted first, so
+ * a large jar has to be requested more often than a small one to be kept.
+ * <p>
+ * While the quota is exhausted, a newly downloaded jar is only admitted if it has been requested
+ * more often recently than the jar which would be evicted for it (TinyLFU). Otherwise it is
+ * evicted itself, once it has served the requests it was downloaded for. So jars requested only
+ * once, for example by a crawler, do not push out popular documentation.
+ */
+@Component
+public class LocalStorageQuota {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LocalStorageQuota.class);
+
+  private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+  /**
+   * the least requests per byte first, among those the least recently stored first
+   */
+  private static final Comparator<StoredJar> BY_VALUE = Comparator
+      .<StoredJar>comparingDouble(jar -> jar.value)
+      .thenComparingLong(jar -> jar.storedAt);
+
+  private final long quotaBytes;
+  private final long highWatermarkBytes;
+  private final long lowWatermarkBytes;
+  private final long graceMillis;
+  private final ConcurrentMap<ArtifactIdentifier, StoredJar> jars = new ConcurrentHashMap<>();
+  private final AtomicLong usage = new AtomicLong();
+  private final ConcurrentMap<String, AtomicLong> groupUsage = new ConcurrentHashMap<>();
+  private final FrequencySketch<ArtifactIdentifier> sketch = new FrequencySketch<>(10_000);
+  private final MeterRegistry meterRegistry;
+  private final Counter evictions;
+  private final Counter rejections;
+  private final ScheduledExecutorService sweeper;
+  private final ReentrantLock sweepLock = new ReentrantLock();
+  private volatile Consumer<ArtifactIdentifier> evictionListener = artifactIdentifier -> {
+  };
+
+  /**
+   * @param quotaMegabytes the size of the local storage in megabytes, 0 for no limit
+   * @param highWatermarkPercent the usage of the quota in percent which starts a sweep
+   * @param lowWatermarkPercent the usage of the quota in percent a sweep stops at
+   * @param sweepIntervalSeconds the interval in which the usage is checked
+   */
+  @Autowired
+  public LocalStorageQuota(@Value("${localstorage.quota:0}") long quotaMegabytes,
+      @Value("${localstorage.quota.high-watermark:95}") int highWatermarkPercent,
+      @Value("${localstorage.quota.low-watermark:85}") int lowWatermarkPercent,
+      @Value("${localstorage.quota.sweep-interval:60}") int sweepIntervalSeconds,
+      MeterRegistry meterRegistry) {
+    // jars are opened after they have been loaded, so they are not evicted before that
+    this(quotaMegabytes * BYTES_PER_MEGABYTE, highWatermarkPercent, lowWatermarkPercent,
+        sweepIntervalSeconds, TimeUnit.MINUTES.toMillis(1), meterRegistry);
+  }
+
+  LocalStorageQuota(long quotaBytes, int highWatermarkPercent, int lowWatermarkPercent,
+      int sweepIntervalSeconds, long graceMillis, MeterRegistry meterRegistry) {
+    if (lowWatermarkPercent > highWatermarkPercent) {
+      throw new IllegalArgumentException("The low watermark " + lowWatermarkPercent
+          + "% exceeds the high watermark " + highWatermarkPercent + "%");
+    }
+    this.quotaBytes = quotaBytes;
+    this.highWatermarkBytes = quotaBytes / 100 * highWatermarkPercent;
+    this.lowWatermarkBytes = quotaBytes / 100 * lowWatermarkPercent;
+    this.graceMillis = graceMillis;
+    this.meterRegistry = meterRegistry;
+    this.evictions = Counter.builder("apidoc.localstorage.evictions")
+        .description("jars deleted from the local storage to stay within the quota")
+        .register(meterRegistry);
+    this.rejections = Counter.builder("apidoc.localstorage.rejections")
+        .description("downloaded jars not admitted to the exhausted local storage")
+        .register(meterRegistry);
+    Gauge.builder("apidoc.localstorage.usage", usage, AtomicLong::get)
+        .description("size of the jars and their derived files in the local storage")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    Gauge.builder("apidoc.localstorage.quota", () -> quotaBytes)
+        .description("size the local storage is limited to, 0 if it is not limited")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+
+    if (quotaBytes > 0) {
+      this.sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("localstorage-sweeper").setDaemon(true).build());
+      sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalSeconds, sweepIntervalSeconds,
+          TimeUnit.SECONDS);
+    } else {
+      this.sweeper = null;
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+    }
+  }
+
+  /**
+   * @param listener called with every evicted artifact, to delete its jar
+   */
+  void onEviction(Consumer<ArtifactIdentifier> listener) {
+    this.evictionListener = listener;
+  }
+
+  /**
+   * Counts a request for the jar of an artifact.
+   */
+  void recordAccess(ArtifactIdentifier artifactIdentifier) {
+    sketch.increment(artifactIdentifier);
+  }
+
+  /**
+   * Accounts for a jar which has been downloaded, and decides whether it is admitted if the quota
+   * is exhausted.
+   */
+  void add(ArtifactIdentifier artifactIdentifier, File file) {
+    StoredJar jar = track(artifactIdentifier, file, System.currentTimeMillis());
+    if (quotaBytes <= 0 || usage.get() <= highWatermarkBytes) {
+      return;
+    }
+    StoredJar victim = null;
+    double victimValue = Double.MAX_VALUE;
+    for (StoredJar candidate : jars.values()) {
+      double value = value(candidate);
+      if (candidate != jar && value < victimValue) {
+        victim = candidate;
+        victimValue = value;
+      }
+    }
+    if (victim != null && sketch.frequency(artifactIdentifier)
+        <= sketch.frequency(victim.artifactIdentifier)) {
+      jar.rejected = true;
+      rejections.increment();
+      LOG.debug("Not admitting '{}' to the exhausted local storage", artifactIdentifier);
+    }
+    sweeper.execute(this::sweep);
+  }
+
+  /**
+   * Accounts for a jar which has been stored before a restart.
+   *
+   * @param storedAt the time the jar has been downloaded, in milliseconds
+   */
+  void restore(ArtifactIdentifier artifactIdentifier, File file, long storedAt) {
+    track(artifactIdentifier, file, storedAt);
+  }
+
+  /**
+   * Stops accounting for a jar which has been deleted.
+   */
+  void remove(ArtifactIdentifier artifactIdentifier) {
+    StoredJar jar = jars.remove(artifactIdentifier);
+    if (jar != null) {
+      release(jar);
+    }
+  }
+
+  private StoredJar track(ArtifactIdentifier artifactIdentifier, File file, long storedAt) {
+    StoredJar jar = new StoredJar(artifactIdentifier, sizeOf(file), storedAt);
+    StoredJar previous = jars.put(artifactIdentifier, jar);
+    if (previous != null) {
+      release(previous);
+    }
+    usage.addAndGet(jar.size);
+    groupUsage(artifactIdentifier.getGroupId()).addAndGet(jar.size);
+    return jar;
+  }
+
+  /**
+   * @return the bytes a jar and the files derived from it occupy, extracted entries are counted
+   *     in full, even if their content is shared with other jars
+   */
+  static long sizeOf(File jar) {
+    long size = jar.length() + EntryIndex.fileOf(jar).length() + JarManifest.fileOf(jar).length();
+    if (!ExplodedJars.directoryOf(jar).isDirectory()) {
+      return size;
+    }
+    EntryIndex index = EntryIndex.readPersisted(jar);
+    if (index != null) {
+      for (int entry = 0; entry < index.size(); entry++) {
+        if (!index.isDirectory(entry)) {
+          size += index.size(entry);
+        }
+      }
+    }
+    return size;
+  }
+
+  private void release(StoredJar jar) {
+    usage.addAndGet(-jar.size);
+    groupUsage(jar.artifactIdentifier.getGroupId()).addAndGet(-jar.size);
+  }
+
+  private AtomicLong groupUsage(String groupId) {
+    return groupUsage.computeIfAbsent(groupId, group -> {
+      AtomicLong bytes = new AtomicLong();
+      Gauge.builder("apidoc.localstorage.group.usage", bytes, AtomicLong::get)
+          .description("size of the jars of a group and their derived files")
+          .baseUnit("bytes")
+          .tag("group", group)
+          .register(meterRegistry);
+      return bytes;
+    });
+  }
+
+  /**
+   * Evicts the jars which have not been admitted, and, if the usage exceeds the high watermark,
+   * the least valuable jars until it is below the low watermark. Jars which have just been stored
+   * are not evicted yet, but the space of rejected ones is counted as free already.
+   */
+  void sweep() {
+    sweepLock.lock();
+    try {
+      if (quotaBytes <= 0) {
+        return;
+      }
+      try {
+        long now = System.currentTimeMillis();
+        List<StoredJar> candidates = new ArrayList<>();
+        long pending = 0;
+        for (StoredJar jar : jars.values()) {
+          if (now - jar.storedAt < graceMillis) {
+            pending += jar.rejected ? jar.size : 0;
+          } else if (jar.rejected) {
+            evict(jar);
+          } else {
+            // fixed for the sort, as the frequencies keep changing
+            jar.value = value(jar);
+            candidates.add(jar);
+          }
+        }
+        if (usage.get() - pending <= highWatermarkBytes) {
+          return;
+        }
+        candidates.sort(BY_VALUE);
+        for (StoredJar jar : candidates) {
+          if (usage.get() - pending <= lowWatermarkBytes) {
+            break;
+          }
+          evict(jar);
+        }
+        LOG.info("Swept the local storage down to {} of {} bytes", usage.get(), quotaBytes);
+      } catch (RuntimeException e) {
+        LOG.error("Could not sweep the local storage", e);
+      }
+    } finally {
+      sweepLock.unlock();
+    }
+  }
+
+  /**
+   * @return the recent requests per byte of the jar
+   */
+  private double value(StoredJar jar) {
+    return (sketch.frequency(jar.artifactIdentifier) + 1) / (double) Math.max(1, jar.size);
+  }
+
+  private void evict(StoredJar jar) {
+    if (!jars.remove(jar.artifactIdentifier, jar)) {
+      return;
+    }
+    release(jar);
+    evictions.increment();
+    LOG.debug("Evicting '{}' from the local storage", jar.artifactIdentifier);
+    evictionListener.accept(jar.artifactIdentifier);
+  }
+
+  long getUsage() {
+    return usage.get();
+  }
+
+  private static final class StoredJar {
+
+    private final ArtifactIdentifier artifactIdentifier;
+    private final long size;
+    private final long storedAt;
+    private volatile boolean rejected;
+    /**
+     * requests per byte, as of the last sweep
+     */
+    private double value;
+
+    StoredJar(ArtifactIdentifier artifactIdentifier, long size, long storedAt) {
+      this.artifactIdentifier = artifactIdentifier;
+      this.size = size;
+      this.storedAt = storedAt;
+    }
+  }
+}
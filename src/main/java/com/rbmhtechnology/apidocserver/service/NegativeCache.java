@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.rbmhtechnology.apidocserver.exception.NotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers for a while which metadata and jars the repository does not have, so repeated
+ * requests for them, like those of crawlers following broken links, are answered without asking
+ * the repository again. Snapshots and artifact metadata change with every deployment, so they are
+ * remembered shorter than released versions. Hits and misses are reported as {@code cache.*}
+ * metrics of the caches {@code notFoundReleases} and {@code notFoundSnapshots}.
+ */
+@Component
+public class NegativeCache {
+
+  private final Cache<Object, String> releases;
+  private final Cache<Object, String> snapshots;
+
+  /**
+   * @param releaseTtlSeconds the time a missing released version is remembered, 0 to disable
+   * @param snapshotTtlSeconds the time a missing snapshot or artifact is remembered, 0 to disable
+   * @param maximumSize the number of missing keys remembered of each kind
+   */
+  public NegativeCache(
+      @Value("${repository.not-found.release-ttl:600}") long releaseTtlSeconds,
+      @Value("${repository.not-found.snapshot-ttl:60}") long snapshotTtlSeconds,
+      @Value("${repository.not-found.maximum-size:10000}") int maximumSize,
+      MeterRegistry meterRegistry) {
+    this.releases = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(releaseTtlSeconds, SECONDS)
+        .recordStats()
+        .build();
+    this.snapshots = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(snapshotTtlSeconds, SECONDS)
+        .recordStats()
+        .build();
+    GuavaCacheMetrics.monitor(meterRegistry, releases, "notFoundReleases");
+    GuavaCacheMetrics.monitor(meterRegistry, snapshots, "notFoundSnapshots");
+  }
+
+  /**
+   * @param key the missing metadata or artifact
+   * @param snapshot true if the key may appear with the next deployment
+   * @throws NotFoundException if the repository did not have the key recently
+   */
+  void check(Object key, boolean snapshot) throws NotFoundException {
+    String message = cache(snapshot).getIfPresent(key);
+    if (message != null) {
+      throw new NotFoundException(message);
+    }
+  }
+
+  /**
+   * @param key the metadata or artifact the repository does not have
+   * @param snapshot true if the key may appear with the next deployment
+   * @param notFound the answer of the repository
+   */
+  void put(Object key, boolean snapshot, NotFoundException notFound) {
+    cache(snapshot).put(key,
+        notFound.getMessage() == null ? "Not found: " + key : notFound.getMessage());
+  }
+
+  private Cache<Object, String> cache(boolean snapshot) {
+    return snapshot ? snapshots : releases;
+  }
+}
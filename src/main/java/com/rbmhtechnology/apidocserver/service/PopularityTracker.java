@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts the requests for documentation with a score that decays exponentially, so artifacts
+ * which are read frequently right now rank above artifacts which used to be popular. Artifacts are
+ * tracked by the requested version, so a popular version shortcut stays popular when it resolves
+ * to a newer version.
+ */
+@Component
+public class PopularityTracker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PopularityTracker.class);
+
+  /**
+   * the number of artifacts tracked at most, the least popular ones are dropped beyond
+   */
+  static final int MAX_TRACKED = 10_000;
+
+  private final double decayPerMilli;
+  private final LongSupplier clock;
+  private final ConcurrentMap<ArtifactIdentifier, Score> scores = new ConcurrentHashMap<>();
+
+  /**
+   * @param halfLifeSeconds the time after which a request counts half
+   */
+  @Autowired
+  public PopularityTracker(
+      @Value("${prefetch.popularity.half-life:86400}") long halfLifeSeconds) {
+    this(halfLifeSeconds, System::currentTimeMillis);
+  }
+
+  PopularityTracker(long halfLifeSeconds, LongSupplier clock) {
+    this.decayPerMilli = Math.log(2) / TimeUnit.SECONDS.toMillis(Math.max(1, halfLifeSeconds));
+    this.clock = clock;
+  }
+
+  /**
+   * Counts a request.
+   *
+   * @param requested the artifact with the version as requested
+   */
+  public void record(ArtifactIdentifier requested) {
+    if (scores.size() >= MAX_TRACKED && !scores.containsKey(requested)) {
+      trim(MAX_TRACKED / 2);
+    }
+    scores.computeIfAbsent(requested, key -> new Score()).add(1, clock.getAsLong());
+  }
+
+  /**
+   * @param requested the artifact with the version as requested
+   * @return the current score, the number of requests weighted by their age
+   */
+  double score(ArtifactIdentifier requested) {
+    Score score = scores.get(requested);
+    return score == null ? 0 : score.value(clock.getAsLong());
+  }
+
+  /**
+   * @param count the number of artifacts to return at most
+   * @return the most popular artifacts, the most popular one first
+   */
+  public List<ArtifactIdentifier> top(int count) {
+    List<ArtifactIdentifier> top = new ArrayList<>();
+    for (Map.Entry<ArtifactIdentifier, Double> entry : ranked()) {
+      if (top.size() >= count) {
+        break;
+      }
+      top.add(entry.getKey());
+    }
+    return top;
+  }
+
+  /**
+   * Drops all but the most popular artifacts.
+   *
+   * @param count the number of artifacts to keep
+   */
+  void trim(int count) {
+    List<Map.Entry<ArtifactIdentifier, Double>> ranked = ranked();
+    for (int i = count; i < ranked.size(); i++) {
+      scores.remove(ranked.get(i).getKey());
+    }
+  }
+
+  /**
+   * @return the artifacts with their score at the same moment, the most popular one first
+   */
+  private List<Map.Entry<ArtifactIdentifier, Double>> ranked() {
+    long now = clock.getAsLong();
+    List<Map.Entry<ArtifactIdentifier, Double>> ranked = new ArrayList<>(scores.size());
+    scores.forEach((artifact, score) ->
+        ranked.add(new SimpleImmutableEntry<>(artifact, score.value(now))));
+    ranked.sort(Map.Entry.<ArtifactIdentifier, Double>comparingByValue(Comparator.reverseOrder()));
+    return ranked;
+  }
+
+  /**
+   * Writes the most popular artifacts with their score, one per line as
+   * {@code <score> <groupId>:<artifactId>:<version>:<classifier>}.
+   *
+   * @param file the file to replace
+   * @param count the number of artifacts to write at most
+   * @throws IOException if the file could not be written
+   */
+  void save(File file, int count) throws IOException {
+    File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), UTF_8)) {
+      List<Map.Entry<ArtifactIdentifier, Double>> ranked = ranked();
+      for (int i = 0; i < Math.min(count, ranked.size()); i++) {
+        writer.write(ranked.get(i).getValue() + " " + ranked.get(i).getKey());
+        writer.newLine();
+      }
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Adds the scores written by {@link #save(File, int)} before a restart. Lines which cannot be
+   * parsed are skipped.
+   *
+   * @param file the file to read, nothing is loaded if it does not exist
+   * @throws IOException if the file could not be read
+   */
+  void load(File file) throws IOException {
+    if (!file.isFile()) {
+      return;
+    }
+    long now = clock.getAsLong();
+    for (String line : Files.readAllLines(file.toPath(), UTF_8)) {
+      String[] fields = line.trim().split(" ");
+      ArtifactIdentifier artifact = fields.length == 2 ? parse(fields[1]) : null;
+      if (artifact == null) {
+        LOG.debug("Skipping popularity entry '{}'", line);
+        continue;
+      }
+      try {
+        scores.computeIfAbsent(artifact, key -> new Score())
+            .add(Double.parseDouble(fields[0]), now);
+      } catch (NumberFormatException e) {
+        LOG.debug("Skipping popularity entry '{}'", line);
+      }
+    }
+  }
+
+  /**
+   * @param coordinates {@code <groupId>:<artifactId>:<version>:<classifier>}
+   * @return the artifact or null if the coordinates are incomplete
+   */
+  static ArtifactIdentifier parse(String coordinates) {
+    String[] parts = coordinates.trim().split(":");
+    if (parts.length != 4) {
+      return null;
+    }
+    for (String part : parts) {
+      if (part.isEmpty()) {
+        return null;
+      }
+    }
+    return new ArtifactIdentifier(parts[0], parts[1], parts[2], parts[3]);
+  }
+
+  /**
+   * The decaying score of an artifact, updated without locking as it is changed on every request.
+   */
+  private final class Score {
+
+    private final AtomicReference<Decayed> state = new AtomicReference<>(new Decayed(0, 0));
+
+    void add(double amount, long now) {
+      state.updateAndGet(current ->
+          new Decayed(current.value(now) + amount, Math.max(current.updatedAt, now)));
+    }
+
+    double value(long now) {
+      return state.get().value(now);
+    }
+  }
+
+  private final class Decayed {
+
+    private final double value;
+    private final long updatedAt;
+
+    private Decayed(double value, long updatedAt) {
+      this.value = value;
+      this.updatedAt = updatedAt;
+    }
+
+    private double value(long now) {
+      return value * Math.exp(-decayPerMilli * Math.max(0, now - updatedAt));
+    }
+  }
+}
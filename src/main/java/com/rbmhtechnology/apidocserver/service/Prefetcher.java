@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rbmhtechnology.apidocserver.exception.RepositoryException;
+import com.rbmhtechnology.apidocserver.service.mavenrepo.UpstreamLimiter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the documentation people actually read in the local storage. Once the server is ready,
+ * and then periodically, the most popular artifacts according to the {@link PopularityTracker}
+ * and a static warm list are loaded ahead of requests, so popular snapshots are downloaded again
+ * soon after they expired and version shortcuts follow new versions.
+ * <p>
+ * Prefetching runs on its own low priority threads, not on the repository executor, and an
+ * artifact is skipped while the {@link UpstreamLimiter} has no spare capacity, so it never delays
+ * cold loads of requests. The ranking is saved to the local storage, so it survives restarts.
+ */
+@Component
+public class Prefetcher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(Prefetcher.class);
+
+  /**
+   * the ranking in the local storage, hidden so it is not mistaken for a group
+   */
+  static final String POPULARITY_FILE = ".popularity";
+
+  private final RepositoryService repositoryService;
+  private final PopularityTracker popularityTracker;
+  private final UpstreamLimiter limiter;
+  private final boolean enabled;
+  private final int top;
+  private final long intervalSeconds;
+  private final List<ArtifactIdentifier> warmList = new ArrayList<>();
+  private final AtomicInteger prefetched = new AtomicInteger();
+  private final ScheduledExecutorService scheduler;
+  private final ExecutorService workers;
+
+  /**
+   * @param enabled false to neither track nor prefetch popular artifacts
+   * @param top the number of most popular artifacts kept in the local storage
+   * @param intervalSeconds the time between two rounds of prefetching
+   * @param threads the number of artifacts prefetched at the same time
+   * @param warmList comma separated {@code groupId:artifactId:version:classifier} coordinates
+   *     which are always prefetched
+   */
+  public Prefetcher(RepositoryService repositoryService,
+      PopularityTracker popularityTracker,
+      UpstreamLimiter limiter,
+      @Value("${prefetch.enabled:false}") boolean enabled,
+      @Value("${prefetch.top:50}") int top,
+      @Value("${prefetch.interval:600}") long intervalSeconds,
+      @Value("${prefetch.threads:1}") int threads,
+      @Value("${prefetch.warm-list:}") String warmList) {
+    this.repositoryService = repositoryService;
+    this.popularityTracker = popularityTracker;
+    this.limiter = limiter;
+    this.enabled = enabled;
+    this.top = top;
+    this.intervalSeconds = intervalSeconds;
+    for (String coordinates : warmList.split(",")) {
+      if (coordinates.trim().isEmpty()) {
+        continue;
+      }
+      ArtifactIdentifier artifact = PopularityTracker.parse(coordinates);
+      if (artifact == null) {
+        throw new IllegalArgumentException("Invalid coordinates '" + coordinates
+            + "' in prefetch.warm-list, expected groupId:artifactId:version:classifier");
+      }
+      this.warmList.add(artifact);
+    }
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(lowPriority("prefetch-scheduler"));
+    this.workers = Executors.newFixedThreadPool(Math.max(1, threads), lowPriority("prefetch-%d"));
+  }
+
+  private static ThreadFactory lowPriority(String nameFormat) {
+    return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true)
+        .setPriority(Thread.MIN_PRIORITY).build();
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    File file = popularityFile();
+    if (file != null) {
+      try {
+        popularityTracker.load(file);
+      } catch (IOException e) {
+        LOG.warn("Could not load the popular artifacts from '{}'", file, e);
+      }
+    }
+    scheduler.scheduleWithFixedDelay(this::prefetch, 0, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Counts a request for the documentation of an artifact, once for the artifact rather than for
+   * every entry of it.
+   *
+   * @param requested the artifact with the version as requested
+   */
+  public void record(ArtifactIdentifier requested) {
+    if (enabled) {
+      popularityTracker.record(requested);
+    }
+  }
+
+  /**
+   * @return the number of artifacts prefetched so far
+   */
+  public int getPrefetched() {
+    return prefetched.get();
+  }
+
+  /**
+   * Loads the warm list and the most popular artifacts, and saves the ranking.
+   */
+  void prefetch() {
+    try {
+      Set<ArtifactIdentifier> artifacts = new LinkedHashSet<>(warmList);
+      artifacts.addAll(popularityTracker.top(top));
+      List<Callable<Object>> loads = new ArrayList<>();
+      for (ArtifactIdentifier artifact : artifacts) {
+        loads.add(Executors.callable(() -> prefetch(artifact)));
+      }
+      workers.invokeAll(loads);
+      popularityTracker.trim(PopularityTracker.MAX_TRACKED / 2);
+      save();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      LOG.warn("Could not prefetch popular artifacts", e);
+    }
+  }
+
+  private void prefetch(ArtifactIdentifier artifact) {
+    if (!limiter.hasSpareCapacity()) {
+      LOG.debug("Not prefetching '{}', the repository is busy", artifact);
+      return;
+    }
+    try {
+      repositoryService.prefetch(artifact);
+      prefetched.incrementAndGet();
+      LOG.debug("Prefetched '{}'", artifact);
+    } catch (RepositoryException | RuntimeException e) {
+      LOG.debug("Could not prefetch '{}'", artifact, e);
+    }
+  }
+
+  private void save() {
+    File file = popularityFile();
+    if (file == null) {
+      return;
+    }
+    try {
+      popularityTracker.save(file, top);
+    } catch (IOException e) {
+      LOG.warn("Could not save the popular artifacts to '{}'", file, e);
+    }
+  }
+
+  private File popularityFile() {
+    File storage = repositoryService.getLocalJarStorage();
+    return storage == null || !storage.isDirectory() ? null : new File(storage, POPULARITY_FILE);
+  }
+
+  @PreDestroy
+  public void close() {
+    scheduler.shutdownNow();
+    workers.shutdownNow();
+    if (enabled) {
+      save();
+    }
+  }
+}
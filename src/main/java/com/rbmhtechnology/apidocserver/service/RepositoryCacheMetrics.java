@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the statistics of the caches of the {@link RepositoryService}. This is not a
+ * {@code MeterBinder}, as binders are created with the meter registry, which the repository
+ * service depends on itself.
+ */
+@Component
+public class RepositoryCacheMetrics {
+
+  public RepositoryCacheMetrics(RepositoryService repositoryService, MeterRegistry meterRegistry) {
+    repositoryService.bindCacheMetrics(meterRegistry);
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Provides the executor that downloads artifacts and resolves maven metadata, so request threads
+ * do not wait for the maven repository. With {@code threads.virtual.enabled} every load runs on
+ * its own virtual thread instead of a bounded pool.
+ */
+@Configuration
+public class RepositoryExecutorConfiguration {
+
+  public static final String REPOSITORY_EXECUTOR = "repositoryExecutor";
+  public static final String PROBE_EXECUTOR = "probeExecutor";
+
+  @Bean(name = REPOSITORY_EXECUTOR)
+  public Executor repositoryExecutor(
+      @Value("${repository.executor.threads:32}") int threads,
+      @Value("${repository.executor.queue-capacity:1000}") int queueCapacity,
+      @Value("${threads.virtual.enabled:false}") boolean virtualThreads) {
+    if (virtualThreads) {
+      return VirtualThreads.newThreadPerTaskExecutor("repository-");
+    }
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(threads);
+    executor.setMaxPoolSize(threads);
+    executor.setQueueCapacity(queueCapacity);
+    executor.setThreadNamePrefix("repository-");
+    return executor;
+  }
+
+  /**
+   * Sends the existence probes of the classifiers of a version at the same time, and hedged
+   * requests to mirrors. A probe waits for the repository only, so the pool is as large as the
+   * connection pool by default. When all threads are busy, the caller sends the probe itself, so
+   * slow repositories slow down the probing requests instead of starting more threads.
+   */
+  @Bean(name = PROBE_EXECUTOR)
+  public Executor probeExecutor(
+      @Value("${repository.probe.threads:${repository.http.max-connections:50}}") int threads,
+      @Value("${threads.virtual.enabled:false}") boolean virtualThreads) {
+    if (virtualThreads) {
+      return VirtualThreads.newThreadPerTaskExecutor("probe-");
+    }
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(0);
+    executor.setMaxPoolSize(threads);
+    executor.setQueueCapacity(0);
+    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.setThreadNamePrefix("probe-");
+    return executor;
+  }
+}
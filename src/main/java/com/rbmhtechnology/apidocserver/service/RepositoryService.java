@@ -15,6 +15,7 @@
  */
 package com.rbmhtechnology.apidocserver.service;
 
+import static com.rbmhtechnology.apidocserver.service.RepositoryExecutorConfiguration.REPOSITORY_EXECUTOR;
 import static com.rbmhtechnology.apidocserver.service.RepositoryService.MavenVersionRef.LATEST;
 import static com.rbmhtechnology.apidocserver.service.RepositoryService.MavenVersionRef.RELEASE;
 import static java.util.Comparator.reverseOrder;
@@ -23,29 +24,50 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.rbmhtechnology.apidocserver.exception.DownloadException;
+import com.rbmhtechnology.apidocserver.exception.NotFoundException;
 import com.rbmhtechnology.apidocserver.exception.RepositoryException;
+import com.rbmhtechnology.apidocserver.exception.RepositoryUnavailableException;
+import com.rbmhtechnology.apidocserver.exception.StorageException;
 import com.rbmhtechnology.apidocserver.exception.VersionNotFoundException;
+import com.rbmhtechnology.apidocserver.service.jar.BlobStore;
+import com.rbmhtechnology.apidocserver.service.jar.DedupStatistics;
+import com.rbmhtechnology.apidocserver.service.jar.EntryIndex;
+import com.rbmhtechnology.apidocserver.service.jar.ExplodedJars;
+import com.rbmhtechnology.apidocserver.service.jar.JarLeases;
+import com.rbmhtechnology.apidocserver.service.jar.JarManifest;
+import com.rbmhtechnology.apidocserver.service.mavenrepo.MavenMetadata;
+import com.rbmhtechnology.apidocserver.service.mavenrepo.MavenMetadata.SnapshotVersion;
+import com.rbmhtechnology.apidocserver.service.mavenrepo.MavenMetadataCache;
 import com.rbmhtechnology.apidocserver.service.mavenrepo.MavenRepoClient;
+import com.rbmhtechnology.apidocserver.service.mavenrepo.RepositoryCircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 @Service
 public class RepositoryService {
@@ -62,49 +84,171 @@ public class RepositoryService {
 
   private static final Logger LOG = LoggerFactory.getLogger(RepositoryService.class);
 
+  /**
+   * directory within the local storage holding the content of extracted entries
+   */
+  private static final String BLOB_DIRECTORY = ".blobs";
+
   private final String name;
   private final boolean snapshotsEnabled;
+  private final int snapshotCacheTimeoutSeconds;
   private final File localJarStorage;
+  private final boolean explode;
+  private final BlobStore blobStore;
+  private final DedupStatistics dedupStatistics;
   private final io.vavr.collection.List<String> classifiers;
   private final MavenRepoClient mavenClient;
+  private final MavenMetadataCache metadataCache;
+  private final ApplicationEventPublisher eventPublisher;
+  private final RepositoryCircuitBreaker circuitBreaker;
+  private final LocalStorageQuota localStorageQuota;
+  private final JarLeases jarLeases;
+  private final NegativeCache negativeCache;
+  private final Executor executor;
 
   private LoadingCache<ArtifactIdentifier, File> snapshotDownloadUrlCache;
   private LoadingCache<ArtifactIdentifier, File> releaseDownloadUrlCache;
 
-  private LoadingCache<GroupArtifactCacheKey, String> latestVersionCache;
-  private LoadingCache<GroupArtifactCacheKey, String> releaseVersionCache;
+  /**
+   * the parsed maven-metadata.xml of an artifact, which resolves "latest" and "release" and lists
+   * the versions, so a single download serves all of them
+   */
+  private LoadingCache<GroupArtifactCacheKey, MavenMetadata> artifactMetadataCache;
+  private LoadingCache<ArtifactIdentifier, List<String>> snapshotClassifierCache;
+  private LoadingCache<ArtifactIdentifier, List<String>> releaseClassifierCache;
+
+  /**
+   * load the values missing from the caches above without pinning virtual threads
+   */
+  private final CacheLoads<ArtifactIdentifier, File> snapshotJarLoads;
+  private final CacheLoads<ArtifactIdentifier, File> releaseJarLoads;
+  private final CacheLoads<GroupArtifactCacheKey, MavenMetadata> artifactMetadataLoads;
+  private final CacheLoads<ArtifactIdentifier, List<String>> snapshotClassifierLoads;
+  private final CacheLoads<ArtifactIdentifier, List<String>> releaseClassifierLoads;
+
+  /**
+   * expired values, which are served while the repository is unavailable
+   */
+  private final LastKnownGood<GroupArtifactCacheKey, MavenMetadata> staleArtifactMetadata =
+      new LastKnownGood<>(1000, (key, metadata) -> {
+      });
+  private final LastKnownGood<ArtifactIdentifier, List<String>> staleSnapshotClassifiers =
+      new LastKnownGood<>(1000, (version, classifiers) -> {
+      });
+  private final LastKnownGood<ArtifactIdentifier, File> staleSnapshotJars =
+      new LastKnownGood<>(1000, this::deleteJar);
+  private final Set<Object> revalidating = ConcurrentHashMap.newKeySet();
+
+  /**
+   * expiry times of snapshots restored from the local storage, which expire when they would have
+   * expired without the restart, rather than a full cache timeout after the restart
+   */
+  private final ConcurrentMap<ArtifactIdentifier, Long> restoredSnapshotExpiry =
+      new ConcurrentHashMap<>();
+  private final Set<ArtifactIdentifier> expiredRestoredSnapshots =
+      ConcurrentHashMap.newKeySet();
+
+  /**
+   * snapshots whose refresh found the same build in the repository, so replacing them in the
+   * cache does not evict anything derived from the jar
+   */
+  private final Set<ArtifactIdentifier> unchangedSnapshots = ConcurrentHashMap.newKeySet();
 
   public RepositoryService(
       @Value("${name:ApiDoc Server}") String name,
       @Value("${repository.snapshots.enabled:true}") boolean snapshotsEnabled,
       @Value("${repository.snapshots.cache-timeout:1800}") int cacheTimeoutSeconds,
       @Value("${localstorage:#{null}}") File localstoragePath,
+      @Value("${localstorage.explode:false}") boolean explode,
       @Value("#{'${expected.classifiers:javadoc,groovydoc,scaladoc}'.split(',')}") List<String> classifiers,
-      MavenRepoClient mavenClient) {
+      MavenRepoClient mavenClient,
+      MavenMetadataCache metadataCache,
+      ApplicationEventPublisher eventPublisher,
+      DedupStatistics dedupStatistics,
+      RepositoryCircuitBreaker circuitBreaker,
+      LocalStorageQuota localStorageQuota,
+      JarLeases jarLeases,
+      NegativeCache negativeCache,
+      @Qualifier(REPOSITORY_EXECUTOR) Executor executor) {
     this.name = name;
     this.snapshotsEnabled = snapshotsEnabled;
+    this.snapshotCacheTimeoutSeconds = cacheTimeoutSeconds;
     this.localJarStorage = localStorageOrTempFile(localstoragePath);
+    this.explode = explode;
+    this.blobStore = new BlobStore(new File(localJarStorage, BLOB_DIRECTORY));
+    this.dedupStatistics = dedupStatistics;
     this.classifiers = io.vavr.collection.List.ofAll(classifiers);
-
-    this.snapshotDownloadUrlCache = CacheBuilder.newBuilder()
+    this.eventPublisher = eventPublisher;
+    this.circuitBreaker = circuitBreaker;
+    this.localStorageQuota = localStorageQuota;
+    this.jarLeases = jarLeases;
+    this.negativeCache = negativeCache;
+    this.executor = executor;
+
+    ArtifactLoader artifactLoader = new ArtifactLoader();
+    this.snapshotDownloadUrlCache = refreshingAhead(cacheTimeoutSeconds)
         .maximumSize(1000)
-        .expireAfterWrite(cacheTimeoutSeconds, SECONDS)
         .removalListener(new SnapshotRemovalListener())
-        .build(new ArtifactLoader());
+        .build(CacheLoader.asyncReloading(artifactLoader, executor));
+    this.snapshotJarLoads = new CacheLoads<>(snapshotDownloadUrlCache, artifactLoader);
 
-    this.latestVersionCache = CacheBuilder.newBuilder()
+    ArtifactMetadataLoader artifactMetadataLoader = new ArtifactMetadataLoader();
+    this.artifactMetadataCache = refreshingAhead(cacheTimeoutSeconds)
         .maximumSize(1000)
-        .expireAfterWrite(cacheTimeoutSeconds, SECONDS)
-        .build(new MavenXmlVersionRefResolver(LATEST));
+        .build(CacheLoader.asyncReloading(artifactMetadataLoader, executor));
+    this.artifactMetadataLoads = new CacheLoads<>(artifactMetadataCache, artifactMetadataLoader);
     this.mavenClient = mavenClient;
+    this.metadataCache = metadataCache;
 
     this.releaseDownloadUrlCache = CacheBuilder.newBuilder()
         .maximumSize(1000)
-        .build(new ArtifactLoader());
+        .recordStats()
+        .removalListener(new ReleaseRemovalListener())
+        .build(artifactLoader);
+    this.releaseJarLoads = new CacheLoads<>(releaseDownloadUrlCache, artifactLoader);
 
-    this.releaseVersionCache = CacheBuilder.newBuilder()
+    ClassifierLoader classifierLoader = new ClassifierLoader();
+    this.snapshotClassifierCache = refreshingAhead(cacheTimeoutSeconds)
         .maximumSize(1000)
-        .build(new MavenXmlVersionRefResolver(RELEASE));
+        .build(CacheLoader.asyncReloading(classifierLoader, executor));
+    this.snapshotClassifierLoads = new CacheLoads<>(snapshotClassifierCache, classifierLoader);
+
+    // the classifiers of a released version never change
+    this.releaseClassifierCache = CacheBuilder.newBuilder()
+        .maximumSize(10000)
+        .recordStats()
+        .build(classifierLoader);
+    this.releaseClassifierLoads = new CacheLoads<>(releaseClassifierCache, classifierLoader);
+
+    localStorageQuota.onEviction(this::evict);
+  }
+
+  /**
+   * Entries older than the cache timeout are reloaded on the repository executor when they are
+   * requested, while the previous value is still served, so requests for popular snapshots and
+   * shortcuts never wait for the repository. Entries which have not been requested within twice
+   * the cache timeout expire.
+   */
+  private static CacheBuilder<Object, Object> refreshingAhead(int cacheTimeoutSeconds) {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+    if (cacheTimeoutSeconds <= 0) {
+      // nothing is cached, so there is nothing to refresh either
+      return builder.expireAfterWrite(0, SECONDS);
+    }
+    return builder
+        .refreshAfterWrite(cacheTimeoutSeconds, SECONDS)
+        .expireAfterWrite(2L * cacheTimeoutSeconds, SECONDS);
+  }
+
+  /**
+   * Reports the statistics of the caches, tagged with the name of the cache.
+   */
+  void bindCacheMetrics(MeterRegistry registry) {
+    GuavaCacheMetrics.monitor(registry, snapshotDownloadUrlCache, "snapshotJars");
+    GuavaCacheMetrics.monitor(registry, releaseDownloadUrlCache, "releaseJars");
+    GuavaCacheMetrics.monitor(registry, artifactMetadataCache, "artifactMetadata");
+    GuavaCacheMetrics.monitor(registry, snapshotClassifierCache, "snapshotClassifiers");
+    GuavaCacheMetrics.monitor(registry, releaseClassifierCache, "releaseClassifiers");
   }
 
   private File localStorageOrTempFile(@Value("${localstorage:#{null}}") File localJarStorage) {
@@ -118,6 +262,68 @@ public class RepositoryService {
     return classifiers;
   }
 
+  public int getSnapshotCacheTimeoutSeconds() {
+    return snapshotCacheTimeoutSeconds;
+  }
+
+  File getLocalJarStorage() {
+    return localJarStorage;
+  }
+
+  /**
+   * Registers a jar which has been stored in the local storage before a restart, unless the
+   * artifact has been loaded in the meantime. Released jars are cached like downloaded ones,
+   * snapshots for the rest of their cache timeout. Expired snapshots are only kept to be served
+   * stale while the repository is unavailable.
+   *
+   * @param artifactIdentifier the artifact the jar belongs to
+   * @param file the jar, which has been verified against its {@link JarManifest}
+   * @param storedAt the time the jar has been downloaded, in milliseconds
+   * @return false if the jar is not served anymore
+   */
+  boolean restore(ArtifactIdentifier artifactIdentifier, File file, long storedAt) {
+    if (artifactIdentifier.isSnapshot()) {
+      if (!snapshotsEnabled) {
+        return false;
+      }
+      long expiresAt = storedAt + SECONDS.toMillis(snapshotCacheTimeoutSeconds);
+      if (expiresAt <= System.currentTimeMillis()) {
+        if (snapshotDownloadUrlCache.getIfPresent(artifactIdentifier) == null) {
+          staleSnapshotJars.put(artifactIdentifier, file, storedAt);
+        }
+      } else {
+        restoredSnapshotExpiry.put(artifactIdentifier, expiresAt);
+        snapshotDownloadUrlCache.asMap().putIfAbsent(artifactIdentifier, file);
+      }
+    } else {
+      releaseDownloadUrlCache.asMap().putIfAbsent(artifactIdentifier, file);
+    }
+    localStorageQuota.restore(artifactIdentifier, file, storedAt);
+    EntryIndex index = EntryIndex.readPersisted(file);
+    if (index != null) {
+      dedupStatistics.record(index);
+    }
+    return true;
+  }
+
+  private void expireRestoredSnapshot(ArtifactIdentifier artifactIdentifier) {
+    Long expiresAt = restoredSnapshotExpiry.get(artifactIdentifier);
+    if (expiresAt != null && expiresAt <= System.currentTimeMillis()
+        && restoredSnapshotExpiry.remove(artifactIdentifier, expiresAt)) {
+      expiredRestoredSnapshots.add(artifactIdentifier);
+      snapshotDownloadUrlCache.invalidate(artifactIdentifier);
+    }
+  }
+
+  /**
+   * @param version the requested version
+   * @return true if the version is one of the shortcuts "latest" or "release"
+   */
+  public static boolean isVersionShortcut(String version) {
+    return LATEST_VERSION_SHORTCUT.equalsIgnoreCase(version)
+        || RELEASE_VERSION_SHORTCUT.equalsIgnoreCase(version);
+  }
+
 
   public enum MavenVersionRef {
     LATEST("latest"), RELEASE("release");
@@ -133,102 +339,169 @@ public class RepositoryService {
     }
   }
 
-  private String getVersionRefFromMetadataXML(String groupId, String artifactId,
-      MavenVersionRef versionRef) throws RepositoryException {
-    LOG.info("getVersionRefFromMetadataXML('{}','{}','{}')", groupId, artifactId, versionRef);
-    String version;
-
-    File mavenMetadataXmlFile = downloadMavenMetadataXml(groupId, artifactId);
-
-    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+  private MavenMetadata getArtifactMetadata(String groupId, String artifactId)
+      throws RepositoryException {
+    GroupArtifactCacheKey key = new GroupArtifactCacheKey(groupId, artifactId);
+    // a new artifact may be deployed any time, like a snapshot
+    negativeCache.check(key, true);
+    try {
+      return getOrServeStale(artifactMetadataLoads, staleArtifactMetadata, key);
+    } catch (ExecutionException e) {
+      rememberIfNotFound(key, true, e);
+      throw repositoryException(e, "Could not load maven-metadata.xml for groupId: '" + groupId
+          + "' and artifactId: '" + artifactId + "'");
+    }
+  }
 
-    // Using factory get an instance of document builder
-    DocumentBuilder db;
+  /**
+   * Gets a value from the cache. If it has expired and the repository is unavailable, the last
+   * known value is served stale instead and revalidated in the background. Callers do not wait for
+   * the repository while the circuit breaker is not closed.
+   */
+  private <K, V> V getOrServeStale(CacheLoads<K, V> cache, LastKnownGood<K, V> lastKnownGood,
+      K key) throws ExecutionException {
+    V value = cache.getIfPresent(key);
+    if (value != null) {
+      return value;
+    }
+    if (!circuitBreaker.isClosed()) {
+      value = serveStale(cache, lastKnownGood, key);
+      if (value != null) {
+        return value;
+      }
+    }
     try {
-      db = dbf.newDocumentBuilder();
-
-      // parse using builder to get DOM representation of the XML file
-      Document dom = db.parse(mavenMetadataXmlFile);
-
-      // get the root element
-      Element rootElement = dom.getDocumentElement();
-      NodeList latestNodeList = rootElement.getElementsByTagName(versionRef.getXmlElementName());
-      if (latestNodeList.getLength() > 1) {
-        throw new RepositoryException(
-            "Found more than one element '" + versionRef.getXmlElementName()
-                + "' in maven-metadata.xml");
-      } else if (latestNodeList.getLength() == 1) {
-        Node versionNode = latestNodeList.item(0);
-        version = versionNode.getTextContent();
-      } else {
-        throw new VersionNotFoundException(
-            "No " + versionRef + " version could be found for groupId: '"
-                + groupId + "' and artifactId: '" + artifactId + "'");
+      return cache.get(key);
+    } catch (ExecutionException e) {
+      if (isUnavailable(e.getCause())) {
+        value = serveStale(cache, lastKnownGood, key);
+        if (value != null) {
+          return value;
+        }
       }
+      throw e;
+    }
+  }
+
+  private <K, V> V serveStale(CacheLoads<K, V> cache, LastKnownGood<K, V> lastKnownGood,
+      K key) {
+    V stale = lastKnownGood.serveStale(key);
+    if (stale != null) {
+      LOG.debug("Serving '{}' stale, as the repository is unavailable", key);
+      revalidateInBackground(key, () -> cache.get(key));
+    }
+    return stale;
+  }
 
-    } catch (SAXException | IOException | ParserConfigurationException e) {
-      throw new RepositoryException("Could not parse maven-metadata.xml for groupId: '" + groupId
-          + "' and artifactId: '" + artifactId + "'", e);
+  private void revalidateInBackground(Object key, Callable<?> revalidation) {
+    if (!revalidating.add(key)) {
+      return;
     }
+    executor.execute(() -> {
+      try {
+        revalidation.call();
+        LOG.info("Revalidated '{}'", key);
+      } catch (Exception e) {
+        LOG.debug("Could not revalidate '{}': {}", key, e.getMessage());
+      } finally {
+        revalidating.remove(key);
+      }
+    });
+  }
 
-    return version;
+  /**
+   * @return true if the repository did not answer, so it does not tell whether the value changed
+   */
+  private static boolean isUnavailable(Throwable t) {
+    return t instanceof DownloadException && !(t instanceof NotFoundException);
   }
 
-  private File downloadMavenMetadataXml(String groupId, String artifactId)
-      throws RepositoryException {
-    File mavenMetadataXmlFile;
-    try {
-      mavenMetadataXmlFile = File.createTempFile(groupId + "-" + artifactId, "version");
-    } catch (IOException e) {
-      throw new RepositoryException("Could not create temp file for maven-metadata.xml download",
-          e);
+  private void rememberIfNotFound(Object key, boolean snapshot, ExecutionException e) {
+    if (e.getCause() instanceof NotFoundException) {
+      negativeCache.put(key, snapshot, (NotFoundException) e.getCause());
     }
+  }
 
-    // download
-    String downloadUrl = groupId.replace(".", "/") + "/"
-        + artifactId + "/" + "maven-metadata.xml";
+  private static RepositoryException repositoryException(ExecutionException e, String message) {
+    if (e.getCause() instanceof RepositoryException) {
+      return (RepositoryException) e.getCause();
+    }
+    return new RepositoryException(message, e);
+  }
 
-    mavenClient.get(downloadUrl, mavenMetadataXmlFile);
-    return mavenMetadataXmlFile;
+  /**
+   * @param requestedVersion the version as requested, which may be a shortcut
+   * @param artifactIdentifier the resolved artifact
+   * @return the age in seconds of the oldest outdated data the artifact has been served from
+   *     while the repository was unavailable, or -1 if all of it is up to date
+   */
+  public long getStaleAgeSeconds(String requestedVersion, ArtifactIdentifier artifactIdentifier) {
+    long age = -1;
+    if (isVersionShortcut(requestedVersion)) {
+      age = staleArtifactMetadata.staleAgeSeconds(new GroupArtifactCacheKey(
+          artifactIdentifier.getGroupId(), artifactIdentifier.getArtifactId()));
+    }
+    if (artifactIdentifier.isSnapshot()) {
+      age = Math.max(age, staleSnapshotJars.staleAgeSeconds(artifactIdentifier));
+    }
+    return age;
+  }
+
+  private static String getVersionRef(MavenMetadata metadata, GroupArtifactCacheKey key,
+      MavenVersionRef versionRef) throws RepositoryException {
+    List<String> versions = versionRef == LATEST ? metadata.getLatest() : metadata.getRelease();
+    if (versions.size() > 1) {
+      throw new RepositoryException(
+          "Found more than one element '" + versionRef.getXmlElementName()
+              + "' in maven-metadata.xml");
+    } else if (versions.isEmpty()) {
+      throw new VersionNotFoundException(
+          "No " + versionRef + " version could be found for groupId: '"
+              + key.getGroupId() + "' and artifactId: '" + key.getArtifactId() + "'");
+    }
+    return versions.get(0);
   }
 
   public List<String> getAvailableVersions(String groupId, String artifactId)
       throws RepositoryException {
     LOG.info("getAvailableVersions('{}','{}')", groupId, artifactId);
 
-    File mavenMetadataXmlFile = downloadMavenMetadataXml(groupId, artifactId);
-
-    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    List<String> versions = Lists.newArrayList(
+        getArtifactMetadata(groupId, artifactId).getVersions());
+    versions.sort(reverseOrder());
 
-    // Using factory get an instance of document builder
-    DocumentBuilder db;
+    return versions;
+  }
 
-    List<String> versions = Lists.newArrayList();
+  /**
+   * Reads the expected classifiers of a snapshot's jars from its maven-metadata.xml.
+   *
+   * @param version the snapshot version, without classifier
+   * @return the available expected classifiers or null, if the metadata does not list the
+   *     snapshot's files
+   */
+  private List<String> getSnapshotClassifiersFromMetadataXML(ArtifactIdentifier version)
+      throws RepositoryException {
+    MavenMetadata metadata;
     try {
-      db = dbf.newDocumentBuilder();
-
-      // parse using builder to get DOM representation of the XML file
-      Document dom = db.parse(mavenMetadataXmlFile);
-
-      // get the root element
-      Element rootElement = dom.getDocumentElement();
-      NodeList versionNodeList = rootElement.getElementsByTagName("version");
+      metadata = metadataCache.get(version);
+    } catch (NotFoundException e) {
+      return null;
+    }
+    if (metadata.getSnapshotVersions().isEmpty()) {
+      return null;
+    }
 
-      for (int i = 0; i < versionNodeList.getLength(); i++) {
-        Node item = versionNodeList.item(i);
-        if (!versions.contains(item.getTextContent())) {
-          versions.add(item.getTextContent());
-        }
+    List<String> available = Lists.newArrayList();
+    for (SnapshotVersion snapshotVersion : metadata.getSnapshotVersions()) {
+      String classifier = snapshotVersion.getClassifier();
+      if ("jar".equals(snapshotVersion.getExtension()) && classifiers.contains(classifier)
+          && !available.contains(classifier)) {
+        available.add(classifier);
       }
-
-    } catch (SAXException | IOException | ParserConfigurationException e) {
-      throw new RepositoryException("Could not parse maven-metadata.xml for groupId: '" + groupId
-          + "' and artifactId: '" + artifactId + "'", e);
     }
-
-    versions.sort(reverseOrder());
-
-    return versions;
+    available.sort(null);
+    return available;
   }
 
   private String getApidocFileNameFromMetadataXML(ArtifactIdentifier artifactIdentifier)
@@ -238,93 +511,23 @@ public class RepositoryService {
           + artifactIdentifier.getClassifier() + ".jar";
     }
 
-    File mavenMetadataXmlFile;
-    try {
-      mavenMetadataXmlFile = File.createTempFile(artifactIdentifier.toString(), ".xml");
-    } catch (IOException e) {
-      throw new RepositoryException("Could not create temp file for maven-metadata.xml download",
-          e);
-    }
-
-    // download
-    String downloadUrl = artifactIdentifier.getGroupId().replace(".", "/") + "/"
-        + artifactIdentifier.getArtifactId() + "/" + artifactIdentifier.getVersion()
-        + "/" + "maven-metadata.xml";
-
-    mavenClient.get(downloadUrl, mavenMetadataXmlFile);
-
-    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-
-    // Using factory get an instance of document builder
-    DocumentBuilder db;
-    try {
-      db = dbf.newDocumentBuilder();
-
-      // parse using builder to get DOM representation of the XML file
-      Document dom = db.parse(mavenMetadataXmlFile);
-
-      // get the root element
-      Element rootElement = dom.getDocumentElement();
-      NodeList snapshotVersionsNodeList = rootElement.getElementsByTagName("snapshotVersion");
-      for (int i = 0; i < snapshotVersionsNodeList.getLength(); i++) {
-        Node snapshotVersionsNode = snapshotVersionsNodeList.item(i);
-
-        Node classifierNode = null;
-        Node extensionNode = null;
-        Node valueNode = null;
-
-        NodeList childNodes = snapshotVersionsNode.getChildNodes();
-        for (int childIndex = 0; childIndex < childNodes.getLength(); childIndex++) {
-          Node _node = childNodes.item(childIndex);
-          String nodeName = _node.getNodeName();
-          if ("classifier".equals(nodeName)) {
-            classifierNode = _node;
-          } else if ("extension".equals(nodeName)) {
-            extensionNode = _node;
-          } else if ("value".equals(nodeName)) {
-            valueNode = _node;
-          }
-        }
-        if (classifierNode != null && extensionNode != null && valueNode != null) {
-          if (artifactIdentifier.getClassifier().equals(classifierNode.getTextContent())
-              && "jar".equals(extensionNode.getTextContent())) {
-            // this is the documentation artifact
-            return artifactIdentifier.getArtifactId() + "-" + valueNode.getTextContent() + "-"
-                + classifierNode.getTextContent() + "." + extensionNode.getTextContent();
-          }
-        }
-      }
-
-      // did not find a proper version, try to use "snapshot"
-      NodeList snapshotElements = rootElement.getElementsByTagName("snapshot");
-      if (snapshotElements.getLength() == 1) {
-        Node snapshotNode = snapshotElements.item(0);
-
-        NodeList childNodes = snapshotNode.getChildNodes();
-        Node timestampNode = null;
-        Node buildNumberNode = null;
-        for (int childIndex = 0; childIndex < childNodes.getLength(); childIndex++) {
-          Node _node = childNodes.item(childIndex);
-          String nodeName = _node.getNodeName();
-          if ("timestamp".equals(nodeName)) {
-            timestampNode = _node;
-          } else if ("buildNumber".equals(nodeName)) {
-            buildNumberNode = _node;
-          }
-        }
-
-        if (timestampNode != null && buildNumberNode != null) {
-          return artifactIdentifier.getArtifactId() + "-"
-              + artifactIdentifier.getVersion().replace(ArtifactIdentifier.SNAPSHOT_SUFFIX, "")
-              + "-"
-              + timestampNode.getTextContent() + "-" + buildNumberNode.getTextContent() + "-"
-              + artifactIdentifier.getClassifier() + ".jar";
-        }
+    MavenMetadata metadata = metadataCache.get(artifactIdentifier);
+    for (SnapshotVersion snapshotVersion : metadata.getSnapshotVersions()) {
+      if (artifactIdentifier.getClassifier().equals(snapshotVersion.getClassifier())
+          && "jar".equals(snapshotVersion.getExtension()) && snapshotVersion.getValue() != null) {
+        // this is the documentation artifact
+        return artifactIdentifier.getArtifactId() + "-" + snapshotVersion.getValue() + "-"
+            + snapshotVersion.getClassifier() + "." + snapshotVersion.getExtension();
       }
+    }
 
-    } catch (SAXException | IOException | ParserConfigurationException e) {
-      throw new RepositoryException(
-          "Could not parse maven-metadata.xml for '" + artifactIdentifier + "'", e);
+    // did not find a proper version, try to use "snapshot"
+    if (metadata.getSnapshotTimestamp() != null && metadata.getSnapshotBuildNumber() != null) {
+      return artifactIdentifier.getArtifactId() + "-"
+          + artifactIdentifier.getVersion().replace(ArtifactIdentifier.SNAPSHOT_SUFFIX, "")
+          + "-"
+          + metadata.getSnapshotTimestamp() + "-" + metadata.getSnapshotBuildNumber() + "-"
+          + artifactIdentifier.getClassifier() + ".jar";
     }
 
     // in case of a snapshot which has no reliable information coming from
@@ -349,14 +552,11 @@ public class RepositoryService {
       String classifier) throws RepositoryException {
 
     String version = _version;
-    try {
-      if (LATEST_VERSION_SHORTCUT.equalsIgnoreCase(_version)) {
-        version = latestVersionCache.get(new GroupArtifactCacheKey(groupId, artifactId));
-      } else if (RELEASE_VERSION_SHORTCUT.equalsIgnoreCase(_version)) {
-        version = releaseVersionCache.get(new GroupArtifactCacheKey(groupId, artifactId));
-      }
-    } catch (ExecutionException e) {
-      throw new RepositoryException("Could not resolve version", e);
+    MavenVersionRef versionRef = versionRef(_version);
+    if (versionRef != null) {
+      GroupArtifactCacheKey key = new GroupArtifactCacheKey(groupId, artifactId);
+      version = getVersionRef(getArtifactMetadata(groupId, artifactId), key, versionRef);
+      LOG.debug("Resolved {} for '{}' to '{}'", versionRef, key, version);
     }
 
     return new ArtifactIdentifier(groupId, artifactId, version, classifier);
@@ -364,18 +564,21 @@ public class RepositoryService {
 
   private File provideFileForArtifact(ArtifactIdentifier artifactIdentifier)
       throws RepositoryException {
+    negativeCache.check(artifactIdentifier, artifactIdentifier.isSnapshot());
     try {
       if (artifactIdentifier.isSnapshot()) {
         if (snapshotsEnabled) {
-          return snapshotDownloadUrlCache.get(artifactIdentifier);
+          expireRestoredSnapshot(artifactIdentifier);
+          return getOrServeStale(snapshotJarLoads, staleSnapshotJars, artifactIdentifier);
         } else {
           throw new RepositoryException("Snapshots not enabled");
         }
       } else {
-        return releaseDownloadUrlCache.get(artifactIdentifier);
+        return releaseJarLoads.get(artifactIdentifier);
       }
     } catch (ExecutionException e) {
-      throw new RepositoryException("Could not construct download url", e);
+      rememberIfNotFound(artifactIdentifier, artifactIdentifier.isSnapshot(), e);
+      throw repositoryException(e, "Could not construct download url");
     }
   }
 
@@ -383,11 +586,79 @@ public class RepositoryService {
     return name;
   }
 
+  private File constructJarFileLocation(ArtifactIdentifier artifactIdentifier) {
+    return new File(
+        new File(new File(new File(localJarStorage, artifactIdentifier.getGroupId()),
+            artifactIdentifier.getArtifactId()), artifactIdentifier.getVersion()),
+        artifactIdentifier.getClassifier() + ".jar");
+  }
+
+  /**
+   * Deletes the jar of an artifact evicted by the {@link LocalStorageQuota}, it is downloaded again
+   * on the next request.
+   */
+  private void evict(ArtifactIdentifier artifactIdentifier) {
+    // a cached snapshot is deleted by the removal listener
+    snapshotDownloadUrlCache.invalidate(artifactIdentifier);
+    staleSnapshotJars.invalidate(artifactIdentifier);
+    releaseDownloadUrlCache.invalidate(artifactIdentifier);
+    File file = constructJarFileLocation(artifactIdentifier);
+    if (file.exists()) {
+      deleteJar(artifactIdentifier, file);
+    }
+  }
+
   private final class ArtifactLoader extends CacheLoader<ArtifactIdentifier, File> {
 
     @Override
     public File load(ArtifactIdentifier artifactIdentifier) throws Exception {
+      File file = constructJarFileLocation(artifactIdentifier);
+      LOG.debug("location for  {}: is {}", artifactIdentifier, file);
+      if (!artifactIdentifier.isSnapshot() && isStored(file)) {
+        // a released jar never changes, so the one stored before a restart is still current
+        LOG.debug("Using stored '{}' for '{}'", file, artifactIdentifier);
+        localStorageQuota.add(artifactIdentifier, file);
+        return file;
+      }
+
       String documentationFilename = getApidocFileNameFromMetadataXML(artifactIdentifier);
+      if (artifactIdentifier.isSnapshot() && isBuildOf(file, documentationFilename)) {
+        // the repository still serves the build of the expired snapshot, so it is current again
+        LOG.debug("Snapshot '{}' is still '{}'", artifactIdentifier, documentationFilename);
+        staleSnapshotJars.take(artifactIdentifier);
+        return file;
+      }
+      return download(artifactIdentifier, file, documentationFilename);
+    }
+
+    /**
+     * Asks the repository for the timestamped file name of the latest build of a snapshot, which
+     * is a conditional request for its maven-metadata.xml. The jar is only downloaded again if the
+     * build changed, otherwise the cached jar, its index and the entries in memory are kept.
+     */
+    @Override
+    public ListenableFuture<File> reload(ArtifactIdentifier artifactIdentifier, File oldValue)
+        throws Exception {
+      if (!artifactIdentifier.isSnapshot()) {
+        return super.reload(artifactIdentifier, oldValue);
+      }
+      File file = constructJarFileLocation(artifactIdentifier);
+      String documentationFilename = getApidocFileNameFromMetadataXML(artifactIdentifier);
+      if (file.equals(oldValue) && isBuildOf(file, documentationFilename)) {
+        LOG.debug("Snapshot '{}' is still '{}'", artifactIdentifier, documentationFilename);
+        unchangedSnapshots.add(artifactIdentifier);
+        return Futures.immediateFuture(oldValue);
+      }
+      unchangedSnapshots.remove(artifactIdentifier);
+      return Futures.immediateFuture(download(artifactIdentifier, file, documentationFilename));
+    }
+
+    private File download(ArtifactIdentifier artifactIdentifier, File file,
+        String documentationFilename) throws RepositoryException {
+      // the repository answered, so the expired snapshot is not needed as a fallback anymore
+      staleSnapshotJars.invalidate(artifactIdentifier);
+      // the new jar is stored in the same place, it must not be deleted with the expired one
+      jarLeases.cancelDeletion(file);
 
       String downloadUrl = artifactIdentifier.getGroupId().replace(".", "/") + "/"
           + artifactIdentifier.getArtifactId() + "/" + artifactIdentifier.getVersion()
@@ -395,39 +666,71 @@ public class RepositoryService {
 
       LOG.debug("Resolved download url for '{}' to '{}'", artifactIdentifier, downloadUrl);
 
-      File file = constructJarFileLocation(artifactIdentifier);
-
       mavenClient.get(downloadUrl, file);
 
+      EntryIndex index;
+      try {
+        index = EntryIndex.write(file);
+      } catch (IOException e) {
+        throw new StorageException("Could not index '" + file + "' for '"
+            + artifactIdentifier + "'", e);
+      }
+      dedupStatistics.record(index);
+
+      if (explode) {
+        try {
+          ExplodedJars.explode(file, index, blobStore);
+        } catch (IOException e) {
+          throw new StorageException("Could not extract '" + file + "' for '"
+              + artifactIdentifier + "'", e);
+        }
+      }
+
+      try {
+        JarManifest.write(file, documentationFilename);
+      } catch (IOException e) {
+        // only costs downloading the jar again after a restart
+        LOG.warn("Could not write the manifest of '{}'", file, e);
+      }
+      localStorageQuota.add(artifactIdentifier, file);
       return file;
     }
 
+    private boolean isBuildOf(File file, String documentationFilename) {
+      JarManifest manifest = JarManifest.read(file);
+      return manifest != null && manifest.isFrom(file, documentationFilename);
+    }
 
-    private File constructJarFileLocation(ArtifactIdentifier artifactIdentifier) {
-      File file = new File(
-          new File(new File(new File(localJarStorage, artifactIdentifier.getGroupId()),
-              artifactIdentifier.getArtifactId()), artifactIdentifier.getVersion()),
-          artifactIdentifier.getClassifier() + ".jar");
-      LOG.debug("location for  {}: is {}", artifactIdentifier, file);
-      return file;
+    private boolean isStored(File file) {
+      JarManifest manifest = JarManifest.read(file);
+      try {
+        return manifest != null && manifest.matches(file);
+      } catch (IOException e) {
+        LOG.warn("Could not verify stored jar '{}'", file, e);
+        return false;
+      }
     }
   }
 
-  private final class MavenXmlVersionRefResolver extends
-      CacheLoader<GroupArtifactCacheKey, String> {
+  private final class ArtifactMetadataLoader extends
+      CacheLoader<GroupArtifactCacheKey, MavenMetadata> {
 
-    private MavenVersionRef mavenVersionRef;
-
-    public MavenXmlVersionRefResolver(MavenVersionRef mavenVersionRef) {
-      this.mavenVersionRef = mavenVersionRef;
+    @Override
+    public MavenMetadata load(GroupArtifactCacheKey key) throws Exception {
+      LOG.info("Loading maven-metadata.xml of '{}'", key);
+      MavenMetadata metadata = metadataCache.get(key.getGroupId(), key.getArtifactId());
+      staleArtifactMetadata.put(key, metadata);
+      return metadata;
     }
+  }
+
+  private final class ReleaseRemovalListener implements RemovalListener<ArtifactIdentifier, File> {
 
     @Override
-    public String load(GroupArtifactCacheKey key) throws Exception {
-      String version = getVersionRefFromMetadataXML(key.getGroupId(), key.getArtifactId(),
-          mavenVersionRef);
-      LOG.debug("Resolved {} for '{}' to '{}'", mavenVersionRef, key, version);
-      return version;
+    public void onRemoval(RemovalNotification<ArtifactIdentifier, File> notification) {
+      // the jar is kept in the local storage, only derived state has to be dropped
+      eventPublisher.publishEvent(
+          new ArtifactEvictedEvent(notification.getKey(), notification.getValue()));
     }
   }
 
@@ -437,19 +740,55 @@ public class RepositoryService {
     public void onRemoval(RemovalNotification<ArtifactIdentifier, File> notification) {
       ArtifactIdentifier artifactIdentifier = notification.getKey();
       File file = notification.getValue();
-      if (file != null && file.exists()) {
-        if (file.delete()) {
-          LOG.debug("Removed downloaded jar '{}' for '{}'", file, artifactIdentifier);
-        } else {
-          LOG.warn("Could not remove downloaded jar '{}' for '{}'", file, artifactIdentifier);
-        }
+      boolean unchanged = unchangedSnapshots.remove(artifactIdentifier);
+      if (notification.getCause() == RemovalCause.REPLACED && unchanged) {
+        // refreshed with the same build, the open jar and the entries in memory are still valid
+        return;
+      }
+      eventPublisher.publishEvent(new ArtifactEvictedEvent(artifactIdentifier, file));
+      boolean restoredExpired = expiredRestoredSnapshots.remove(artifactIdentifier);
+      restoredSnapshotExpiry.remove(artifactIdentifier);
+      if (notification.getCause() == RemovalCause.REPLACED) {
+        // refreshed, the new jar has already been moved to the same location
+        return;
+      }
+      boolean expired = notification.getCause() == RemovalCause.EXPIRED || restoredExpired;
+      if (expired && file != null && file.exists()) {
+        // kept until the repository has been asked for a newer snapshot
+        staleSnapshotJars.put(artifactIdentifier, file, file.lastModified());
       } else {
-        LOG.warn("Downloaded jar does not exists, so it cannot be cleaned up '{}' for '{}'", file,
-            artifactIdentifier);
+        deleteJar(artifactIdentifier, file);
       }
     }
   }
 
+  private void deleteJar(ArtifactIdentifier artifactIdentifier, File file) {
+    localStorageQuota.remove(artifactIdentifier);
+    if (file == null) {
+      LOG.warn("Downloaded jar does not exists, so it cannot be cleaned up for '{}'",
+          artifactIdentifier);
+      return;
+    }
+    // responses which are still reading the jar keep it until they are complete
+    jarLeases.delete(file, () -> deleteFiles(artifactIdentifier, file));
+  }
+
+  private void deleteFiles(ArtifactIdentifier artifactIdentifier, File file) {
+    ExplodedJars.delete(file, blobStore);
+    EntryIndex.delete(file);
+    JarManifest.delete(file);
+    if (file.exists()) {
+      if (file.delete()) {
+        LOG.debug("Removed downloaded jar '{}' for '{}'", file, artifactIdentifier);
+      } else {
+        LOG.warn("Could not remove downloaded jar '{}' for '{}'", file, artifactIdentifier);
+      }
+    } else {
+      LOG.warn("Downloaded jar does not exists, so it cannot be cleaned up '{}' for '{}'", file,
+          artifactIdentifier);
+    }
+  }
+
   /**
    * Special version "latest" and "release" are supported
    *
@@ -466,22 +805,198 @@ public class RepositoryService {
     ArtifactIdentifier artifactIdentifier = resolveArtifactIdentfier(groupId, artifactId, _version,
         classifier);
 
+    return retrieveJarFile(artifactIdentifier);
+  }
+
+  /**
+   * @param artifactIdentifier the already resolved artifact
+   * @return the jar file in the local storage
+   * @throws RepositoryException if the jar could not be downloaded
+   */
+  public File retrieveJarFile(ArtifactIdentifier artifactIdentifier) throws RepositoryException {
+    localStorageQuota.recordAccess(artifactIdentifier);
     return provideFileForArtifact(artifactIdentifier);
   }
 
+  /**
+   * Loads the jar of an artifact into the local storage ahead of a request. Unlike
+   * {@link #retrieveJarFile(ArtifactIdentifier)} this is not counted as an access to the jar.
+   *
+   * @param requested the artifact with the version as it is requested
+   * @return the jar file in the local storage
+   * @throws RepositoryException if the jar could not be downloaded
+   */
+  File prefetch(ArtifactIdentifier requested) throws RepositoryException {
+    return provideFileForArtifact(resolveArtifactIdentfier(requested.getGroupId(),
+        requested.getArtifactId(), requested.getVersion(), requested.getClassifier()));
+  }
+
+  /**
+   * Resolves an artifact identifier without accessing the maven repository.
+   *
+   * @return the resolved identifier or null if the version is a shortcut which has not been
+   *     resolved recently
+   */
+  public ArtifactIdentifier getResolvedArtifactIdentifier(String groupId, String artifactId,
+      String version, String classifier) {
+    MavenVersionRef versionRef = versionRef(version);
+    if (versionRef == null) {
+      return new ArtifactIdentifier(groupId, artifactId, version, classifier);
+    }
+    GroupArtifactCacheKey key = new GroupArtifactCacheKey(groupId, artifactId);
+    MavenMetadata metadata = artifactMetadataCache.getIfPresent(key);
+    if (metadata == null) {
+      return null;
+    }
+    try {
+      return new ArtifactIdentifier(groupId, artifactId, getVersionRef(metadata, key, versionRef),
+          classifier);
+    } catch (RepositoryException e) {
+      // leave reporting the problem to the regular resolution
+      return null;
+    }
+  }
+
+  private static MavenVersionRef versionRef(String version) {
+    if (LATEST_VERSION_SHORTCUT.equalsIgnoreCase(version)) {
+      return LATEST;
+    } else if (RELEASE_VERSION_SHORTCUT.equalsIgnoreCase(version)) {
+      return RELEASE;
+    }
+    return null;
+  }
+
+  /**
+   * @param artifactIdentifier the already resolved artifact
+   * @return the jar file in the local storage or null if it has to be downloaded first
+   */
+  public File getCachedJarFile(ArtifactIdentifier artifactIdentifier) {
+    File file;
+    if (artifactIdentifier.isSnapshot()) {
+      if (!snapshotsEnabled) {
+        return null;
+      }
+      expireRestoredSnapshot(artifactIdentifier);
+      file = snapshotDownloadUrlCache.getIfPresent(artifactIdentifier);
+    } else {
+      file = releaseDownloadUrlCache.getIfPresent(artifactIdentifier);
+    }
+    if (file != null) {
+      // otherwise the access is counted when the jar is retrieved
+      localStorageQuota.recordAccess(artifactIdentifier);
+    }
+    return file;
+  }
+
+  /**
+   * Like {@link #resolveArtifactIdentfier(String, String, String, String)}, but on the repository
+   * executor.
+   */
+  public CompletableFuture<ArtifactIdentifier> resolveArtifactIdentifierAsync(String groupId,
+      String artifactId, String version, String classifier) {
+    return async(() -> resolveArtifactIdentfier(groupId, artifactId, version, classifier));
+  }
+
+  /**
+   * Like {@link #retrieveJarFile(ArtifactIdentifier)}, but on the repository executor.
+   */
+  public CompletableFuture<File> retrieveJarFileAsync(ArtifactIdentifier artifactIdentifier) {
+    return async(() -> retrieveJarFile(artifactIdentifier));
+  }
+
+  /**
+   * Like {@link #getAvailableVersions(String, String)}, but on the repository executor.
+   */
+  public CompletableFuture<List<String>> getAvailableVersionsAsync(String groupId,
+      String artifactId) {
+    return async(() -> getAvailableVersions(groupId, artifactId));
+  }
+
+  /**
+   * Like {@link #getAvailableClassifier(String, String, String)}, but on the repository executor.
+   */
+  public CompletableFuture<List<String>> getAvailableClassifierAsync(String groupId,
+      String artifactId, String version) {
+    return async(() -> getAvailableClassifier(groupId, artifactId, version));
+  }
+
+  /**
+   * Runs the call on the repository executor, with the deadline of the calling thread. A call
+   * which has been queued beyond its deadline fails without doing anything, as nobody waits for it
+   * anymore.
+   */
+  private <T> CompletableFuture<T> async(RepositoryCall<T> call) {
+    Deadline deadline = Deadline.current();
+    return CompletableFuture.supplyAsync(() -> {
+      if (deadline != null && deadline.isExpired()) {
+        throw new CompletionException(new RepositoryUnavailableException(
+            "Deadline exceeded before loading from the repository"));
+      }
+      try (Deadline.Scope scope = Deadline.enter(deadline)) {
+        return call.call();
+      } catch (RepositoryException e) {
+        throw new CompletionException(e);
+      }
+    }, executor);
+  }
+
+  @FunctionalInterface
+  private interface RepositoryCall<T> {
+
+    T call() throws RepositoryException;
+  }
+
+  /**
+   * Determines which of the expected classifiers are available for a version. The result is cached
+   * per version, for snapshots as long as the snapshot itself. A version without any of them is
+   * remembered as missing like any other artifact, so it is asked for again once the negative
+   * cache expires.
+   *
+   * @return the sorted available classifiers, which must not be modified
+   * @throws NotFoundException if none of the expected classifiers is available
+   */
   public List<String> getAvailableClassifier(String groupId, String artifactId,
       String version) throws RepositoryException {
-    io.vavr.collection.List<ArtifactIdentifier> resourceNames = io.vavr.collection.List.empty();
-    for (String classifier : classifiers) {
-      resourceNames = resourceNames.append(
-          resolveArtifactIdentfier(groupId, artifactId, version, classifier)
-      );
+    ArtifactIdentifier resolved = resolveArtifactIdentfier(groupId, artifactId, version, null);
+    negativeCache.check(resolved, resolved.isSnapshot());
+    try {
+      return resolved.isSnapshot()
+          ? getOrServeStale(snapshotClassifierLoads, staleSnapshotClassifiers, resolved)
+          : releaseClassifierLoads.get(resolved);
+    } catch (ExecutionException e) {
+      rememberIfNotFound(resolved, resolved.isSnapshot(), e);
+      throw repositoryException(e, "Could not determine classifiers of '" + resolved + "'");
     }
-    return mavenClient.exists(resourceNames)
-        .filter(e -> e._2)
-        .map(e -> e._1)
-        .sorted()
-        .toJavaList();
   }
 
-}
\ No newline at end of file
+  private final class ClassifierLoader extends CacheLoader<ArtifactIdentifier, List<String>> {
+
+    @Override
+    public List<String> load(ArtifactIdentifier version) throws Exception {
+      List<String> available = null;
+      if (version.isSnapshot()) {
+        // the metadata of a deployed snapshot lists all its files, which saves probing each
+        available = getSnapshotClassifiersFromMetadataXML(version);
+      }
+      if (available == null) {
+        io.vavr.collection.List<ArtifactIdentifier> resourceNames = classifiers
+            .map(classifier -> new ArtifactIdentifier(version.getGroupId(),
+                version.getArtifactId(), version.getVersion(), classifier));
+        available = mavenClient.exists(resourceNames)
+            .filter(e -> e._2)
+            .map(e -> e._1)
+            .sorted()
+            .toJavaList();
+      }
+      if (available.isEmpty()) {
+        // not cached, the negative cache expires it like any other missing artifact
+        throw new NotFoundException("No documentation available for '" + version + "'");
+      }
+      available = Collections.unmodifiableList(available);
+      if (version.isSnapshot()) {
+        staleSnapshotClassifiers.put(version, available);
+      }
+      return available;
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Striped;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.locks.Lock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the content of extracted entries once per SHA-256, extracted files are hard links to
+ * these blobs. Identical assets of different versions (stylesheets, scripts, fonts) therefore
+ * occupy the disk and the page cache only once.
+ */
+public final class BlobStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BlobStore.class);
+
+  private final Path root;
+  private final Striped<Lock> locks = Striped.lock(64);
+
+  /**
+   * @param root the directory to keep the blobs in, created on demand
+   */
+  public BlobStore(File root) {
+    this.root = root.toPath();
+  }
+
+  /**
+   * Makes the given content available at the target path. The content is only read if there is no
+   * blob for its hash yet.
+   *
+   * @param hash the SHA-256 of the content
+   * @param lastModified the modification time for a new blob, -1 if unknown
+   * @param content opens the content
+   * @param target the path to link the blob to, which must not exist
+   * @return true if the content was already stored
+   * @throws IOException if the blob could not be written or linked
+   */
+  public boolean link(HashCode hash, long lastModified, ContentSource content, Path target)
+      throws IOException {
+    Path blob = pathOf(hash);
+    Lock lock = locks.get(hash);
+    lock.lock();
+    try {
+      boolean existing = Files.exists(blob);
+      if (!existing) {
+        write(blob, lastModified, content);
+      }
+      try {
+        Files.createLink(target, blob);
+      } catch (UnsupportedOperationException | FileSystemException e) {
+        // e.g. a file system without hard links, the content is still served correctly
+        LOG.debug("Could not link '{}' to '{}', copying it", target, blob, e);
+        Files.copy(blob, target);
+      }
+      return existing;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes the blob of the given hash if no extracted file links to it anymore.
+   *
+   * @param hash the SHA-256 of the content
+   */
+  public void deleteIfUnreferenced(HashCode hash) {
+    Path blob = pathOf(hash);
+    Lock lock = locks.get(hash);
+    lock.lock();
+    try {
+      if (Files.exists(blob) && ((Number) Files.getAttribute(blob, "unix:nlink")).intValue() <= 1) {
+        Files.delete(blob);
+      }
+    } catch (UnsupportedOperationException | IllegalArgumentException e) {
+      // link counts are not available, keep the blob
+    } catch (IOException e) {
+      LOG.warn("Could not remove blob '{}'", blob, e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  Path pathOf(HashCode hash) {
+    String name = hash.toString();
+    return root.resolve(name.substring(0, 2)).resolve(name);
+  }
+
+  private static void write(Path blob, long lastModified, ContentSource content)
+      throws IOException {
+    Files.createDirectories(blob.getParent());
+    Path temp = Files.createTempFile(blob.getParent(), blob.getFileName().toString(), ".tmp");
+    try {
+      try (InputStream input = content.open()) {
+        Files.copy(input, temp, REPLACE_EXISTING);
+      }
+      if (lastModified != -1) {
+        Files.setLastModifiedTime(temp, FileTime.fromMillis(lastModified));
+      }
+      Files.move(temp, blob, ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Opens content which is only needed if it is not stored yet.
+   */
+  @FunctionalInterface
+  public interface ContentSource {
+
+    InputStream open() throws IOException;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tracks how much of the ingested documentation content is identical across jars. Content seen
+ * before is recognized by a bloom filter over the content hashes, so the reported unique size is a
+ * close lower bound rather than an exact value.
+ */
+@Component
+public class DedupStatistics {
+
+  private static final int EXPECTED_CONTENTS = 1_000_000;
+
+  private final BloomFilter<byte[]> seen =
+      BloomFilter.create(Funnels.byteArrayFunnel(), EXPECTED_CONTENTS, 0.001);
+  private final AtomicLong totalBytes = new AtomicLong();
+  private final AtomicLong uniqueBytes = new AtomicLong();
+
+  public DedupStatistics(MeterRegistry meterRegistry) {
+    Gauge.builder("apidoc.dedup.total", totalBytes, AtomicLong::get)
+        .description("uncompressed size of all ingested entries")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    Gauge.builder("apidoc.dedup.unique", uniqueBytes, AtomicLong::get)
+        .description("uncompressed size of the distinct contents of all ingested entries")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    Gauge.builder("apidoc.dedup.ratio", this, DedupStatistics::ratio)
+        .description("total size of ingested entries per byte of distinct content")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Records the entries of a newly ingested jar.
+   *
+   * @param index the index of the jar
+   */
+  public void record(EntryIndex index) {
+    for (int entry = 0; entry < index.size(); entry++) {
+      if (index.isDirectory(entry)) {
+        continue;
+      }
+      long size = index.size(entry);
+      totalBytes.addAndGet(size);
+      // put is thread safe and only reports true for content that has never been seen
+      if (seen.put(index.contentHash(entry).asBytes())) {
+        uniqueBytes.addAndGet(size);
+      }
+    }
+  }
+
+  public double ratio() {
+    long unique = uniqueBytes.get();
+    return unique == 0 ? 1 : (double) totalBytes.get() / unique;
+  }
+}
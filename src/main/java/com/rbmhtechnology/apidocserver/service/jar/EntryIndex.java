@@ -0,0 +1,487 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Everything needed to serve the entries of a documentation jar, held in a few primitive arrays.
+ * The entry names are sorted and packed into a single byte array, so looking up an entry is a
+ * binary search that does not allocate per entry. Every entry carries the SHA-256 of its
+ * uncompressed content, which identifies identical content across jars. The index is built once
+ * when a jar is downloaded and persisted next to it.
+ */
+public final class EntryIndex {
+
+  private static final Logger LOG = LoggerFactory.getLogger(EntryIndex.class);
+
+  private static final int MAGIC = 0x41494458;
+  private static final int FORMAT_VERSION = 2;
+  private static final int HASH_LENGTH = 32;
+  private static final String SUFFIX = ".idx";
+  private static final List<String> DEFAULT_INDEX_FILES = Arrays.asList("index.html", "index.htm");
+
+  private final byte[] names;
+  private final int[] nameOffsets;
+  private final long[] dataOffsets;
+  private final long[] compressedSizes;
+  private final long[] sizes;
+  private final int[] crcs;
+  private final byte[] hashes;
+  private final byte[] methods;
+  private final long[] times;
+  private final short[] mimeTypeIds;
+  private final String[] mimeTypes;
+  private final int[] targets;
+
+  private EntryIndex(int size, int namesLength, String[] mimeTypes) {
+    this.names = new byte[namesLength];
+    this.nameOffsets = new int[size + 1];
+    this.dataOffsets = new long[size];
+    this.compressedSizes = new long[size];
+    this.sizes = new long[size];
+    this.crcs = new int[size];
+    this.hashes = new byte[size * HASH_LENGTH];
+    this.methods = new byte[size];
+    this.times = new long[size];
+    this.mimeTypeIds = new short[size];
+    this.mimeTypes = mimeTypes;
+    this.targets = new int[size];
+  }
+
+  /**
+   * @return the number of entries
+   */
+  public int size() {
+    return dataOffsets.length;
+  }
+
+  /**
+   * @param name the exact name of an entry
+   * @return the position of the entry or -1
+   */
+  public int find(String name) {
+    byte[] key = name.getBytes(UTF_8);
+    int low = 0;
+    int high = size() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = compareName(middle, key);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Resolves a requested path to the entry to serve. Directories resolve to their index file, a
+   * path without trailing slash resolves to the directory of the same name.
+   *
+   * @param path the requested path within the jar
+   * @return the position of the entry to serve or -1
+   */
+  public int resolve(String path) {
+    int entry = find(path);
+    if (entry < 0 && !path.endsWith("/")) {
+      entry = find(path + "/");
+    }
+    return entry < 0 ? -1 : targets[entry];
+  }
+
+  public String name(int entry) {
+    return new String(names, nameOffsets[entry], nameOffsets[entry + 1] - nameOffsets[entry],
+        UTF_8);
+  }
+
+  public boolean isDirectory(int entry) {
+    return names[nameOffsets[entry + 1] - 1] == '/';
+  }
+
+  /**
+   * @return the offset of the first byte of the entry's data within the jar
+   */
+  public long dataOffset(int entry) {
+    return dataOffsets[entry];
+  }
+
+  public long compressedSize(int entry) {
+    return compressedSizes[entry];
+  }
+
+  public long size(int entry) {
+    return sizes[entry];
+  }
+
+  public long crc(int entry) {
+    return crcs[entry] & 0xFFFFFFFFL;
+  }
+
+  /**
+   * @return the SHA-256 of the uncompressed content of the entry
+   */
+  public HashCode contentHash(int entry) {
+    return HashCode.fromBytes(
+        Arrays.copyOfRange(hashes, entry * HASH_LENGTH, (entry + 1) * HASH_LENGTH));
+  }
+
+  /**
+   * @return the compression method, {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+   */
+  public int method(int entry) {
+    return methods[entry] & 0xFF;
+  }
+
+  /**
+   * @return the modification time of the entry in milliseconds, -1 if unknown
+   */
+  public long time(int entry) {
+    return times[entry];
+  }
+
+  public String mimeType(int entry) {
+    return mimeTypes[mimeTypeIds[entry]];
+  }
+
+  /**
+   * Opens the uncompressed content of an entry without limiting the number of inflaters.
+   *
+   * @param channel an open channel of the jar this index belongs to
+   * @param entry the position of the entry
+   * @param onClose invoked once when the returned stream is closed
+   * @return the content of the entry
+   * @throws IOException if the compression method is not supported
+   */
+  InputStream openStream(FileChannel channel, int entry, Runnable onClose) throws IOException {
+    InputStream data = new EntryDataInputStream(channel, dataOffsets[entry],
+        compressedSizes[entry]);
+    if (method(entry) == ZipEntry.STORED) {
+      return new FilterInputStream(data) {
+        @Override
+        public void close() {
+          onClose.run();
+        }
+      };
+    }
+    if (method(entry) != ZipEntry.DEFLATED) {
+      throw new ZipException("Unsupported compression method of '" + name(entry) + "'");
+    }
+    return new EntryInflaterInputStream(data, compressedSizes[entry], onClose);
+  }
+
+  private int compareName(int entry, byte[] key) {
+    int start = nameOffsets[entry];
+    int length = nameOffsets[entry + 1] - start;
+    int common = Math.min(length, key.length);
+    for (int i = 0; i < common; i++) {
+      int difference = (names[start + i] & 0xFF) - (key[i] & 0xFF);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return length - key.length;
+  }
+
+  /**
+   * @param jar the documentation jar
+   * @return the file the index of the jar is persisted to
+   */
+  public static File fileOf(File jar) {
+    return new File(jar.getPath() + SUFFIX);
+  }
+
+  /**
+   * Builds the index of a jar and persists it next to the jar.
+   *
+   * @param jar the documentation jar
+   * @return the index
+   * @throws IOException if the jar could not be read or the index could not be written
+   */
+  public static EntryIndex write(File jar) throws IOException {
+    long lastModified = jar.lastModified();
+    long length = jar.length();
+    EntryIndex index;
+    try (FileChannel channel = FileChannel.open(jar.toPath(), READ)) {
+      index = build(channel);
+    }
+    index.persist(fileOf(jar), length, lastModified);
+    return index;
+  }
+
+  /**
+   * Reads the persisted index of a jar, or builds it if it is missing or outdated.
+   *
+   * @param jar the documentation jar
+   * @param channel an open channel of the jar
+   * @param length the length of the jar the channel was opened for
+   * @param lastModified the modification time of the jar the channel was opened for
+   * @return the index
+   * @throws IOException if the jar could not be read
+   */
+  static EntryIndex load(File jar, FileChannel channel, long length, long lastModified)
+      throws IOException {
+    File file = fileOf(jar);
+    if (file.isFile()) {
+      try {
+        EntryIndex index = read(file, length, lastModified);
+        if (index != null) {
+          return index;
+        }
+      } catch (IOException | RuntimeException e) {
+        LOG.warn("Ignoring unreadable entry index '{}'", file, e);
+      }
+    }
+    EntryIndex index = build(channel);
+    try {
+      index.persist(file, length, lastModified);
+    } catch (IOException e) {
+      LOG.warn("Could not persist entry index '{}'", file, e);
+    }
+    return index;
+  }
+
+  /**
+   * @param jar the documentation jar
+   * @return the persisted index of the jar, regardless of whether it is still current, or null
+   */
+  public static EntryIndex readPersisted(File jar) {
+    File file = fileOf(jar);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      return read(file, -1, -1);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Ignoring unreadable entry index '{}'", file, e);
+      return null;
+    }
+  }
+
+  /**
+   * @param jar the documentation jar whose persisted index should be removed
+   */
+  public static void delete(File jar) {
+    File file = fileOf(jar);
+    if (file.exists() && !file.delete()) {
+      LOG.warn("Could not delete entry index '{}'", file);
+    }
+  }
+
+  static EntryIndex build(FileChannel channel) throws IOException {
+    List<ZipCentralDirectory.Entry> entries = new ArrayList<>(ZipCentralDirectory.read(channel));
+    // a stable sort keeps the first of duplicate names first, like ZipFile does
+    entries.sort((left, right) -> compareBytes(left.name, right.name));
+
+    List<ZipCentralDirectory.Entry> unique = new ArrayList<>(entries.size());
+    int namesLength = 0;
+    for (ZipCentralDirectory.Entry entry : entries) {
+      if (unique.isEmpty()
+          || compareBytes(unique.get(unique.size() - 1).name, entry.name) != 0) {
+        unique.add(entry);
+        namesLength += entry.name.length;
+      }
+    }
+
+    Map<String, Short> mimeTypeIds = new LinkedHashMap<>();
+    short[] ids = new short[unique.size()];
+    for (int i = 0; i < ids.length; i++) {
+      String mimeType = MimeTypes.of(new String(unique.get(i).name, UTF_8));
+      ids[i] = mimeTypeIds.computeIfAbsent(mimeType, type -> (short) mimeTypeIds.size());
+    }
+
+    EntryIndex index = new EntryIndex(unique.size(), namesLength,
+        mimeTypeIds.keySet().toArray(new String[0]));
+    int nameOffset = 0;
+    for (int i = 0; i < unique.size(); i++) {
+      ZipCentralDirectory.Entry entry = unique.get(i);
+      System.arraycopy(entry.name, 0, index.names, nameOffset, entry.name.length);
+      index.nameOffsets[i] = nameOffset;
+      nameOffset += entry.name.length;
+      index.dataOffsets[i] = ZipCentralDirectory.dataOffset(channel, entry.localHeaderOffset);
+      index.compressedSizes[i] = entry.compressedSize;
+      index.sizes[i] = entry.size;
+      index.crcs[i] = (int) entry.crc;
+      index.methods[i] = (byte) entry.method;
+      index.times[i] = entry.time;
+      index.mimeTypeIds[i] = ids[i];
+    }
+    index.nameOffsets[unique.size()] = nameOffset;
+    index.resolveTargets();
+    index.hashContents(channel);
+    return index;
+  }
+
+  private void hashContents(FileChannel channel) throws IOException {
+    byte[] buffer = new byte[8192];
+    for (int i = 0; i < size(); i++) {
+      Hasher hasher = Hashing.sha256().newHasher();
+      if (!isDirectory(i)) {
+        try (InputStream input = openStream(channel, i, () -> {
+        })) {
+          int read;
+          while ((read = input.read(buffer)) >= 0) {
+            hasher.putBytes(buffer, 0, read);
+          }
+        }
+      }
+      hasher.hash().writeBytesTo(hashes, i * HASH_LENGTH, HASH_LENGTH);
+    }
+  }
+
+  private void resolveTargets() {
+    // directories first, as empty files may redirect to the directory of the same name
+    for (int i = 0; i < size(); i++) {
+      if (isDirectory(i)) {
+        targets[i] = -1;
+        String name = name(i);
+        for (String indexFile : DEFAULT_INDEX_FILES) {
+          int target = find(name + indexFile);
+          if (target >= 0) {
+            targets[i] = target;
+            break;
+          }
+        }
+      }
+    }
+    for (int i = 0; i < size(); i++) {
+      if (!isDirectory(i)) {
+        int directory = sizes[i] == 0 ? find(name(i) + "/") : -1;
+        targets[i] = directory >= 0 ? targets[directory] : i;
+      }
+    }
+  }
+
+  private static int compareBytes(byte[] left, byte[] right) {
+    int common = Math.min(left.length, right.length);
+    for (int i = 0; i < common; i++) {
+      int difference = (left[i] & 0xFF) - (right[i] & 0xFF);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return left.length - right.length;
+  }
+
+  private static boolean matches(long actual, long expected) {
+    return expected == -1 || actual == expected;
+  }
+
+  private void persist(File file, long jarLength, long jarLastModified) throws IOException {
+    Path temp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(temp.toFile())))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(jarLength);
+        out.writeLong(jarLastModified);
+        out.writeInt(size());
+        out.writeInt(names.length);
+        out.writeShort(mimeTypes.length);
+        for (String mimeType : mimeTypes) {
+          out.writeUTF(mimeType);
+        }
+        out.write(names);
+        out.write(hashes);
+        for (int i = 0; i < size(); i++) {
+          out.writeInt(nameOffsets[i]);
+          out.writeLong(dataOffsets[i]);
+          out.writeLong(compressedSizes[i]);
+          out.writeLong(sizes[i]);
+          out.writeInt(crcs[i]);
+          out.writeByte(methods[i]);
+          out.writeLong(times[i]);
+          out.writeShort(mimeTypeIds[i]);
+          out.writeInt(targets[i]);
+        }
+      }
+      Files.move(temp, file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * @param jarLength the expected length of the jar, -1 to accept any
+   * @param jarLastModified the expected modification time of the jar, -1 to accept any
+   * @return the persisted index or null if it does not belong to the given jar
+   */
+  private static EntryIndex read(File file, long jarLength, long jarLastModified)
+      throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+          || !matches(in.readLong(), jarLength) || !matches(in.readLong(), jarLastModified)) {
+        return null;
+      }
+      int size = in.readInt();
+      int namesLength = in.readInt();
+      String[] mimeTypes = new String[in.readShort()];
+      for (int i = 0; i < mimeTypes.length; i++) {
+        mimeTypes[i] = in.readUTF();
+      }
+      EntryIndex index = new EntryIndex(size, namesLength, mimeTypes);
+      in.readFully(index.names);
+      in.readFully(index.hashes);
+      for (int i = 0; i < size; i++) {
+        index.nameOffsets[i] = in.readInt();
+        index.dataOffsets[i] = in.readLong();
+        index.compressedSizes[i] = in.readLong();
+        index.sizes[i] = in.readLong();
+        index.crcs[i] = in.readInt();
+        index.methods[i] = in.readByte();
+        index.times[i] = in.readLong();
+        index.mimeTypeIds[i] = in.readShort();
+        index.targets[i] = in.readInt();
+      }
+      index.nameOffsets[size] = namesLength;
+      return index;
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Inflates the raw deflate data of an entry and frees the native inflater when closed.
+ */
+final class EntryInflaterInputStream extends InflaterInputStream {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private final Runnable onClose;
+  private boolean eof;
+
+  /**
+   * @param data the compressed data of the entry
+   * @param compressedSize the length of the compressed data
+   * @param onClose invoked once when the stream is closed
+   */
+  EntryInflaterInputStream(InputStream data, long compressedSize, Runnable onClose) {
+    super(data, new Inflater(true), (int) Math.max(64, Math.min(compressedSize, BUFFER_SIZE)));
+    this.onClose = onClose;
+  }
+
+  @Override
+  protected void fill() throws IOException {
+    if (eof) {
+      throw new EOFException("Unexpected end of ZLIB input stream");
+    }
+    len = in.read(buf, 0, buf.length);
+    if (len == -1) {
+      // raw inflation may need one dummy byte beyond the data, like ZipFile supplies
+      buf[0] = 0;
+      len = 1;
+      eof = true;
+    }
+    inf.setInput(buf, 0, len);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      if (closed.compareAndSet(false, true)) {
+        inf.end();
+        onClose.run();
+      }
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.READ;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extracts documentation jars into a directory tree next to the jar, so entries can be served from
+ * plain files without inflating them again. Every build of a jar is extracted to a directory of its
+ * own, named after the modification time and length of the jar, so a response always reads the
+ * extracted files of the jar it has opened, even while a newer build is stored in its place.
+ */
+public final class ExplodedJars {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ExplodedJars.class);
+
+  private ExplodedJars() {
+  }
+
+  /**
+   * @param jar the documentation jar
+   * @return the directory the jar as it is currently stored is extracted to, which does not
+   *     necessarily exist
+   */
+  public static File directoryOf(File jar) {
+    return directoryOf(jar, jar.lastModified(), jar.length());
+  }
+
+  /**
+   * @param jar the documentation jar
+   * @param lastModified the modification time of the build of the jar
+   * @param length the length of the build of the jar
+   * @return the directory the build is extracted to, which does not necessarily exist
+   */
+  public static File directoryOf(File jar, long lastModified, long length) {
+    return new File(jar.getParentFile(), baseName(jar) + "." + Long.toHexString(lastModified)
+        + "-" + Long.toHexString(length));
+  }
+
+  /**
+   * Extracts the jar into a temporary directory first and moves it into place when the extraction
+   * is complete, so a partly extracted tree is never served. The extracted files are links into
+   * the blob store, entries whose content is already stored are not inflated at all. The directory
+   * of the previous build is kept for the responses which are still reading it, older builds are
+   * removed.
+   *
+   * @param jar the documentation jar to extract
+   * @param index the index of the jar
+   * @param blobs the store for the content of the entries
+   * @return the directory containing the extracted entries
+   * @throws IOException if the jar could not be extracted
+   */
+  public static File explode(File jar, EntryIndex index, BlobStore blobs) throws IOException {
+    Path target = directoryOf(jar).toPath();
+    Path temp = Files.createTempDirectory(jar.getParentFile().toPath(),
+        target.getFileName() + ".");
+    try {
+      extract(jar, index, blobs, temp);
+      replace(temp, target);
+    } catch (IOException | RuntimeException e) {
+      deleteQuietly(temp);
+      throw e;
+    }
+    LOG.debug("Extracted '{}' to '{}'", jar, target);
+    List<File> previous = builds(jar);
+    previous.remove(target.toFile());
+    previous.stream().skip(1).forEach(build -> deleteBuild(build, blobs));
+    return target.toFile();
+  }
+
+  /**
+   * Removes the extracted directories of the given jar, if there are any, and the blobs no other
+   * extracted jar links to.
+   *
+   * @param jar the documentation jar
+   * @param blobs the store the extracted files link to
+   */
+  public static void delete(File jar, BlobStore blobs) {
+    File current = directoryOf(jar);
+    for (File build : builds(jar)) {
+      if (!build.equals(current)) {
+        deleteBuild(build, blobs);
+      }
+    }
+    if (!current.isDirectory()) {
+      return;
+    }
+    deleteQuietly(current.toPath());
+    EntryIndex index = EntryIndex.readPersisted(jar);
+    if (index != null) {
+      for (int entry = 0; entry < index.size(); entry++) {
+        if (!index.isDirectory(entry)) {
+          blobs.deleteIfUnreferenced(index.contentHash(entry));
+        }
+      }
+    }
+  }
+
+  private static String baseName(File jar) {
+    String name = jar.getName();
+    return name.endsWith(".jar") ? name.substring(0, name.length() - 4) : name + ".d";
+  }
+
+  /**
+   * @return the extracted directories of all builds of the jar, the latest build first
+   */
+  private static List<File> builds(File jar) {
+    Pattern build = Pattern.compile(Pattern.quote(baseName(jar)) + "\\.([0-9a-f]+)-[0-9a-f]+");
+    File[] directories = jar.getParentFile().listFiles(File::isDirectory);
+    if (directories == null) {
+      return new ArrayList<>();
+    }
+    return Stream.of(directories)
+        .filter(directory -> build.matcher(directory.getName()).matches())
+        .sorted(Comparator.comparingLong((File directory) -> {
+          Matcher matcher = build.matcher(directory.getName());
+          matcher.matches();
+          return Long.parseUnsignedLong(matcher.group(1), 16);
+        }).reversed())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Removes the directory of a build whose index has been replaced, the blobs only linked from
+   * this directory are found by hashing the files which are linked from nowhere else.
+   */
+  private static void deleteBuild(File directory, BlobStore blobs) {
+    List<HashCode> unlinked = new ArrayList<>();
+    try (Stream<Path> files = Files.walk(directory.toPath())) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        if (Files.isRegularFile(file)
+            && ((Number) Files.getAttribute(file, "unix:nlink")).intValue() <= 2) {
+          unlinked.add(MoreFiles.asByteSource(file).hash(Hashing.sha256()));
+        }
+      }
+    } catch (UnsupportedOperationException | IllegalArgumentException e) {
+      // link counts are not available, the blobs are kept
+    } catch (IOException e) {
+      LOG.warn("Could not find the blobs of '{}'", directory, e);
+    }
+    deleteQuietly(directory.toPath());
+    LOG.debug("Removed the extracted files of a previous build '{}'", directory);
+    unlinked.forEach(blobs::deleteIfUnreferenced);
+  }
+
+  private static void extract(File jar, EntryIndex index, BlobStore blobs, Path root)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(jar.toPath(), READ)) {
+      for (int i = 0; i < index.size(); i++) {
+        String name = index.name(i);
+        Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root)) {
+          throw new IOException("Entry '" + name + "' is outside of '" + jar + "'");
+        }
+        if (index.isDirectory(i)) {
+          Files.createDirectories(path);
+          continue;
+        }
+        Files.createDirectories(path.getParent());
+        int entry = i;
+        blobs.link(index.contentHash(entry), index.time(entry),
+            () -> index.openStream(channel, entry, () -> {
+            }), path);
+      }
+    }
+  }
+
+  private static void replace(Path source, Path target) throws IOException {
+    if (!Files.exists(target)) {
+      Files.move(source, target, ATOMIC_MOVE);
+      return;
+    }
+    Path previous = target.resolveSibling(target.getFileName() + ".old-" + System.nanoTime());
+    Files.move(target, previous, ATOMIC_MOVE);
+    Files.move(source, target, ATOMIC_MOVE);
+    deleteQuietly(previous);
+  }
+
+  private static void deleteQuietly(Path path) {
+    try {
+      MoreFiles.deleteRecursively(path, RecursiveDeleteOption.ALLOW_INSECURE);
+    } catch (IOException e) {
+      LOG.warn("Could not remove extracted documentation '{}'", path, e);
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.HashCode;
+import com.rbmhtechnology.apidocserver.service.FrequencySketch;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the served representation of frequently requested entries in direct memory, so hits are
+ * neither read from the jar nor inflated again. Entries are keyed by the hash of their content,
+ * so identical files of different versions share a single copy and never become stale.
+ *
+ * <p>Eviction is frequency aware, like TinyLFU: every request of a key is counted in a
+ * {@link FrequencySketch}. An entry is only admitted after it has been requested a few times, and
+ * if the cache is full, only in place of entries which have been requested less often recently.
+ * So a crawler walking through a whole javadoc does not displace the entries everybody needs.
+ */
+@Component
+public class HotEntryCache {
+
+  /**
+   * number of distinct keys whose requests are counted for admission and eviction
+   */
+  private static final int COUNTED_KEYS = 10_000;
+
+  private final long size;
+  private final long maximumEntrySize;
+  private final int admissionThreshold;
+  private final Cache<Key, HotEntry> entries;
+  private final FrequencySketch<Key> sketch = new FrequencySketch<>(COUNTED_KEYS);
+  private final AtomicLong weight = new AtomicLong();
+  private final ReentrantLock admission = new ReentrantLock();
+
+  public HotEntryCache(
+      @Value("${serve.hot-cache.size:67108864}") long size,
+      @Value("${serve.hot-cache.maximum-entry-size:1048576}") long maximumEntrySize,
+      @Value("${serve.hot-cache.admission-threshold:2}") int admissionThreshold) {
+    this.size = Math.max(0, size);
+    this.maximumEntrySize = size > 0 ? Math.min(maximumEntrySize, size) : -1;
+    this.admissionThreshold = Math.min(admissionThreshold, FrequencySketch.MAX_FREQUENCY);
+    // the byte budget is kept by put, a weight limit would be split across the segments of the
+    // cache and evict by recency
+    this.entries = CacheBuilder.newBuilder()
+        .removalListener((RemovalNotification<Key, HotEntry> notification) ->
+            weight.addAndGet(-notification.getValue().length()))
+        .build();
+  }
+
+  /**
+   * Looks up a cached entry. Every lookup counts as a request of the key.
+   *
+   * @param key the requested content
+   * @return the cached entry or null
+   */
+  public HotEntry get(Key key) {
+    if (maximumEntrySize < 0) {
+      return null;
+    }
+    sketch.increment(key);
+    return entries.getIfPresent(key);
+  }
+
+  /**
+   * @param key a missed entry
+   * @param length the length of its representation
+   * @return true if the entry has been requested often enough to be cached
+   */
+  public boolean shouldAdmit(Key key, long length) {
+    return length <= maximumEntrySize && sketch.frequency(key) >= admissionThreshold;
+  }
+
+  /**
+   * Caches an entry, if there is room for it or it has been requested more often recently than
+   * the entries it would replace.
+   *
+   * @param key the content
+   * @param entry the representation to cache
+   * @return the given entry, which may be served even if it has not been cached
+   */
+  public HotEntry put(Key key, HotEntry entry) {
+    admission.lock();
+    try {
+      long needed = weight.get() + entry.length() - size;
+      if (needed > 0 && !evictLessFrequent(sketch.frequency(key), needed)) {
+        return entry;
+      }
+      weight.addAndGet(entry.length());
+      entries.put(key, entry);
+      return entry;
+    } finally {
+      admission.unlock();
+    }
+  }
+
+  /**
+   * Evicts the least frequently requested entries to make room for a candidate. Admissions are
+   * rare, so the resident entries are simply ranked each time.
+   *
+   * @param frequency the recent requests of the candidate
+   * @param needed the number of bytes to free
+   * @return false, without evicting anything, if the room could only be made by evicting an
+   *     entry which is requested as often as the candidate or more
+   */
+  private boolean evictLessFrequent(int frequency, long needed) {
+    List<Map.Entry<Key, HotEntry>> residents = new ArrayList<>(entries.asMap().entrySet());
+    Map<Key, Integer> frequencies = new HashMap<>();
+    for (Map.Entry<Key, HotEntry> resident : residents) {
+      frequencies.put(resident.getKey(), sketch.frequency(resident.getKey()));
+    }
+    residents.sort(Comparator.comparing(resident -> frequencies.get(resident.getKey())));
+
+    List<Key> victims = new ArrayList<>();
+    long freed = 0;
+    for (Map.Entry<Key, HotEntry> resident : residents) {
+      if (freed >= needed) {
+        break;
+      }
+      if (frequencies.get(resident.getKey()) >= frequency) {
+        return false;
+      }
+      victims.add(resident.getKey());
+      freed += resident.getValue().length();
+    }
+    if (freed < needed) {
+      return false;
+    }
+    entries.invalidateAll(victims);
+    return true;
+  }
+
+  /**
+   * Identifies a representation of content, independent of the jar and path it is served for.
+   */
+  public static final class Key {
+
+    private final HashCode contentHash;
+    private final boolean gzip;
+
+    /**
+     * @param contentHash the hash of the uncompressed content
+     * @param gzip whether the representation is gzip encoded
+     */
+    public Key(HashCode contentHash, boolean gzip) {
+      this.contentHash = contentHash;
+      this.gzip = gzip;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return gzip == key.gzip && contentHash.equals(key.contentHash);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(contentHash, gzip);
+    }
+  }
+
+  /**
+   * A complete representation of an entry held in direct memory.
+   */
+  public static final class HotEntry {
+
+    /**
+     * the size of tomcat's response buffer
+     */
+    private static final int WRITE_CHUNK_SIZE = 8192;
+
+    private final ByteBuffer content;
+
+    /**
+     * @param content a direct buffer with the content as it is sent to the client between its
+     *     position and limit, which must not be modified anymore
+     */
+    public HotEntry(ByteBuffer content) {
+      this.content = content.slice().asReadOnlyBuffer();
+    }
+
+    public int length() {
+      return content.capacity();
+    }
+
+    /**
+     * @return a reader for ranges of the content
+     */
+    public RangeReader rangeReader() {
+      return RangeReader.of(content);
+    }
+
+    /**
+     * Writes the content in chunks, as servlet output streams only take arrays, so it is never
+     * copied to the heap as a whole.
+     *
+     * @param output the stream to write the whole content to
+     * @throws IOException if writing failed
+     */
+    public void writeTo(OutputStream output) throws IOException {
+      ByteBuffer remaining = content.duplicate();
+      byte[] chunk = new byte[Math.min(remaining.remaining(), WRITE_CHUNK_SIZE)];
+      while (remaining.hasRemaining()) {
+        int length = Math.min(chunk.length, remaining.remaining());
+        remaining.get(chunk, 0, length);
+        output.write(chunk, 0, length);
+      }
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.rbmhtechnology.apidocserver.service.ArtifactEvictedEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps documentation jars open between requests, so the entry index of a jar is loaded once
+ * instead of for every served entry.
+ */
+@Component
+public class JarFileCache {
+
+  /**
+   * rough native footprint of a single zlib inflater including its 32k window
+   */
+  static final long INFLATER_FOOTPRINT = 64 * 1024;
+
+  private static final Logger LOG = LoggerFactory.getLogger(JarFileCache.class);
+
+  private final Cache<File, JarHandle> handles;
+  private final Semaphore inflaters;
+
+  public JarFileCache(
+      @Value("${serve.jar-cache.maximum-size:64}") int maximumSize,
+      @Value("${serve.jar-cache.idle-timeout:300}") int idleTimeoutSeconds,
+      @Value("${serve.jar-cache.inflater-memory:67108864}") long inflaterMemory) {
+    this.inflaters = new Semaphore((int) Math.max(1, inflaterMemory / INFLATER_FOOTPRINT), true);
+    this.handles = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterAccess(idleTimeoutSeconds, SECONDS)
+        .removalListener(new HandleRemovalListener())
+        .build();
+  }
+
+  /**
+   * Provides an open handle for the given jar. The handle must be closed by the caller, which does
+   * not necessarily close the underlying jar file.
+   *
+   * @param jar the jar file to open
+   * @return a retained handle to the jar
+   * @throws IOException if the jar could not be opened
+   */
+  public JarHandle acquire(File jar) throws IOException {
+    while (true) {
+      JarHandle handle;
+      try {
+        handle = handles.get(jar, () -> new JarHandle(jar, inflaters));
+      } catch (ExecutionException | UncheckedExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        throw new IOException("Could not open jar file '" + jar + "'", e.getCause());
+      }
+
+      if (!handle.retain()) {
+        // lost a race against eviction
+        handles.asMap().remove(jar, handle);
+        continue;
+      }
+      if (handle.isCurrent()) {
+        return handle;
+      }
+      // the file has been replaced on disk (e.g. a new snapshot), reopen it
+      handle.close();
+      handles.asMap().remove(jar, handle);
+    }
+  }
+
+  /**
+   * Closes the cached handle of the given jar as soon as there are no readers left.
+   *
+   * @param jar the jar file
+   */
+  public void invalidate(File jar) {
+    handles.invalidate(jar);
+  }
+
+  @EventListener
+  public void onArtifactEvicted(ArtifactEvictedEvent event) {
+    if (event.getFile() != null) {
+      invalidate(event.getFile());
+    }
+  }
+
+  @PreDestroy
+  public void closeAll() {
+    handles.invalidateAll();
+  }
+
+  private static final class HandleRemovalListener implements RemovalListener<File, JarHandle> {
+
+    @Override
+    public void onRemoval(RemovalNotification<File, JarHandle> notification) {
+      LOG.debug("Evicting jar file '{}' ({})", notification.getKey(), notification.getCause());
+      notification.getValue().close();
+    }
+  }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import com.google.common.io.ByteStreams;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A reference counted, shared handle to an open documentation jar and its {@link EntryIndex}.
+ * Entries are addressed by their position in the index. The underlying file is closed as soon as
+ * the handle has been evicted from the {@link JarFileCache} and the last reader released it.
+ */
+public final class JarHandle implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(JarHandle.class);
+
+  /**
+   * gzip member header: deflate, no flags, no modification time, unknown operating system
+   */
+  private static final byte[] GZIP_HEADER = {
+      0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+  private static final int GZIP_TRAILER_LENGTH = 8;
+
+  private final File file;
+  private final long lastModified;
+  private final long length;
+  private final FileChannel channel;
+  private final EntryIndex index;
+  private final Semaphore inflaters;
+
+  /**
+   * starts with the reference held by the cache itself
+   */
+  private final AtomicInteger references = new AtomicInteger(1);
+
+  JarHandle(File file, Semaphore inflaters) throws IOException {
+    this.file = file;
+    this.lastModified = file.lastModified();
+    this.length = file.length();
+    this.channel = FileChannel.open(file.toPath(), READ);
+    try {
+      this.index = EntryIndex.load(file, channel, length, lastModified);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    this.inflaters = inflaters;
+  }
+
+  public EntryIndex index() {
+    return index;
+  }
+
+  public File file() {
+    return file;
+  }
+
+  /**
+   * @return the directory the jar this handle was opened for is extracted to, which does not
+   *     necessarily exist
+   */
+  public File directory() {
+    return ExplodedJars.directoryOf(file, lastModified, length);
+  }
+
+  /**
+   * Opens the given entry for reading. Reading a compressed entry occupies one unit of the native
+   * inflater budget until the returned stream is closed.
+   *
+   * @param entry the position of an entry in the index of this jar
+   * @return the uncompressed content of the entry
+   * @throws IOException if the entry could not be opened
+   */
+  public InputStream getInputStream(int entry) throws IOException {
+    if (index.method(entry) != ZipEntry.DEFLATED) {
+      return index.openStream(channel, entry, () -> {
+      });
+    }
+    try {
+      inflaters.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for an inflater");
+    }
+    try {
+      return index.openStream(channel, entry, inflaters::release);
+    } catch (IOException | RuntimeException e) {
+      inflaters.release();
+      throw e;
+    }
+  }
+
+  /**
+   * @param entry the position of an entry in the index of this jar
+   * @return true if the entry can be served as gzip without inflating it
+   */
+  public boolean isDeflated(int entry) {
+    return index.method(entry) == ZipEntry.DEFLATED;
+  }
+
+  /**
+   * @param entry the position of a deflated entry in the index of this jar
+   * @return the number of bytes {@link #writeGzip(int, OutputStream)} writes
+   */
+  public long gzipLength(int entry) {
+    return GZIP_HEADER.length + index.compressedSize(entry) + GZIP_TRAILER_LENGTH;
+  }
+
+  /**
+   * Writes the compressed data of a deflated entry as it is stored in the jar, framed as a gzip
+   * member. The header and trailer are built from the entry's crc and size, so the content is
+   * never inflated.
+   *
+   * @param entry the position of a deflated entry in the index of this jar
+   * @param output the stream to write the gzip member to
+   * @throws IOException if reading the jar or writing the output failed
+   */
+  public void writeGzip(int entry, OutputStream output) throws IOException {
+    output.write(GZIP_HEADER);
+    RangeReader.of(channel, index.dataOffset(entry))
+        .copy(0, index.compressedSize(entry), output);
+
+    ByteBuffer trailer = ByteBuffer.allocate(GZIP_TRAILER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    trailer.putInt((int) index.crc(entry));
+    trailer.putInt((int) index.size(entry));
+    output.write(trailer.array());
+  }
+
+  /**
+   * Reads the representation of an entry into a buffer. Stored data, and the compressed data of a
+   * gzip member, are read from the jar straight into the buffer. Inflated content passes through
+   * the small buffer of a channel, as the inflater only writes to arrays.
+   *
+   * @param entry the position of an entry in the index of this jar
+   * @param gzip true to read the deflated entry as gzip member, see
+   *     {@link #writeGzip(int, OutputStream)}, false to read its uncompressed content
+   * @param target the buffer to read to, with at least as many bytes remaining as the
+   *     representation has
+   * @throws IOException if reading the jar failed
+   */
+  public void read(int entry, boolean gzip, ByteBuffer target) throws IOException {
+    if (gzip) {
+      target.put(GZIP_HEADER);
+      readFully(entry, index.compressedSize(entry), target);
+      ByteOrder order = target.order();
+      target.order(ByteOrder.LITTLE_ENDIAN);
+      target.putInt((int) index.crc(entry));
+      target.putInt((int) index.size(entry));
+      target.order(order);
+      return;
+    }
+    if (index.method(entry) == ZipEntry.STORED) {
+      readFully(entry, index.size(entry), target);
+      return;
+    }
+    long remaining = index.size(entry);
+    try (ReadableByteChannel input = Channels.newChannel(getInputStream(entry))) {
+      ByteBuffer content = target.duplicate();
+      content.limit(content.position() + (int) remaining);
+      while (content.hasRemaining()) {
+        if (input.read(content) < 0) {
+          throw new EOFException("Unexpected end of '" + index.name(entry) + "' in '" + file
+              + "'");
+        }
+      }
+      target.position(content.position());
+    }
+  }
+
+  /**
+   * Reads the data of an entry, as it is stored in the jar, into a buffer.
+   */
+  private void readFully(int entry, long count, ByteBuffer target) throws IOException {
+    ByteBuffer data = target.duplicate();
+    data.limit(data.position() + (int) count);
+    long position = index.dataOffset(entry);
+    while (data.hasRemaining()) {
+      int read = channel.read(data, position);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of '" + index.name(entry) + "' in '" + file + "'");
+      }
+      position += read;
+    }
+    target.position(data.position());
+  }
+
+  /**
+   * Provides random access to the uncompressed content of an entry. Stored entries are read at the
+   * requested position directly, compressed entries are inflated sequentially, so ranges should
+   * be read in ascending order.
+   *
+   * @param entry the position of an entry in the index of this jar
+   * @return a reader for ranges of the entry, which must be closed
+   */
+  public RangeReader rangeReader(int entry) {
+    if (index.method(entry) == ZipEntry.STORED) {
+      return RangeReader.of(channel, index.dataOffset(entry));
+    }
+    return new InflatingRangeReader(entry);
+  }
+
+  /**
+   * @return true if the file on disk is still the one this handle was opened for
+   */
+  boolean isCurrent() {
+    return file.lastModified() == lastModified && file.length() == length;
+  }
+
+  boolean isOpen() {
+    return references.get() > 0;
+  }
+
+  /**
+   * @return false if the handle has already been closed and must not be used anymore
+   */
+  boolean retain() {
+    int current;
+    do {
+      current = references.get();
+      if (current <= 0) {
+        return false;
+      }
+    } while (!references.compareAndSet(current, current + 1));
+    return true;
+  }
+
+  /**
+   * Releases a reference obtained from {@link JarFileCache#acquire(File)}.
+   */
+  @Override
+  public void close() {
+    if (references.decrementAndGet() == 0) {
+      try {
+        channel.close();
+        LOG.debug("Closed jar file '{}'", file);
+      } catch (IOException e) {
+        LOG.warn("Could not close jar file '{}'", file, e);
+      }
+    }
+  }
+
+  private final class InflatingRangeReader implements RangeReader {
+
+    private final int entry;
+    private InputStream input;
+    private long position;
+
+    InflatingRangeReader(int entry) {
+      this.entry = entry;
+    }
+
+    @Override
+    public void copy(long start, long count, OutputStream output) throws IOException {
+      if (input == null || start < position) {
+        // the inflater can only move forward
+        close();
+        input = getInputStream(entry);
+        position = 0;
+      }
+      ByteStreams.skipFully(input, start - position);
+      if (ByteStreams.copy(ByteStreams.limit(input, count), output) < count) {
+        throw new EOFException("Unexpected end of '" + index.name(entry) + "' in '" + file + "'");
+      }
+      position = start + count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (input != null) {
+        input.close();
+        input = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps track of the responses reading a documentation jar from the local storage, so a jar is
+ * not deleted while it is being served. A jar which is evicted while it is leased is pending
+ * deletion: it is deleted when the last lease is released, and new leases are refused, so the
+ * jar has to be loaded again. The deletion then runs on a background thread, not on the response
+ * releasing the last lease. Leases of stuck connections time out, so they cannot keep a jar
+ * forever.
+ *
+ * <p>The state of each jar is changed atomically within its entry of a concurrent map, so
+ * responses reading different jars do not contend, and no thread blocks on a monitor.
+ */
+@Component
+public class JarLeases {
+
+  private static final Logger LOG = LoggerFactory.getLogger(JarLeases.class);
+
+  private final long leaseTimeoutMillis;
+  private final LongSupplier clock;
+  private final ConcurrentMap<File, LeaseState> states = new ConcurrentHashMap<>();
+  private final Counter expiredLeases;
+  private final ScheduledExecutorService reaper;
+
+  /**
+   * @param leaseTimeoutSeconds the time after which a lease does not keep a jar anymore
+   */
+  @Autowired
+  public JarLeases(@Value("${localstorage.lease-timeout:300}") long leaseTimeoutSeconds,
+      MeterRegistry meterRegistry) {
+    this(TimeUnit.SECONDS.toMillis(leaseTimeoutSeconds), System::currentTimeMillis,
+        meterRegistry, Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("jar-lease-reaper").setDaemon(true).build()));
+    reaper.scheduleWithFixedDelay(this::expireLeases, leaseTimeoutSeconds, leaseTimeoutSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * @param reaper the thread deletions held back by leases are run on
+   */
+  JarLeases(long leaseTimeoutMillis, LongSupplier clock, MeterRegistry meterRegistry,
+      ScheduledExecutorService reaper) {
+    this.leaseTimeoutMillis = leaseTimeoutMillis;
+    this.clock = clock;
+    this.reaper = reaper;
+    this.expiredLeases = Counter.builder("apidoc.localstorage.leases.expired")
+        .description("leases on jars which were not released in time")
+        .register(meterRegistry);
+    Gauge.builder("apidoc.localstorage.pending-deletions", this, JarLeases::getPendingDeletions)
+        .description("evicted jars waiting for their readers")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Stops expiring leases, deletions which have already been handed to the reaper still run.
+   */
+  @PreDestroy
+  public void close() {
+    reaper.shutdown();
+  }
+
+  /**
+   * Keeps a jar from being deleted until the returned lease is closed or has timed out.
+   *
+   * @param jar the jar about to be read
+   * @return the lease, or null if the jar has been deleted or is pending deletion
+   */
+  public Lease lease(File jar) {
+    Lease lease = new Lease(jar, clock.getAsLong() + leaseTimeoutMillis);
+    AtomicBoolean granted = new AtomicBoolean();
+    states.compute(jar, (key, state) -> {
+      if (state == null) {
+        state = new LeaseState();
+      } else if (state.pendingDeletion != null || state.deletion != null) {
+        return state;
+      }
+      state.leases.add(lease);
+      granted.set(true);
+      return state;
+    });
+    if (!granted.get()) {
+      return null;
+    }
+    if (!jar.isFile()) {
+      lease.close();
+      return null;
+    }
+    return lease;
+  }
+
+  /**
+   * Deletes a jar right away if it is not leased, otherwise on the reaper once the last lease has
+   * been released, so the response releasing it does not wait for the deletion.
+   *
+   * @param jar the jar to delete
+   * @param deletion deletes the jar and the files derived from it
+   */
+  public void delete(File jar, Runnable deletion) {
+    AtomicReference<Runnable> claimed = new AtomicReference<>();
+    states.compute(jar, (key, state) -> {
+      if (state == null) {
+        state = new LeaseState();
+      }
+      state.pendingDeletion = deletion;
+      if (!state.leases.isEmpty()) {
+        LOG.debug("Deleting '{}' once it is not read anymore", jar);
+      } else if (state.deletion == null) {
+        claimed.set(state.claimDeletion());
+      }
+      return state;
+    });
+    run(jar, claimed.get());
+  }
+
+  /**
+   * Drops the pending deletion of a jar, as a new jar is about to be stored in its place. Waits
+   * for a deletion which is already running, so it does not delete the new jar.
+   *
+   * @param jar the location of the jar
+   */
+  public void cancelDeletion(File jar) {
+    AtomicReference<CompletableFuture<Void>> running = new AtomicReference<>();
+    states.computeIfPresent(jar, (key, state) -> {
+      if (state.pendingDeletion != null) {
+        LOG.debug("Not deleting '{}', it is replaced", jar);
+        state.pendingDeletion = null;
+      }
+      running.set(state.deletion);
+      return state.isIdle() ? null : state;
+    });
+    if (running.get() == null) {
+      return;
+    }
+    try {
+      running.get().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // deletions never complete exceptionally
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * @return the number of jars waiting for their readers to be deleted
+   */
+  public int getPendingDeletions() {
+    int pending = 0;
+    for (LeaseState state : states.values()) {
+      if (state.pendingDeletion != null && !state.leases.isEmpty()) {
+        pending++;
+      }
+    }
+    return pending;
+  }
+
+  /**
+   * Releases the leases which have timed out and runs the deletions they held back.
+   */
+  void expireLeases() {
+    long now = clock.getAsLong();
+    for (File jar : states.keySet()) {
+      AtomicReference<Runnable> claimed = new AtomicReference<>();
+      states.computeIfPresent(jar, (key, state) -> {
+        int expired = 0;
+        for (Lease lease : state.leases) {
+          if (lease.expiresAt <= now && state.leases.remove(lease)) {
+            expired++;
+          }
+        }
+        if (expired > 0) {
+          expiredLeases.increment(expired);
+          LOG.warn("{} leases on '{}' timed out", expired, jar);
+        }
+        if (state.leases.isEmpty() && state.deletion == null) {
+          claimed.set(state.claimDeletion());
+        }
+        return state.isIdle() ? null : state;
+      });
+      run(jar, claimed.get());
+    }
+  }
+
+  private void release(Lease lease) {
+    AtomicReference<Runnable> claimed = new AtomicReference<>();
+    states.computeIfPresent(lease.jar, (key, state) -> {
+      if (state.leases.remove(lease) && state.leases.isEmpty() && state.deletion == null) {
+        claimed.set(state.claimDeletion());
+      }
+      return state.isIdle() ? null : state;
+    });
+    if (claimed.get() == null) {
+      return;
+    }
+    try {
+      // new leases are refused and replacements wait until the claimed deletion has run
+      reaper.execute(() -> run(lease.jar, claimed.get()));
+    } catch (RejectedExecutionException e) {
+      run(lease.jar, claimed.get());
+    }
+  }
+
+  /**
+   * Runs a claimed deletion, and the deletion which has been requested for the same jar while it
+   * was running.
+   *
+   * @param deletion the claimed deletion, or null if there is nothing to run
+   */
+  private void run(File jar, Runnable deletion) {
+    while (deletion != null) {
+      try {
+        deletion.run();
+      } catch (RuntimeException e) {
+        LOG.warn("Could not delete '{}'", jar, e);
+      }
+      AtomicReference<CompletableFuture<Void>> completed = new AtomicReference<>();
+      AtomicReference<Runnable> next = new AtomicReference<>();
+      states.computeIfPresent(jar, (key, state) -> {
+        completed.set(state.deletion);
+        state.deletion = null;
+        if (state.leases.isEmpty()) {
+          next.set(state.claimDeletion());
+        }
+        return state.isIdle() ? null : state;
+      });
+      if (completed.get() != null) {
+        completed.get().complete(null);
+      }
+      deletion = next.get();
+    }
+  }
+
+  /**
+   * The leases and deletions of a jar, which are only changed within the entry of the jar.
+   */
+  private static final class LeaseState {
+
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+    private volatile Runnable pendingDeletion;
+    // completes when the claimed deletion has run, new leases are refused until then
+    private volatile CompletableFuture<Void> deletion;
+
+    /**
+     * @return the pending deletion of the jar, which the caller has to run, or null
+     */
+    private Runnable claimDeletion() {
+      Runnable claimed = pendingDeletion;
+      if (claimed != null) {
+        pendingDeletion = null;
+        deletion = new CompletableFuture<>();
+      }
+      return claimed;
+    }
+
+    private boolean isIdle() {
+      return leases.isEmpty() && pendingDeletion == null && deletion == null;
+    }
+  }
+
+  /**
+   * The permission to read a jar, which must be closed when reading is complete.
+   */
+  public final class Lease implements AutoCloseable {
+
+    private final File jar;
+    private final long expiresAt;
+
+    private Lease(File jar, long expiresAt) {
+      this.jar = jar;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return the leased jar
+     */
+    public File getJar() {
+      return jar;
+    }
+
+    @Override
+    public void close() {
+      release(this);
+    }
+  }
+}
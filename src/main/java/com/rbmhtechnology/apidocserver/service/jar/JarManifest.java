@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The size and SHA-256 of a documentation jar at the time it was stored, persisted next to the
+ * jar. A jar with a matching manifest is complete and intact, so it can be served after a restart
+ * without downloading it again. The manifest also records the file of the repository the jar was
+ * downloaded from, which tells whether a snapshot jar is still the latest build.
+ */
+public final class JarManifest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(JarManifest.class);
+
+  private static final String SUFFIX = ".manifest";
+
+  private final String sha256;
+  private final long length;
+  private final long storedAt;
+  private final String source;
+
+  private JarManifest(String sha256, long length, long storedAt, String source) {
+    this.sha256 = sha256;
+    this.length = length;
+    this.storedAt = storedAt;
+    this.source = source;
+  }
+
+  /**
+   * @param jar the documentation jar
+   * @return the file the manifest of the jar is persisted to
+   */
+  public static File fileOf(File jar) {
+    return new File(jar.getPath() + SUFFIX);
+  }
+
+  /**
+   * Hashes a newly stored jar and persists its manifest next to it.
+   *
+   * @param jar the documentation jar
+   * @param source the name of the file in the repository the jar was downloaded from, or null
+   * @return the manifest
+   * @throws IOException if the jar could not be read or the manifest could not be written
+   */
+  public static JarManifest write(File jar, String source) throws IOException {
+    JarManifest manifest = new JarManifest(hash(jar), jar.length(), System.currentTimeMillis(),
+        source);
+    File file = fileOf(jar);
+    Path temp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+    try {
+      Files.write(temp, (manifest.sha256 + " " + manifest.length + " " + manifest.storedAt
+          + (source == null ? "" : " " + source) + "\n").getBytes(UTF_8));
+      Files.move(temp, file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    return manifest;
+  }
+
+  /**
+   * @param jar the documentation jar
+   * @return the persisted manifest of the jar, or null if there is none
+   */
+  public static JarManifest read(File jar) {
+    File file = fileOf(jar);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      String[] fields = new String(Files.readAllBytes(file.toPath()), UTF_8).trim().split(" ");
+      return new JarManifest(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+          fields.length > 3 ? fields[3] : null);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Ignoring unreadable manifest '{}'", file, e);
+      return null;
+    }
+  }
+
+  /**
+   * @param jar the documentation jar whose persisted manifest should be removed
+   */
+  public static void delete(File jar) {
+    File file = fileOf(jar);
+    if (file.exists() && !file.delete()) {
+      LOG.warn("Could not delete manifest '{}'", file);
+    }
+  }
+
+  /**
+   * Compares the size first, so only jars of the expected size are read completely.
+   *
+   * @param jar the documentation jar
+   * @return true if the jar is still the one the manifest was written for
+   * @throws IOException if the jar could not be read
+   */
+  public boolean matches(File jar) throws IOException {
+    return jar.isFile() && jar.length() == length && hash(jar).equals(sha256);
+  }
+
+  /**
+   * Only compares the size, as the jar has been verified when it was registered.
+   *
+   * @param jar the documentation jar
+   * @param source the name of a file in the repository
+   * @return true if the jar has been downloaded from the given file and has not been replaced
+   */
+  public boolean isFrom(File jar, String source) {
+    return source.equals(this.source) && jar.isFile() && jar.length() == length;
+  }
+
+  /**
+   * @return the time the jar was stored, in milliseconds
+   */
+  public long storedAt() {
+    return storedAt;
+  }
+
+  private static String hash(File jar) throws IOException {
+    return com.google.common.io.Files.asByteSource(jar).hash(Hashing.sha256()).toString();
+  }
+}
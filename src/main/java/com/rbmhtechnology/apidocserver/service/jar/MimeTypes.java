@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import javax.activation.MimetypesFileTypeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the content type of documentation files by their name.
+ */
+final class MimeTypes {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MimeTypes.class);
+
+  private MimeTypes() {
+  }
+
+  /**
+   * @param filename the name or path of a file
+   * @return the mime type to serve the file with
+   */
+  static String of(String filename) {
+    String mimeType = MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(filename);
+    if (filename.endsWith(".css")) {
+      return "text/css";
+    }
+    if (filename.endsWith(".js")) {
+      return "application/javascript";
+    }
+    if (filename.endsWith(".svg")) {
+      return "image/svg+xml";
+    }
+    LOG.trace("resolved {} as mime type for filename {}", mimeType, filename);
+    return mimeType;
+  }
+}
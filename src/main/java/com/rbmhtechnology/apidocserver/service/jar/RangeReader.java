@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Copies byte ranges of the uncompressed content of a single entry or file.
+ */
+public interface RangeReader extends Closeable {
+
+  /**
+   * @param start the offset of the first byte within the content
+   * @param count the number of bytes to copy
+   * @param output the stream to copy to
+   * @throws IOException if reading the content or writing the output failed
+   */
+  void copy(long start, long count, OutputStream output) throws IOException;
+
+  @Override
+  default void close() throws IOException {
+  }
+
+  /**
+   * @param channel the channel containing the uncompressed content
+   * @param offset the position of the first byte of the content within the channel
+   * @return a reader copying the requested range from the channel without reading the content
+   *     before it
+   */
+  static RangeReader of(FileChannel channel, long offset) {
+    return (start, count, output) -> {
+      WritableByteChannel target = Channels.newChannel(output);
+      long position = offset + start;
+      long remaining = count;
+      while (remaining > 0) {
+        long transferred = channel.transferTo(position, remaining, target);
+        if (transferred <= 0) {
+          throw new EOFException("Unexpected end of content at " + position);
+        }
+        position += transferred;
+        remaining -= transferred;
+      }
+    };
+  }
+
+  /**
+   * @param content the uncompressed content, which is not modified
+   * @return a reader writing directly from the buffer
+   */
+  static RangeReader of(ByteBuffer content) {
+    return (start, count, output) -> {
+      if (start + count > content.limit()) {
+        throw new EOFException("Unexpected end of content at " + content.limit());
+      }
+      ByteBuffer range = content.duplicate();
+      range.position((int) start);
+      range.limit((int) (start + count));
+      WritableByteChannel target = Channels.newChannel(output);
+      while (range.hasRemaining()) {
+        target.write(range);
+      }
+    };
+  }
+}
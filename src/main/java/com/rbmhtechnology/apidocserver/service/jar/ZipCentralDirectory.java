@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal reader for the central directory of a zip file, including the parts
+ * {@link java.util.zip.ZipFile} does not expose, i.e. where the data of an entry starts within the
+ * file.
+ */
+final class ZipCentralDirectory {
+
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+  private static final int END_LENGTH = 22;
+  private static final int ZIP64_LOCATOR_LENGTH = 20;
+  private static final int ZIP64_END_LENGTH = 56;
+  private static final int CENTRAL_HEADER_LENGTH = 46;
+  private static final int LOCAL_HEADER_LENGTH = 30;
+  private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int EXTENDED_TIMESTAMP_ID = 0x5455;
+
+  private ZipCentralDirectory() {
+  }
+
+  /**
+   * Reads the records of all entries from the central directory.
+   *
+   * @param channel the channel of the zip file
+   * @return the entries in the order of the central directory
+   * @throws IOException if the central directory could not be read
+   */
+  static List<Entry> read(FileChannel channel) throws IOException {
+    ByteBuffer directory = readCentralDirectory(channel);
+    List<Entry> entries = new ArrayList<>();
+    while (directory.remaining() >= CENTRAL_HEADER_LENGTH) {
+      int start = directory.position();
+      if (directory.getInt(start) != CENTRAL_HEADER_SIGNATURE) {
+        throw new ZipException("Invalid central directory header");
+      }
+      Entry entry = new Entry();
+      entry.method = directory.getShort(start + 10) & 0xFFFF;
+      entry.time = dosToJavaTime(directory.getInt(start + 12) & ZIP64_MAGIC);
+      entry.crc = directory.getInt(start + 16) & ZIP64_MAGIC;
+      entry.compressedSize = directory.getInt(start + 20) & ZIP64_MAGIC;
+      entry.size = directory.getInt(start + 24) & ZIP64_MAGIC;
+      int nameLength = directory.getShort(start + 28) & 0xFFFF;
+      int extraLength = directory.getShort(start + 30) & 0xFFFF;
+      int commentLength = directory.getShort(start + 32) & 0xFFFF;
+      entry.localHeaderOffset = directory.getInt(start + 42) & ZIP64_MAGIC;
+
+      entry.name = new byte[nameLength];
+      directory.position(start + CENTRAL_HEADER_LENGTH);
+      directory.get(entry.name);
+
+      readExtraFields(directory, directory.position(), extraLength, entry);
+      entries.add(entry);
+      directory.position(start + CENTRAL_HEADER_LENGTH + nameLength + extraLength + commentLength);
+    }
+    return entries;
+  }
+
+  /**
+   * @param channel the channel of the zip file
+   * @param localHeaderOffset the offset of the local header of an entry
+   * @return the offset of the first byte of the entry's data
+   * @throws IOException if the local header could not be read
+   */
+  static long dataOffset(FileChannel channel, long localHeaderOffset) throws IOException {
+    ByteBuffer header = read(channel, localHeaderOffset, LOCAL_HEADER_LENGTH);
+    if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+      throw new ZipException("Invalid local header at " + localHeaderOffset);
+    }
+    int nameLength = header.getShort(26) & 0xFFFF;
+    int extraLength = header.getShort(28) & 0xFFFF;
+    return localHeaderOffset + LOCAL_HEADER_LENGTH + nameLength + extraLength;
+  }
+
+  private static ByteBuffer readCentralDirectory(FileChannel channel) throws IOException {
+    long fileSize = channel.size();
+    int tailLength = (int) Math.min(fileSize, END_LENGTH + MAX_COMMENT_LENGTH);
+    ByteBuffer tail = read(channel, fileSize - tailLength, tailLength);
+
+    int end = -1;
+    for (int i = tailLength - END_LENGTH; i >= 0; i--) {
+      if (tail.getInt(i) == END_SIGNATURE) {
+        end = i;
+        break;
+      }
+    }
+    if (end < 0) {
+      throw new ZipException("End of central directory not found");
+    }
+
+    long size = tail.getInt(end + 12) & ZIP64_MAGIC;
+    long offset = tail.getInt(end + 16) & ZIP64_MAGIC;
+
+    long endOffset = fileSize - tailLength + end;
+    if ((size == ZIP64_MAGIC || offset == ZIP64_MAGIC) && endOffset >= ZIP64_LOCATOR_LENGTH) {
+      ByteBuffer locator = read(channel, endOffset - ZIP64_LOCATOR_LENGTH, ZIP64_LOCATOR_LENGTH);
+      if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+        ByteBuffer zip64End = read(channel, locator.getLong(8), ZIP64_END_LENGTH);
+        if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+          throw new ZipException("Invalid zip64 end of central directory");
+        }
+        size = zip64End.getLong(40);
+        offset = zip64End.getLong(48);
+      }
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new ZipException("Central directory too large");
+    }
+    return read(channel, offset, (int) size);
+  }
+
+  private static void readExtraFields(ByteBuffer directory, int extraStart, int extraLength,
+      Entry entry) throws ZipException {
+    int position = extraStart;
+    int extraEnd = extraStart + extraLength;
+    while (position + 4 <= extraEnd) {
+      int id = directory.getShort(position) & 0xFFFF;
+      int length = directory.getShort(position + 2) & 0xFFFF;
+      int dataEnd = Math.min(position + 4 + length, extraEnd);
+      if (id == ZIP64_EXTRA_ID) {
+        // the extra field only contains the values which overflowed, in this order
+        int valuePosition = position + 4;
+        if (entry.size == ZIP64_MAGIC && valuePosition + 8 <= dataEnd) {
+          entry.size = directory.getLong(valuePosition);
+          valuePosition += 8;
+        }
+        if (entry.compressedSize == ZIP64_MAGIC && valuePosition + 8 <= dataEnd) {
+          entry.compressedSize = directory.getLong(valuePosition);
+          valuePosition += 8;
+        }
+        if (entry.localHeaderOffset == ZIP64_MAGIC && valuePosition + 8 <= dataEnd) {
+          entry.localHeaderOffset = directory.getLong(valuePosition);
+        }
+      } else if (id == EXTENDED_TIMESTAMP_ID && length >= 5
+          && (directory.get(position + 4) & 1) != 0) {
+        // the central directory only carries the modification time
+        entry.time = (directory.getInt(position + 5) & ZIP64_MAGIC) * 1000;
+      }
+      position += 4 + length;
+    }
+    if (entry.size == ZIP64_MAGIC || entry.compressedSize == ZIP64_MAGIC
+        || entry.localHeaderOffset == ZIP64_MAGIC) {
+      throw new ZipException("Missing zip64 extra field");
+    }
+  }
+
+  /**
+   * Converts an MS-DOS date and time the same way {@link java.util.zip.ZipEntry#getTime()} does.
+   */
+  private static long dosToJavaTime(long dosTime) {
+    try {
+      LocalDateTime time = LocalDateTime.of(
+          (int) (((dosTime >> 25) & 0x7f) + 1980),
+          (int) ((dosTime >> 21) & 0x0f),
+          (int) ((dosTime >> 16) & 0x1f),
+          (int) ((dosTime >> 11) & 0x1f),
+          (int) ((dosTime >> 5) & 0x3f),
+          (int) ((dosTime << 1) & 0x3e));
+      return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    } catch (DateTimeException e) {
+      return -1;
+    }
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException("Unexpected end of zip file");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * The record of a single entry in the central directory.
+   */
+  static final class Entry {
+
+    byte[] name;
+    int method;
+    long time;
+    long crc;
+    long compressedSize;
+    long size;
+    long localHeaderOffset;
+  }
+}
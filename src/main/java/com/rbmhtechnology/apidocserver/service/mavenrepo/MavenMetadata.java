@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.mavenrepo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The parts of a maven-metadata.xml the server needs, of an artifact or of a snapshot version.
+ * Instances are immutable, so they can be shared by all threads.
+ */
+public final class MavenMetadata {
+
+  private static final XMLInputFactory XML_INPUT_FACTORY = newXmlInputFactory();
+
+  private final List<String> versions;
+  private final List<String> latest;
+  private final List<String> release;
+  private final String lastUpdated;
+  private final String snapshotTimestamp;
+  private final String snapshotBuildNumber;
+  private final List<SnapshotVersion> snapshotVersions;
+
+  private MavenMetadata(Builder builder) {
+    this.versions = Collections.unmodifiableList(builder.versions);
+    this.latest = Collections.unmodifiableList(builder.latest);
+    this.release = Collections.unmodifiableList(builder.release);
+    this.lastUpdated = builder.lastUpdated;
+    this.snapshotTimestamp = builder.snapshotTimestamp;
+    this.snapshotBuildNumber = builder.snapshotBuildNumber;
+    this.snapshotVersions = Collections.unmodifiableList(builder.snapshotVersions);
+  }
+
+  /**
+   * @return the distinct versions in the order of the metadata
+   */
+  public List<String> getVersions() {
+    return versions;
+  }
+
+  /**
+   * @return the values of all latest elements, normally exactly one
+   */
+  public List<String> getLatest() {
+    return latest;
+  }
+
+  /**
+   * @return the values of all release elements, normally exactly one
+   */
+  public List<String> getRelease() {
+    return release;
+  }
+
+  /**
+   * @return the time of the last update as yyyyMMddHHmmss or null
+   */
+  public String getLastUpdated() {
+    return lastUpdated;
+  }
+
+  /**
+   * @return the timestamp of the latest build of a snapshot version or null
+   */
+  public String getSnapshotTimestamp() {
+    return snapshotTimestamp;
+  }
+
+  /**
+   * @return the build number of the latest build of a snapshot version or null
+   */
+  public String getSnapshotBuildNumber() {
+    return snapshotBuildNumber;
+  }
+
+  /**
+   * @return the files of the latest build of a snapshot version
+   */
+  public List<SnapshotVersion> getSnapshotVersions() {
+    return snapshotVersions;
+  }
+
+  /**
+   * Parses the metadata in a single pass, without building a document.
+   *
+   * @param content the maven-metadata.xml
+   * @return the parsed metadata
+   * @throws IOException if the content is no valid xml
+   */
+  public static MavenMetadata parse(byte[] content) throws IOException {
+    Builder builder = new Builder();
+    Deque<String> path = new ArrayDeque<>();
+    String classifier = null;
+    String extension = null;
+    String value = null;
+    try {
+      XMLStreamReader reader = XML_INPUT_FACTORY
+          .createXMLStreamReader(new ByteArrayInputStream(content));
+      try {
+        while (reader.hasNext()) {
+          int event = reader.next();
+          if (event == XMLStreamReader.END_ELEMENT) {
+            if ("snapshotVersion".equals(path.pop())) {
+              builder.snapshotVersions.add(new SnapshotVersion(classifier, extension, value));
+              classifier = null;
+              extension = null;
+              value = null;
+            }
+            continue;
+          }
+          if (event != XMLStreamReader.START_ELEMENT) {
+            continue;
+          }
+          String parent = path.peek();
+          String name = reader.getLocalName();
+          path.push(name);
+          if ("versions".equals(parent) && "version".equals(name)) {
+            String version = text(reader, path);
+            if (!builder.versions.contains(version)) {
+              builder.versions.add(version);
+            }
+          } else if ("versioning".equals(parent)) {
+            if ("latest".equals(name)) {
+              builder.latest.add(text(reader, path));
+            } else if ("release".equals(name)) {
+              builder.release.add(text(reader, path));
+            } else if ("lastUpdated".equals(name)) {
+              builder.lastUpdated = text(reader, path);
+            }
+          } else if ("snapshot".equals(parent)) {
+            if ("timestamp".equals(name)) {
+              builder.snapshotTimestamp = text(reader, path);
+            } else if ("buildNumber".equals(name)) {
+              builder.snapshotBuildNumber = text(reader, path);
+            }
+          } else if ("snapshotVersion".equals(parent)) {
+            if ("classifier".equals(name)) {
+              classifier = text(reader, path);
+            } else if ("extension".equals(name)) {
+              extension = text(reader, path);
+            } else if ("value".equals(name)) {
+              value = text(reader, path);
+            }
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException("Could not parse maven-metadata.xml", e);
+    }
+    return new MavenMetadata(builder);
+  }
+
+  /**
+   * Reads the text of the current element, which is consumed including its end.
+   */
+  private static String text(XMLStreamReader reader, Deque<String> path)
+      throws XMLStreamException {
+    path.pop();
+    return reader.getElementText().trim();
+  }
+
+  private static XMLInputFactory newXmlInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    // metadata never needs a document type, so do not resolve anything on the parser's behalf
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
+  }
+
+  /**
+   * A file of a snapshot build.
+   */
+  public static final class SnapshotVersion {
+
+    private final String classifier;
+    private final String extension;
+    private final String value;
+
+    SnapshotVersion(String classifier, String extension, String value) {
+      this.classifier = classifier;
+      this.extension = extension;
+      this.value = value;
+    }
+
+    /**
+     * @return the classifier or null for the main artifact
+     */
+    public String getClassifier() {
+      return classifier;
+    }
+
+    public String getExtension() {
+      return extension;
+    }
+
+    /**
+     * @return the timestamped version of the file
+     */
+    public String getValue() {
+      return value;
+    }
+  }
+
+  private static final class Builder {
+
+    private final List<String> versions = new ArrayList<>();
+    private final List<String> latest = new ArrayList<>(1);
+    private final List<String> release = new ArrayList<>(1);
+    private final List<SnapshotVersion> snapshotVersions = new ArrayList<>();
+    private String lastUpdated;
+    private String snapshotTimestamp;
+    private String snapshotBuildNumber;
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.mavenrepo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.rbmhtechnology.apidocserver.exception.RepositoryException;
+import com.rbmhtechnology.apidocserver.service.ArtifactIdentifier;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the parsed maven-metadata.xml of recently requested artifacts and versions. Every access
+ * revalidates the metadata with the repository using the ETag and Last-Modified validators of the
+ * last download, so an unchanged file is neither transferred nor parsed again.
+ */
+@Component
+public class MavenMetadataCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MavenMetadataCache.class);
+
+  private final MavenRepoClient client;
+  private final Cache<String, Entry> entries = CacheBuilder.newBuilder()
+      .maximumSize(1000)
+      .build();
+  private final Counter modified;
+  private final Counter notModified;
+  private final Counter savedBytes;
+
+  public MavenMetadataCache(MavenRepoClient client, MeterRegistry meterRegistry) {
+    this.client = client;
+    this.modified = Counter.builder("apidoc.metadata.requests")
+        .description("maven-metadata.xml requests to the repository")
+        .tag("result", "modified")
+        .register(meterRegistry);
+    this.notModified = Counter.builder("apidoc.metadata.requests")
+        .description("maven-metadata.xml requests to the repository")
+        .tag("result", "not-modified")
+        .register(meterRegistry);
+    this.savedBytes = Counter.builder("apidoc.metadata.saved")
+        .description("maven-metadata.xml bytes not transferred thanks to revalidation")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    Gauge.builder("apidoc.metadata.not-modified.ratio", this, MavenMetadataCache::notModifiedRatio)
+        .description("share of maven-metadata.xml requests answered with 304 Not Modified")
+        .register(meterRegistry);
+  }
+
+  /**
+   * @param groupId the group id of the artifact
+   * @param artifactId the artifact id
+   * @return the current metadata of the artifact
+   * @throws RepositoryException if the metadata could not be downloaded or parsed
+   */
+  public MavenMetadata get(String groupId, String artifactId) throws RepositoryException {
+    return get(groupId.replace(".", "/") + "/" + artifactId + "/maven-metadata.xml");
+  }
+
+  /**
+   * @param version the version, the classifier is ignored
+   * @return the current metadata of the version, which lists the files of a snapshot
+   * @throws RepositoryException if the metadata could not be downloaded or parsed
+   */
+  public MavenMetadata get(ArtifactIdentifier version) throws RepositoryException {
+    return get(version.getGroupId().replace(".", "/") + "/" + version.getArtifactId() + "/"
+        + version.getVersion() + "/maven-metadata.xml");
+  }
+
+  private MavenMetadata get(String resourceName) throws RepositoryException {
+    Entry cached = entries.getIfPresent(resourceName);
+
+    RepositoryResource resource = cached == null
+        ? client.getIfModified(resourceName, null, null)
+        : client.getIfModified(resourceName, cached.etag, cached.lastModified);
+    if (resource == null) {
+      LOG.debug("'{}' has not been modified", resourceName);
+      notModified.increment();
+      savedBytes.increment(cached.length);
+      return cached.metadata;
+    }
+    modified.increment();
+
+    MavenMetadata metadata;
+    try {
+      metadata = MavenMetadata.parse(resource.getContent());
+    } catch (IOException e) {
+      throw new RepositoryException("Could not parse '" + resourceName + "'", e);
+    }
+    if (resource.getEtag() != null || resource.getLastModified() != null) {
+      entries.put(resourceName, new Entry(resource, metadata));
+    }
+    return metadata;
+  }
+
+  double notModifiedRatio() {
+    double total = modified.count() + notModified.count();
+    return total == 0 ? 0 : notModified.count() / total;
+  }
+
+  private static final class Entry {
+
+    private final String etag;
+    private final String lastModified;
+    private final int length;
+    private final MavenMetadata metadata;
+
+    Entry(RepositoryResource resource, MavenMetadata metadata) {
+      this.etag = resource.getEtag();
+      this.lastModified = resource.getLastModified();
+      this.length = resource.getContent().length;
+      this.metadata = metadata;
+    }
+  }
+}
@@ -15,106 +15,703 @@
  */
 package com.rbmhtechnology.apidocserver.service.mavenrepo;
 
+import static com.rbmhtechnology.apidocserver.service.RepositoryExecutorConfiguration.PROBE_EXECUTOR;
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
-import com.rbmhtechnology.apidocserver.exception.AccessNotAllowedException;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 import com.rbmhtechnology.apidocserver.exception.DownloadException;
 import com.rbmhtechnology.apidocserver.exception.NotFoundException;
 import com.rbmhtechnology.apidocserver.exception.RepositoryException;
+import com.rbmhtechnology.apidocserver.exception.RepositoryUnavailableException;
 import com.rbmhtechnology.apidocserver.service.ArtifactIdentifier;
+import com.rbmhtechnology.apidocserver.service.Deadline;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
 import io.vavr.collection.List;
 import io.vavr.collection.Map;
-import io.vavr.control.Try;
 import java.io.File;
-import org.apache.maven.wagon.ConnectionException;
-import org.apache.maven.wagon.ResourceDoesNotExistException;
-import org.apache.maven.wagon.TransferFailedException;
-import org.apache.maven.wagon.authentication.AuthenticationException;
-import org.apache.maven.wagon.authentication.AuthenticationInfo;
-import org.apache.maven.wagon.authorization.AuthorizationException;
-import org.apache.maven.wagon.providers.http.HttpWagon;
-import org.apache.maven.wagon.repository.Repository;
-import org.apache.maven.wagon.shared.http.BasicAuthScope;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import javax.annotation.PreDestroy;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+/**
+ * Accesses the maven repository over a pool of persistent connections, which is shared by all
+ * threads. Connections are kept alive between requests and reuse their TLS session.
+ * <p>
+ * If mirrors of the repository are configured, a request which has not been answered within the
+ * hedge delay is sent to the next mirror as well, and the first answer is used. All requests pass
+ * the {@link RepositoryCircuitBreaker}, and each operation holds a permit of the
+ * {@link UpstreamLimiter} while it runs.
+ */
 @Component
 public class MavenRepoClient {
 
   private static final Logger LOG = LoggerFactory.getLogger(MavenRepoClient.class);
 
-  private final HttpWagon httpWagon;
-  private final Repository repository;
-  private final AuthenticationInfo authenticationInfo;
+  private static final String PART_SUFFIX = ".part";
+  private static final int MAX_ATTEMPTS = 3;
+  private static final int TOO_MANY_REQUESTS = 429;
+
+  private final List<Mirror> mirrors;
+  private final CloseableHttpClient httpClient;
+  private final CredentialsProvider credentialsProvider;
+  private final AuthCache authCache;
+  private final Executor probeExecutor;
+  private final RepositoryCircuitBreaker circuitBreaker;
+  private final UpstreamLimiter limiter;
+  private final int maxResourceSize;
+  private final long hedgeDelayNanos;
+
+  public MavenRepoClient(MavenRepositoryConfig config,
+      @Value("${repository.http.connect-timeout:5000}") int connectTimeoutMillis,
+      @Value("${repository.http.read-timeout:30000}") int readTimeoutMillis,
+      @Value("${repository.http.max-connections:50}") int maxConnections,
+      @Value("${repository.http.max-connections-per-route:20}") int maxConnectionsPerRoute,
+      @Value("${repository.metadata.max-size:4194304}") int maxResourceSize,
+      @Value("${repository.mirrors.hedge-delay:0}") int hedgeDelayMillis,
+      @Qualifier(PROBE_EXECUTOR) Executor probeExecutor,
+      RepositoryCircuitBreaker circuitBreaker,
+      UpstreamLimiter limiter,
+      MeterRegistry meterRegistry) {
+    this.mirrors = List.ofAll(config.repositoryUrls()).map(url -> new Mirror(url, meterRegistry));
 
-  public MavenRepoClient(MavenRepositoryConfig config) {
-    this.httpWagon = new HttpWagon();
-    final BasicAuthScope scope = new BasicAuthScope();
-    scope.setHost(config.repositoryHost());
-    scope.setPort(String.valueOf(config.repositoryPort()));
-    this.httpWagon.setBasicAuthScope(scope);
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    connectionManager.setValidateAfterInactivity(2000);
 
-    this.authenticationInfo = config.getCredentials().map(c -> {
-      final AuthenticationInfo authInfo = new AuthenticationInfo();
-      authInfo.setUserName(c.username());
-      authInfo.setPassword(c.password());
-      return authInfo;
-    }).getOrElse((AuthenticationInfo) null);
+    this.httpClient = HttpClients.custom()
+        .useSystemProperties()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(RequestConfig.custom()
+            .setConnectTimeout(connectTimeoutMillis)
+            .setSocketTimeout(readTimeoutMillis)
+            .setConnectionRequestTimeout(readTimeoutMillis)
+            .build())
+        // connections are shared by all requests, as they all use the same credentials
+        .disableConnectionState()
+        // ranges and checksums refer to the bytes as stored in the repository
+        .disableContentCompression()
+        .build();
 
-    this.repository = new Repository("apidoc-source", config.repositoryUrl().toString());
+    this.credentialsProvider = new BasicCredentialsProvider();
+    this.authCache = new BasicAuthCache();
+    config.getCredentials().forEach(c -> config.repositoryUrls().forEach(url -> {
+      HttpHost host = new HttpHost(url.getHost(), url.getPort(), url.getProtocol());
+      credentialsProvider.setCredentials(new AuthScope(host),
+          new UsernamePasswordCredentials(c.username(), c.password()));
+      // send the credentials right away instead of waiting for a challenge
+      authCache.put(host, new BasicScheme());
+    }));
+    this.probeExecutor = probeExecutor;
+    this.circuitBreaker = circuitBreaker;
+    this.limiter = limiter;
+    this.maxResourceSize = maxResourceSize;
+    this.hedgeDelayNanos = MILLISECONDS.toNanos(hedgeDelayMillis);
   }
 
+  /**
+   * Downloads a resource to the given file. The content is written to a ".part" file next to the
+   * destination first and checked against the checksum the repository publishes for it, if any.
+   * Only a complete and verified download is moved to the destination, so the destination never
+   * holds a partial file. An interrupted transfer is resumed where it stopped, both within this
+   * call and by a later call for the same resource. The ".part" file is named after the resource,
+   * so the builds of a snapshot are never mixed, and a transfer is only resumed if there is a
+   * checksum to detect a resource which has been published again in the meantime.
+   *
+   * @param resourceName the path of the resource within the repository
+   * @param destination the file to store the resource in
+   * @throws RepositoryException if the resource does not exist or could not be downloaded
+   */
   public void get(String resourceName, File destination) throws RepositoryException {
+    // one permit for the whole transfer, as it occupies the repository as long as it runs
+    try (UpstreamLimiter.Permit permit = limiter.acquire(resourceName)) {
+      download(resourceName, destination);
+    }
+  }
+
+  private void download(String resourceName, File destination) throws RepositoryException {
     LOG.debug("Started downloading '{}' to '{}'", resourceName, destination);
+    Checksum checksum = getChecksum(resourceName);
+    Path part = partOf(resourceName, destination);
     try {
-      httpWagon.connect(repository, authenticationInfo);
-      httpWagon.get(resourceName, destination);
-    } catch (ResourceDoesNotExistException e) {
-      throw new NotFoundException("No jar at '" + resourceName + "', failed with status:" + e.getMessage());
-    } catch (AuthorizationException | AuthenticationException e) {
-      throw new DownloadException("Access denied for " + resourceName + "', failed with status:"
-          + e.getMessage());
-    } catch (TransferFailedException | ConnectionException e) {
+      Path parent = part.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+    } catch (IOException e) {
       throw new DownloadException("Transfer failed for " + resourceName + "', failed with status:"
-          + e.getMessage());
-    } finally {
-      disconnectQuietly();
+          + e.getMessage(), e);
+    }
+
+    for (int attempt = 1; ; attempt++) {
+      try {
+        String actual = transfer(resourceName, part, checksum);
+        if (checksum == null || checksum.value.equals(actual)) {
+          Files.move(part, destination.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+          return;
+        }
+        Files.deleteIfExists(part);
+        if (attempt >= MAX_ATTEMPTS) {
+          throw new DownloadException("Checksum mismatch for " + resourceName + "', expected "
+              + checksum.algorithm + " " + checksum.value + " but was " + actual);
+        }
+        LOG.warn("Checksum mismatch for '{}', downloading it again", resourceName);
+      } catch (IOException e) {
+        if (attempt >= MAX_ATTEMPTS) {
+          throw new DownloadException("Transfer failed for " + resourceName
+              + "', failed with status:" + e.getMessage(), e);
+        }
+        LOG.info("Resuming download of '{}' after: {}", resourceName, e.getMessage());
+      }
     }
   }
 
-  private void disconnectQuietly() {
-    try {
-      httpWagon.disconnect();
-    } catch (ConnectionException e) {
-      LOG.warn("Unable to disconnect from " + repository.getUrl() + ", reason:" + e
-          .getMessage());
+  /**
+   * @return the file next to the destination a resource is downloaded to
+   */
+  private static Path partOf(String resourceName, File destination) {
+    String fileName = resourceName.substring(resourceName.lastIndexOf('/') + 1);
+    return new File(destination.getAbsoluteFile().getParentFile(), fileName + PART_SUFFIX)
+        .toPath();
+  }
+
+  /**
+   * Appends the missing part of the resource to the given file, or replaces its content if the
+   * repository does not support ranges or there is no checksum to verify the combined content.
+   *
+   * @return the hex encoded digest of the complete file or null if there is no checksum
+   */
+  private String transfer(String resourceName, Path part, Checksum checksum)
+      throws IOException, RepositoryException {
+    long offset = checksum != null && Files.exists(part) ? Files.size(part) : 0;
+    try (CloseableHttpResponse response = execute(resourceName, url -> {
+      HttpGet request = new HttpGet(url);
+      if (offset > 0) {
+        request.setHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+      }
+      return request;
+    })) {
+      int status = response.getStatusLine().getStatusCode();
+      if (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+        EntityUtils.consumeQuietly(response.getEntity());
+        Files.delete(part);
+        throw new IOException("Could not resume at " + offset);
+      }
+      boolean resume = offset > 0 && status == HttpStatus.SC_PARTIAL_CONTENT;
+      String contentRange = headerValue(response, HttpHeaders.CONTENT_RANGE);
+      if (resume && (contentRange == null || !contentRange.startsWith("bytes " + offset + "-"))) {
+        EntityUtils.consumeQuietly(response.getEntity());
+        Files.delete(part);
+        throw new IOException("Unexpected range " + contentRange);
+      }
+      if (!resume && status != HttpStatus.SC_OK) {
+        EntityUtils.consumeQuietly(response.getEntity());
+        throw statusException(resourceName, status);
+      }
+      if (resume) {
+        LOG.debug("Resuming '{}' at {}", resourceName, offset);
+      }
+
+      MessageDigest digest = checksum == null ? null : checksum.newDigest();
+      if (resume && digest != null) {
+        try (InputStream existing = Files.newInputStream(part)) {
+          ByteStreams.copy(existing,
+              new DigestOutputStream(ByteStreams.nullOutputStream(), digest));
+        }
+      }
+      OpenOption[] options = resume
+          ? new OpenOption[]{CREATE, WRITE, APPEND}
+          : new OpenOption[]{CREATE, WRITE, TRUNCATE_EXISTING};
+      try (InputStream content = response.getEntity().getContent();
+          OutputStream output = Files.newOutputStream(part, options)) {
+        ByteStreams.copy(content,
+            digest == null ? output : new DigestOutputStream(output, digest));
+      }
+      return digest == null ? null : BaseEncoding.base16().lowerCase().encode(digest.digest());
+    }
+  }
+
+  /**
+   * @return the checksum published next to the resource or null if there is none
+   */
+  private Checksum getChecksum(String resourceName) throws RepositoryException {
+    for (Checksum.Algorithm algorithm : Checksum.Algorithm.values()) {
+      RepositoryResource resource;
+      try {
+        resource = fetch(resourceName + algorithm.extension, null, null);
+      } catch (NotFoundException e) {
+        continue;
+      }
+      // the file may name the checksummed file after the value
+      String value = new String(resource.getContent(), UTF_8).trim().split("\\s+")[0]
+          .toLowerCase(Locale.ROOT);
+      if (value.matches("[0-9a-f]{" + algorithm.hexLength + "}")) {
+        return new Checksum(algorithm, value);
+      }
+      LOG.warn("Ignoring invalid checksum '{}' of '{}'", value, resourceName);
     }
+    LOG.debug("No checksum available for '{}'", resourceName);
+    return null;
   }
 
+  /**
+   * Downloads a small resource into memory, unless it has not changed since the download the
+   * given validators belong to. Resources larger than the configured maximum size are rejected
+   * instead of being buffered.
+   *
+   * @param resourceName the path of the resource within the repository
+   * @param etag the ETag of the previous download or null
+   * @param lastModified the Last-Modified header of the previous download or null
+   * @return the resource or null if it has not been modified
+   * @throws RepositoryException if the resource could not be downloaded
+   */
+  public RepositoryResource getIfModified(String resourceName, String etag, String lastModified)
+      throws RepositoryException {
+    try (UpstreamLimiter.Permit permit = limiter.acquire(resourceName)) {
+      return fetch(resourceName, etag, lastModified);
+    }
+  }
+
+  private RepositoryResource fetch(String resourceName, String etag, String lastModified)
+      throws RepositoryException {
+    try (CloseableHttpResponse response = execute(resourceName, url -> {
+      HttpGet request = new HttpGet(url);
+      if (etag != null) {
+        request.setHeader(HttpHeaders.IF_NONE_MATCH, etag);
+      }
+      if (lastModified != null) {
+        request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+      }
+      return request;
+    })) {
+      int status = response.getStatusLine().getStatusCode();
+      if (status == HttpStatus.SC_NOT_MODIFIED && (etag != null || lastModified != null)) {
+        return null;
+      }
+      if (status != HttpStatus.SC_OK) {
+        EntityUtils.consumeQuietly(response.getEntity());
+        throw statusException(resourceName, status);
+      }
+      return new RepositoryResource(readLimited(resourceName, response.getEntity()),
+          headerValue(response, HttpHeaders.ETAG),
+          headerValue(response, HttpHeaders.LAST_MODIFIED));
+    } catch (IOException e) {
+      throw new DownloadException("Transfer failed for " + resourceName + "', failed with status:"
+          + e.getMessage(), e);
+    }
+  }
+
+  private byte[] readLimited(String resourceName, HttpEntity entity) throws IOException,
+      DownloadException {
+    if (entity.getContentLength() > maxResourceSize) {
+      throw tooLarge(resourceName);
+    }
+    byte[] content;
+    try (InputStream input = entity.getContent()) {
+      // one more byte than allowed tells a too large resource without a content length
+      content = ByteStreams.toByteArray(ByteStreams.limit(input, maxResourceSize + 1L));
+    }
+    if (content.length > maxResourceSize) {
+      throw tooLarge(resourceName);
+    }
+    return content;
+  }
+
+  private DownloadException tooLarge(String resourceName) {
+    return new DownloadException("'" + resourceName + "' exceeds the maximum size of "
+        + maxResourceSize + " bytes");
+  }
+
+  private static String headerValue(HttpResponse response, String name) {
+    Header header = response.getFirstHeader(name);
+    return header == null ? null : header.getValue();
+  }
+
+  private RepositoryException statusException(String resourceName, int status) {
+    if (status == HttpStatus.SC_NOT_FOUND || status == HttpStatus.SC_GONE) {
+      return new NotFoundException("No jar at '" + resourceName + "', failed with status:"
+          + status);
+    }
+    if (status == HttpStatus.SC_UNAUTHORIZED || status == HttpStatus.SC_FORBIDDEN) {
+      return new DownloadException("Access denied for " + resourceName + "', failed with status:"
+          + status);
+    }
+    return new DownloadException("Transfer failed for " + resourceName + "', failed with status:"
+        + status);
+  }
+
+  /**
+   * Probes all resources at the same time.
+   *
+   * @param resources the artifacts to look for
+   * @return whether the artifact of each classifier exists
+   */
   public Map<String, Boolean> exists(List<ArtifactIdentifier> resources)
       throws RepositoryException {
+    Deadline deadline = Deadline.current();
+    List<Tuple2<String, CompletableFuture<Boolean>>> probes = resources
+        .map(r -> Tuple.of(r.getClassifier(), CompletableFuture.supplyAsync(() -> {
+          try (Deadline.Scope scope = Deadline.enter(deadline)) {
+            return existsQuietly(r.mavenLayout());
+          }
+        }, probeExecutor)));
     try {
+      return probes.toMap(p -> p._1, p -> p._2.join());
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RepositoryUnavailableException) {
+        throw (RepositoryUnavailableException) e.getCause();
+      }
+      throw e;
+    }
+  }
 
-      httpWagon.connect(repository, authenticationInfo);
-      return resources
-          .toMap(ArtifactIdentifier::getClassifier, r -> existsQuietly(r.mavenLayout()));
+  /**
+   * @throws CompletionException if the repository is unavailable, as an unasked repository does
+   *     not tell whether the resource is missing
+   */
+  private boolean existsQuietly(String resourceName) {
+    try {
+      return exists(resourceName);
+    } catch (RepositoryUnavailableException e) {
+      throw new CompletionException(e);
+    } catch (IOException | RepositoryException e) {
+      LOG.warn(format("Unable to check if resource '%s' exists: reason%s", resourceName,
+          e.getMessage()));
+      return false;
+    }
+  }
 
-    } catch (AuthenticationException e) {
-      throw new AccessNotAllowedException(format("Access Denied to repository '%s' reason: %s",
-          repository.getUrl(), e.getMessage()));
-    } catch (ConnectionException e) {
-      throw new RepositoryException(format("Connection problem to repository '%s' reason: %s",
-          repository.getUrl(), e.getMessage()));
+  private boolean exists(String resourceName) throws IOException, RepositoryException {
+    try (UpstreamLimiter.Permit permit = limiter.acquire(resourceName);
+        CloseableHttpResponse response = execute(resourceName, HttpHead::new)) {
+      int status = response.getStatusLine().getStatusCode();
+      if (status == HttpStatus.SC_OK) {
+        return true;
+      }
+      if (status == HttpStatus.SC_NOT_FOUND || status == HttpStatus.SC_GONE) {
+        return false;
+      }
+      throw statusException(resourceName, status);
+    }
+  }
+
+  /**
+   * Sends a request to the mirrors, unless the circuit breaker is open, and records the outcome.
+   * Server errors and requests to slow down make the {@link UpstreamLimiter} lower its limit.
+   *
+   * @param resourceName the path of the resource within the repository
+   * @param newRequest creates the request for the url of the resource on a mirror
+   * @return the response, which must be closed
+   * @throws IOException if no mirror could be reached
+   * @throws RepositoryUnavailableException if the repository failed too often recently
+   */
+  private CloseableHttpResponse execute(String resourceName,
+      Function<String, HttpRequestBase> newRequest)
+      throws IOException, RepositoryUnavailableException {
+    if (!circuitBreaker.tryAcquire()) {
+      throw new RepositoryUnavailableException("Repository unavailable, not requesting '"
+          + resourceName + "'");
+    }
+    long start = System.nanoTime();
+    CloseableHttpResponse response;
+    try {
+      response = hedge(resourceName, newRequest);
+    } catch (IOException | RuntimeException e) {
+      if (Thread.currentThread().isInterrupted()) {
+        circuitBreaker.onIgnored();
+      } else {
+        circuitBreaker.onFailure();
+        limiter.onSample(System.nanoTime() - start, true);
+      }
+      throw e;
+    }
+    long latency = System.nanoTime() - start;
+    int status = response.getStatusLine().getStatusCode();
+    if (status >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+      circuitBreaker.onFailure();
+    } else {
+      circuitBreaker.onSuccess(latency);
+    }
+    limiter.onSample(latency, status >= HttpStatus.SC_INTERNAL_SERVER_ERROR
+        || status == TOO_MANY_REQUESTS);
+    return response;
+  }
+
+  /**
+   * Sends a request to the first healthy mirror. If it has not answered within the hedge delay, the
+   * request is sent to the next mirror as well; if it failed, right away. The first answer wins and
+   * the other requests are aborted. Server errors do not count as an answer.
+   *
+   * @param resourceName the path of the resource within the repository
+   * @param newRequest creates the request for the url of the resource on a mirror
+   * @return the response, which must be closed
+   * @throws IOException if no mirror could be reached
+   */
+  private CloseableHttpResponse hedge(String resourceName,
+      Function<String, HttpRequestBase> newRequest) throws IOException {
+    Tuple2<List<Mirror>, List<Mirror>> byHealth = mirrors.partition(Mirror::isHealthy);
+    Iterator<Mirror> order = byHealth._1.appendAll(byHealth._2).iterator();
+    BlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+    java.util.List<Attempt> started = new ArrayList<>();
+
+    Attempt chosen = null;
+    try {
+      Attempt last = start(order.next(), resourceName, newRequest, completed, started);
+      int running = 1;
+      while (running > 0 && chosen == null) {
+        Attempt attempt;
+        if (order.hasNext()) {
+          attempt = completed.poll(hedgeDelayNanos(last.mirror), NANOSECONDS);
+          if (attempt == null) {
+            last = start(order.next(), resourceName, newRequest, completed, started);
+            LOG.debug("Hedging request for '{}' with '{}'", resourceName, last.mirror);
+            running++;
+            continue;
+          }
+        } else {
+          attempt = completed.take();
+        }
+        running--;
+        if (attempt.isAnswered()) {
+          chosen = attempt;
+        } else if (order.hasNext()) {
+          last = start(order.next(), resourceName, newRequest, completed, started);
+          LOG.debug("Retrying request for '{}' at '{}'", resourceName, last.mirror);
+          running++;
+        } else if (running == 0) {
+          chosen = attempt;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while requesting '" + resourceName + "'");
     } finally {
-      disconnectQuietly();
+      for (Attempt attempt : started) {
+        if (attempt != chosen) {
+          attempt.cancel();
+        }
+      }
     }
+    return chosen.result();
   }
 
-  private boolean existsQuietly(String resourceName) {
-    return Try.of(() -> httpWagon.resourceExists(resourceName))
-        .onFailure(t -> LOG.warn(format("Unable to check if resource '%s' exists: reason%s",
-            resourceName, t.getMessage())))
-        .getOrElse(false);
+  private Attempt start(Mirror mirror, String resourceName,
+      Function<String, HttpRequestBase> newRequest, BlockingQueue<Attempt> completed,
+      java.util.List<Attempt> started) {
+    Attempt attempt = new Attempt(mirror, newRequest.apply(mirror.url() + resourceName), completed);
+    started.add(attempt);
+    if (mirrors.size() == 1) {
+      // there is nobody to hedge with, so do not hand the request to another thread
+      attempt.run();
+    } else {
+      probeExecutor.execute(attempt);
+    }
+    return attempt;
+  }
+
+  private long hedgeDelayNanos(Mirror mirror) {
+    return hedgeDelayNanos > 0 ? hedgeDelayNanos : mirror.p95Nanos();
+  }
+
+  private HttpClientContext context() {
+    HttpClientContext context = HttpClientContext.create();
+    context.setCredentialsProvider(credentialsProvider);
+    context.setAuthCache(authCache);
+    return context;
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    httpClient.close();
+  }
+
+  /**
+   * A request to a single mirror, which can be aborted by another thread.
+   */
+  private final class Attempt implements Runnable {
+
+    private final Mirror mirror;
+    private final HttpRequestBase request;
+    private final BlockingQueue<Attempt> completed;
+    private final ReentrantLock lock = new ReentrantLock();
+    private CloseableHttpResponse response;
+    private IOException failure;
+    private boolean cancelled;
+
+    Attempt(Mirror mirror, HttpRequestBase request, BlockingQueue<Attempt> completed) {
+      this.mirror = mirror;
+      this.request = request;
+      this.completed = completed;
+    }
+
+    @Override
+    public void run() {
+      long start = System.nanoTime();
+      try {
+        CloseableHttpResponse result = httpClient.execute(request, context());
+        lock.lock();
+        try {
+          if (cancelled) {
+            closeQuietly(result);
+            return;
+          }
+          response = result;
+          if (isAnswered()) {
+            mirror.success(System.nanoTime() - start);
+          } else {
+            mirror.failure();
+          }
+        } finally {
+          lock.unlock();
+        }
+      } catch (IOException | RuntimeException e) {
+        lock.lock();
+        try {
+          if (cancelled) {
+            return;
+          }
+          failure = e instanceof IOException ? (IOException) e : new IOException(e);
+          mirror.failure();
+        } finally {
+          lock.unlock();
+        }
+      }
+      completed.add(this);
+    }
+
+    boolean isAnswered() {
+      lock.lock();
+      try {
+        return response != null
+            && response.getStatusLine().getStatusCode() < HttpStatus.SC_INTERNAL_SERVER_ERROR;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    CloseableHttpResponse result() throws IOException {
+      lock.lock();
+      try {
+        if (response == null) {
+          throw failure;
+        }
+        return response;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void cancel() {
+      lock.lock();
+      try {
+        cancelled = true;
+        request.abort();
+        if (response != null) {
+          closeQuietly(response);
+          response = null;
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void closeQuietly(CloseableHttpResponse response) {
+      try {
+        response.close();
+      } catch (IOException e) {
+        LOG.debug("Could not close response of '{}'", mirror, e);
+      }
+    }
+  }
+
+  private static final class Checksum {
+
+    enum Algorithm {
+      SHA1("SHA-1", ".sha1", 40), SHA256("SHA-256", ".sha256", 64);
+
+      private final String name;
+      private final String extension;
+      private final int hexLength;
+
+      Algorithm(String name, String extension, int hexLength) {
+        this.name = name;
+        this.extension = extension;
+        this.hexLength = hexLength;
+      }
+    }
+
+    private final Algorithm algorithm;
+    private final String value;
+
+    Checksum(Algorithm algorithm, String value) {
+      this.algorithm = algorithm;
+      this.value = value;
+    }
+
+    MessageDigest newDigest() {
+      try {
+        return MessageDigest.getInstance(algorithm.name);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
   }
 }
@@ -16,8 +16,13 @@
 package com.rbmhtechnology.apidocserver.service.mavenrepo;
 
 import io.vavr.control.Option;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
@@ -28,16 +33,42 @@ public class MavenRepositoryConfig {
   private static final String JCENTER = "http://jcenter.bintray.com";
 
   private final URL repositoryUrl;
+  private final List<URL> mirrorUrls;
   private final Option<Credentials> credentials;
 
+  public MavenRepositoryConfig(URL repositoryUrl, String user, String password) {
+    this(repositoryUrl, Collections.emptyList(), user, password);
+  }
+
+  /**
+   * @param mirrorUrls repositories with the same content as the repository, in the order they
+   *     should be tried
+   */
+  @Autowired
   public MavenRepositoryConfig(@Value("${repository.url:" + JCENTER + "}") URL repositoryUrl,
+      @Value("#{'${repository.mirrors:}'.split(',')}") List<String> mirrorUrls,
       @Value("${repository.username:#{null}}") String user,
       @Value("${repository.password:#{null}}") String password) {
     Assert.notNull(repositoryUrl, "Cannot access maven without a url");
     this.repositoryUrl = repositoryUrl;
+    this.mirrorUrls = urls(mirrorUrls);
     this.credentials = credentials(user, password);
   }
 
+  private static List<URL> urls(List<String> urls) {
+    List<URL> result = new ArrayList<>();
+    for (String url : urls) {
+      if (!url.trim().isEmpty()) {
+        try {
+          result.add(new URL(url.trim()));
+        } catch (MalformedURLException e) {
+          throw new IllegalArgumentException("Invalid mirror url '" + url + "'", e);
+        }
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+
   private Option<Credentials> credentials(String username, String password) {
     if (username != null && password != null) {
       return Option.of(new Credentials(username, password));
@@ -49,12 +80,14 @@ public class MavenRepositoryConfig {
     return repositoryUrl;
   }
 
-  String repositoryHost() {
-    return repositoryUrl.getHost();
-  }
-
-  int repositoryPort() {
-    return repositoryUrl.getPort();
+  /**
+   * @return the repository followed by its mirrors
+   */
+  List<URL> repositoryUrls() {
+    List<URL> urls = new ArrayList<>(mirrorUrls.size() + 1);
+    urls.add(repositoryUrl);
+    urls.addAll(mirrorUrls);
+    return urls;
   }
 
   Option<Credentials> getCredentials() {
@@ -71,12 +104,13 @@ public class MavenRepositoryConfig {
     }
     MavenRepositoryConfig that = (MavenRepositoryConfig) o;
     return Objects.equals(repositoryUrl, that.repositoryUrl) &&
+        Objects.equals(mirrorUrls, that.mirrorUrls) &&
         Objects.equals(credentials, that.credentials);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(repositoryUrl, credentials);
+    return Objects.hash(repositoryUrl, mirrorUrls, credentials);
   }
 
   static class Credentials {
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.mavenrepo;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One of the equivalent repositories the client can download from. Keeps track of the latency of
+ * recent responses and whether the repository is currently failing.
+ */
+final class Mirror {
+
+  private static final Logger LOG = LoggerFactory.getLogger(Mirror.class);
+
+  /**
+   * number of recent latencies the percentile is calculated from
+   */
+  private static final int WINDOW = 128;
+
+  /**
+   * latencies needed before the percentile is trusted
+   */
+  private static final int MIN_SAMPLES = 16;
+
+  /**
+   * hedge delay as long as there are not enough latencies
+   */
+  private static final long DEFAULT_HEDGE_DELAY_NANOS = SECONDS.toNanos(1);
+
+  private static final int FAILURE_THRESHOLD = 3;
+  private static final long FAILURE_BACKOFF_NANOS = SECONDS.toNanos(30);
+
+  private final String url;
+  private final long[] latencies = new long[WINDOW];
+  private final Timer responses;
+  private final Counter failures;
+  private final ReentrantLock lock = new ReentrantLock();
+  private int samples;
+  private int consecutiveFailures;
+  private long unhealthyUntil;
+
+  Mirror(URL url, MeterRegistry meterRegistry) {
+    String external = url.toString();
+    this.url = external.endsWith("/") ? external : external + "/";
+    this.responses = Timer.builder("apidoc.repository.responses")
+        .description("time until the repository answered a request")
+        .tag("mirror", this.url)
+        .register(meterRegistry);
+    this.failures = Counter.builder("apidoc.repository.failures")
+        .description("requests the repository failed to answer")
+        .tag("mirror", this.url)
+        .register(meterRegistry);
+    Gauge.builder("apidoc.repository.healthy", this, m -> m.isHealthy() ? 1 : 0)
+        .description("whether requests are sent to the repository first")
+        .tag("mirror", this.url)
+        .register(meterRegistry);
+  }
+
+  /**
+   * @return the url of the repository, ending with a slash
+   */
+  String url() {
+    return url;
+  }
+
+  void success(long latencyNanos) {
+    lock.lock();
+    try {
+      latencies[samples++ % WINDOW] = latencyNanos;
+      consecutiveFailures = 0;
+      unhealthyUntil = 0;
+      responses.record(latencyNanos, NANOSECONDS);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void failure() {
+    lock.lock();
+    try {
+      failures.increment();
+      if (++consecutiveFailures == FAILURE_THRESHOLD) {
+        LOG.warn("Repository '{}' failed {} times in a row, preferring other mirrors", url,
+            consecutiveFailures);
+      }
+      if (consecutiveFailures >= FAILURE_THRESHOLD) {
+        unhealthyUntil = System.nanoTime() + FAILURE_BACKOFF_NANOS;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return false if the last requests failed, so other mirrors should be tried first for a while
+   */
+  boolean isHealthy() {
+    lock.lock();
+    try {
+      return unhealthyUntil == 0 || System.nanoTime() - unhealthyUntil >= 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the 95th percentile of the recent latencies
+   */
+  long p95Nanos() {
+    lock.lock();
+    try {
+      int count = Math.min(samples, WINDOW);
+      if (count < MIN_SAMPLES) {
+        return DEFAULT_HEDGE_DELAY_NANOS;
+      }
+      long[] sorted = Arrays.copyOf(latencies, count);
+      Arrays.sort(sorted);
+      return sorted[(int) Math.ceil(count * 0.95) - 1];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return url;
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.mavenrepo;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stops requests to the repository while too many of the recent ones failed or were slow, so
+ * callers do not wait for a repository which is down. After the open duration a few trial
+ * requests are let through, which close the breaker again if all of them succeed.
+ */
+@Component
+public class RepositoryCircuitBreaker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RepositoryCircuitBreaker.class);
+
+  private static final int TRIAL_CALLS = 3;
+
+  private static final byte SUCCEEDED = 0;
+  private static final byte FAILED = 1;
+  private static final byte SLOW = 2;
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final int failureRateThreshold;
+  private final long slowCallNanos;
+  private final int openSeconds;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * the outcomes of the recent calls, used as a ring
+   */
+  private final byte[] outcomes;
+  private int calls;
+  private State state = State.CLOSED;
+  private long openedAt;
+  private int trialPermits;
+  private int trialSuccesses;
+
+  /**
+   * @param window the number of recent calls the rates are calculated from
+   * @param failureRateThreshold the percentage of failed, or of slow calls, opening the breaker
+   * @param slowCallMillis the duration after which a call counts as slow
+   * @param openSeconds the time no calls are permitted after the breaker opened
+   */
+  public RepositoryCircuitBreaker(
+      @Value("${repository.circuit-breaker.window:20}") int window,
+      @Value("${repository.circuit-breaker.failure-rate:50}") int failureRateThreshold,
+      @Value("${repository.circuit-breaker.slow-call-duration:10000}") long slowCallMillis,
+      @Value("${repository.circuit-breaker.open-duration:30}") int openSeconds) {
+    this.outcomes = new byte[window];
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallNanos = MILLISECONDS.toNanos(slowCallMillis);
+    this.openSeconds = openSeconds;
+  }
+
+  /**
+   * Asks for permission to call the repository. A permitted call must be followed by one of
+   * {@link #onSuccess(long)}, {@link #onFailure()} or {@link #onIgnored()}.
+   *
+   * @return false if the repository must not be called
+   */
+  public boolean tryAcquire() {
+    lock.lock();
+    try {
+      if (state == State.OPEN) {
+        if (System.nanoTime() - openedAt < SECONDS.toNanos(openSeconds)) {
+          return false;
+        }
+        LOG.info("Trying the repository again");
+        state = State.HALF_OPEN;
+        trialPermits = TRIAL_CALLS;
+        trialSuccesses = 0;
+      }
+      if (state == State.HALF_OPEN) {
+        if (trialPermits == 0) {
+          return false;
+        }
+        trialPermits--;
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @param latencyNanos the time the repository took to answer
+   */
+  public void onSuccess(long latencyNanos) {
+    lock.lock();
+    try {
+      record(latencyNanos >= slowCallNanos ? SLOW : SUCCEEDED);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void onFailure() {
+    lock.lock();
+    try {
+      record(FAILED);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the permission of a call which did not tell anything about the repository, e.g.
+   * because it was interrupted.
+   */
+  public void onIgnored() {
+    lock.lock();
+    try {
+      if (state == State.HALF_OPEN) {
+        trialPermits++;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void record(byte outcome) {
+    if (state == State.HALF_OPEN) {
+      if (outcome != SUCCEEDED) {
+        open();
+      } else if (++trialSuccesses == TRIAL_CALLS) {
+        LOG.info("Repository is available again");
+        state = State.CLOSED;
+        calls = 0;
+      }
+      return;
+    }
+    if (state == State.OPEN) {
+      // a call started before the breaker opened
+      return;
+    }
+    outcomes[calls++ % outcomes.length] = outcome;
+    if (calls >= outcomes.length
+        && (rate(FAILED) >= failureRateThreshold || rate(SLOW) >= failureRateThreshold)) {
+      open();
+    }
+  }
+
+  private void open() {
+    LOG.warn("Repository failed {}% and was slow for {}% of the recent calls, not calling it for"
+        + " {} seconds", rate(FAILED), rate(SLOW), openSeconds);
+    state = State.OPEN;
+    openedAt = System.nanoTime();
+  }
+
+  private int rate(byte outcome) {
+    int count = Math.min(calls, outcomes.length);
+    if (count == 0) {
+      return 0;
+    }
+    int matching = 0;
+    for (int i = 0; i < count; i++) {
+      if (outcomes[i] == outcome) {
+        matching++;
+      }
+    }
+    return matching * 100 / count;
+  }
+
+  public State getState() {
+    lock.lock();
+    try {
+      return state;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return true if calls are permitted without restriction
+   */
+  public boolean isClosed() {
+    lock.lock();
+    try {
+      return state == State.CLOSED;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the percentage of failed calls among the recent calls
+   */
+  public int getFailureRate() {
+    lock.lock();
+    try {
+      return rate(FAILED);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the percentage of slow calls among the recent calls
+   */
+  public int getSlowCallRate() {
+    lock.lock();
+    try {
+      return rate(SLOW);
+    } finally {
+      lock.unlock();
+    }
+  }
+}
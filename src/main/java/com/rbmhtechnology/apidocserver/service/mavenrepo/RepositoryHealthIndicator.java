@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.mavenrepo;
+
+import com.rbmhtechnology.apidocserver.service.mavenrepo.RepositoryCircuitBreaker.State;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the state of the {@link RepositoryCircuitBreaker}. While the breaker is open the server
+ * is degraded rather than down, as documentation in the local storage is still served.
+ */
+@Component
+public class RepositoryHealthIndicator implements HealthIndicator {
+
+  public static final Status DEGRADED = new Status("DEGRADED",
+      "Repository unavailable, serving documentation from the local storage");
+
+  private final RepositoryCircuitBreaker circuitBreaker;
+
+  public RepositoryHealthIndicator(RepositoryCircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  @Override
+  public Health health() {
+    State state = circuitBreaker.getState();
+    return Health.status(state == State.OPEN ? DEGRADED : Status.UP)
+        .withDetail("circuitBreaker", state)
+        .withDetail("failureRate", circuitBreaker.getFailureRate())
+        .withDetail("slowCallRate", circuitBreaker.getSlowCallRate())
+        .build();
+  }
+}
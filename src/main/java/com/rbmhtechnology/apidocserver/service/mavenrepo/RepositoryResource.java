@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.mavenrepo;
+
+/**
+ * A resource downloaded into memory, together with the validators needed to revalidate it.
+ */
+public final class RepositoryResource {
+
+  private final byte[] content;
+  private final String etag;
+  private final String lastModified;
+
+  public RepositoryResource(byte[] content, String etag, String lastModified) {
+    this.content = content;
+    this.etag = etag;
+    this.lastModified = lastModified;
+  }
+
+  public byte[] getContent() {
+    return content;
+  }
+
+  /**
+   * @return the ETag header sent by the repository or null
+   */
+  public String getEtag() {
+    return etag;
+  }
+
+  /**
+   * @return the Last-Modified header sent by the repository or null
+   */
+  public String getLastModified() {
+    return lastModified;
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.mavenrepo;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.rbmhtechnology.apidocserver.exception.RepositoryUnavailableException;
+import com.rbmhtechnology.apidocserver.service.Deadline;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits the number of concurrent operations on the repository. The limit adapts to the
+ * repository: it grows by one while responses are fast and the limit is in use, and shrinks by a
+ * tenth for every slow or failed response (additive increase, multiplicative decrease).
+ * Operations exceeding the limit wait in a bounded queue, at most until the deadline of their
+ * request.
+ */
+@Component
+public class UpstreamLimiter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(UpstreamLimiter.class);
+
+  private static final int MIN_LIMIT = 1;
+  private static final double BACKOFF_RATIO = 0.9;
+
+  private final int maxLimit;
+  private final int queueCapacity;
+  private final long latencyThresholdNanos;
+  private final long maxWaitNanos;
+  private final ReentrantLock lock = new ReentrantLock(true);
+  private final Condition released = lock.newCondition();
+  private final Counter rejected;
+  private double limit;
+  private int inFlight;
+  private int waiting;
+
+  /**
+   * @param initialLimit the number of concurrent operations permitted at the start
+   * @param maxLimit the upper bound of the limit
+   * @param queueCapacity the number of operations which may wait for a permit
+   * @param latencyThresholdMillis the response time after which the limit is decreased
+   * @param maxWaitMillis the longest time an operation without deadline waits for a permit
+   */
+  public UpstreamLimiter(
+      @Value("${repository.limiter.initial-limit:20}") int initialLimit,
+      @Value("${repository.limiter.max-limit:${repository.http.max-connections:50}}") int maxLimit,
+      @Value("${repository.limiter.queue-capacity:100}") int queueCapacity,
+      @Value("${repository.limiter.latency-threshold:5000}") long latencyThresholdMillis,
+      @Value("${repository.limiter.max-wait:30000}") long maxWaitMillis,
+      MeterRegistry meterRegistry) {
+    this.maxLimit = maxLimit;
+    this.queueCapacity = queueCapacity;
+    this.latencyThresholdNanos = MILLISECONDS.toNanos(latencyThresholdMillis);
+    this.maxWaitNanos = MILLISECONDS.toNanos(maxWaitMillis);
+    this.limit = Math.max(MIN_LIMIT, Math.min(initialLimit, maxLimit));
+    this.rejected = Counter.builder("apidoc.repository.limiter.rejected")
+        .description("repository operations which did not get a permit in time")
+        .register(meterRegistry);
+    Gauge.builder("apidoc.repository.limiter.limit", this, UpstreamLimiter::getLimit)
+        .description("concurrent repository operations currently permitted")
+        .register(meterRegistry);
+    Gauge.builder("apidoc.repository.limiter.in-flight", this, UpstreamLimiter::getInFlight)
+        .description("concurrent repository operations")
+        .register(meterRegistry);
+    Gauge.builder("apidoc.repository.limiter.waiting", this, UpstreamLimiter::getWaiting)
+        .description("repository operations waiting for a permit")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Waits for a permit until the deadline of the current request.
+   *
+   * @param resourceName the resource the permit is used for
+   * @return the permit, which must be closed after the operation
+   * @throws RepositoryUnavailableException if the queue is full or there was no permit in time
+   */
+  public Permit acquire(String resourceName) throws RepositoryUnavailableException {
+    Deadline deadline = Deadline.current();
+    long remaining = deadline == null
+        ? maxWaitNanos
+        : Math.min(maxWaitNanos, deadline.remainingNanos());
+    lock.lock();
+    try {
+      if (waiting == 0 && inFlight < (int) limit) {
+        inFlight++;
+        return this::release;
+      }
+      if (waiting >= queueCapacity) {
+        throw reject("Too many concurrent requests to the repository, not requesting '"
+            + resourceName + "'");
+      }
+      waiting++;
+      try {
+        while (inFlight >= (int) limit) {
+          if (remaining <= 0) {
+            throw reject("No permit to request '" + resourceName + "' before the deadline");
+          }
+          remaining = released.awaitNanos(remaining);
+        }
+        inFlight++;
+        return this::release;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RepositoryUnavailableException("Interrupted while waiting to request '"
+            + resourceName + "'");
+      } finally {
+        waiting--;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private RepositoryUnavailableException reject(String message) {
+    rejected.increment();
+    LOG.debug(message);
+    return new RepositoryUnavailableException(message);
+  }
+
+  private void release() {
+    lock.lock();
+    try {
+      inFlight--;
+      released.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Adapts the limit to a response of the repository.
+   *
+   * @param latencyNanos the time the repository took to answer
+   * @param dropped true if the repository failed or asked to slow down
+   */
+  public void onSample(long latencyNanos, boolean dropped) {
+    lock.lock();
+    try {
+      if (dropped || latencyNanos > latencyThresholdNanos) {
+        limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+      } else if (inFlight * 2 >= limit && limit < maxLimit) {
+        // only grow while the limit is actually used, otherwise it says nothing about the limit
+        limit = Math.min(maxLimit, limit + 1);
+        released.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return true if nothing waits for a permit and at most half of the limit is in use, so
+   *     background work would not delay requests
+   */
+  public boolean hasSpareCapacity() {
+    lock.lock();
+    try {
+      return waiting == 0 && inFlight * 2 < (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int getWaiting() {
+    lock.lock();
+    try {
+      return waiting;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The permission to perform an operation on the repository.
+   */
+  @FunctionalInterface
+  public interface Permit extends AutoCloseable {
+
+    @Override
+    void close();
+  }
+}
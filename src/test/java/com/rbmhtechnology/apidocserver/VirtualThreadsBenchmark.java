@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.rbmhtechnology.apidocserver.service.VirtualThreads;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+
+/**
+ * Compares the repository executor with virtual threads under the same load. The server is
+ * started with {@code threads.virtual.enabled} off, and then on, against a stub maven repository
+ * answering after a fixed latency. Each run first requests an entry of every artifact while it
+ * still has to be downloaded, and then requests the loaded entries again.
+ *
+ * <p>Run with {@code java -cp <test classpath>
+ * com.rbmhtechnology.apidocserver.VirtualThreadsBenchmark [concurrent clients] [artifacts]
+ * [latency ms]} on Java 21 or later. On older runtimes only the repository executor is measured.
+ */
+public final class VirtualThreadsBenchmark {
+
+  private static final byte[] INDEX_HTML =
+      Strings.repeat("<p>documentation</p>", 1000).getBytes(UTF_8);
+
+  private VirtualThreadsBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int artifacts = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 200;
+
+    byte[] jar = javadocJar();
+    // the stub keeps the connections of all clients open, like the repository would
+    System.setProperty("sun.net.httpserver.maxIdleConnections", String.valueOf(clients));
+    HttpServer repository = HttpServer.create(new InetSocketAddress("localhost", 0), clients);
+    repository.createContext("/", exchange -> answer(exchange, jar, latencyMillis));
+    ExecutorService repositoryThreads = Executors.newCachedThreadPool();
+    repository.setExecutor(repositoryThreads);
+    repository.start();
+    ExecutorService clientThreads = Executors.newFixedThreadPool(clients);
+    try {
+      String repositoryUrl = "http://localhost:" + repository.getAddress().getPort() + "/";
+      run("platform", false, repositoryUrl, clientThreads, clients, artifacts);
+      if (VirtualThreads.isSupported()) {
+        run("virtual", true, repositoryUrl, clientThreads, clients, artifacts);
+      } else {
+        System.out.println("virtual: not supported on Java " + System.getProperty("java.version"));
+      }
+    } finally {
+      clientThreads.shutdownNow();
+      repository.stop(0);
+      repositoryThreads.shutdownNow();
+    }
+  }
+
+  private static void run(String name, boolean virtualThreads, String repositoryUrl,
+      ExecutorService clientThreads, int clients, int artifacts) throws Exception {
+    Path localStorage = Files.createTempDirectory("apidoc-benchmark");
+    // the same limits for both modes, so only the threads differ
+    ServletWebServerApplicationContext context =
+        (ServletWebServerApplicationContext) new SpringApplicationBuilder(ApiDocServer.class)
+            .properties(
+                "server.port=0",
+                "threads.virtual.enabled=" + virtualThreads,
+                "repository.url=" + repositoryUrl,
+                "repository.http.max-connections=" + clients,
+                "repository.http.max-connections-per-route=" + clients,
+                "repository.limiter.initial-limit=" + clients,
+                "repository.limiter.queue-capacity=" + artifacts,
+                "localstorage=" + localStorage,
+                "localstorage.warmup.enabled=false",
+                "prefetch.enabled=false",
+                "logging.level.root=WARN")
+            .run();
+    try {
+      String server = "http://localhost:" + context.getWebServer().getPort() + "/";
+      measure(name + " cold", server, clientThreads, artifacts);
+      measure(name + " warm", server, clientThreads, artifacts);
+    } finally {
+      context.close();
+      MoreFiles.deleteRecursively(localStorage, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+  }
+
+  private static void measure(String name, String server, ExecutorService clientThreads,
+      int artifacts) throws Exception {
+    long[] latencies = new long[artifacts];
+    AtomicInteger failed = new AtomicInteger();
+    Future<?>[] requests = new Future<?>[artifacts];
+    long start = System.nanoTime();
+    for (int i = 0; i < artifacts; i++) {
+      int request = i;
+      requests[i] = clientThreads.submit(() -> {
+        long submitted = System.nanoTime();
+        if (!get(server + "com.example/library-" + request + "/1.0.0/javadoc/index.html")) {
+          failed.incrementAndGet();
+        }
+        latencies[request] = System.nanoTime() - submitted;
+      });
+    }
+    for (Future<?> request : requests) {
+      request.get();
+    }
+    long elapsed = System.nanoTime() - start;
+
+    Arrays.sort(latencies);
+    System.out.printf("%s: %d requests in %d ms, %.0f requests/s, p50 %d ms, p99 %d ms, "
+            + "%d failed%n",
+        name, artifacts, TimeUnit.NANOSECONDS.toMillis(elapsed), artifacts / (elapsed / 1e9),
+        TimeUnit.NANOSECONDS.toMillis(latencies[artifacts / 2]),
+        TimeUnit.NANOSECONDS.toMillis(latencies[artifacts * 99 / 100]), failed.get());
+  }
+
+  private static boolean get(String url) {
+    try {
+      HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+      connection.setReadTimeout(60000);
+      int status = connection.getResponseCode();
+      try (InputStream input = status < 400
+          ? connection.getInputStream() : connection.getErrorStream()) {
+        if (input != null) {
+          ByteStreams.exhaust(input);
+        }
+      }
+      return status == 200;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static void answer(HttpExchange exchange, byte[] jar, long latencyMillis)
+      throws IOException {
+    try {
+      Thread.sleep(latencyMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    String path = exchange.getRequestURI().getPath();
+    if (!path.endsWith("-javadoc.jar")) {
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+      return;
+    }
+    boolean head = "HEAD".equals(exchange.getRequestMethod());
+    exchange.sendResponseHeaders(200, head ? -1 : jar.length);
+    if (!head) {
+      exchange.getResponseBody().write(jar);
+    }
+    exchange.close();
+  }
+
+  private static byte[] javadocJar() throws IOException {
+    ByteArrayOutputStream jar = new ByteArrayOutputStream();
+    try (JarOutputStream out = new JarOutputStream(jar)) {
+      out.putNextEntry(new JarEntry("index.html"));
+      out.write(INDEX_HTML);
+      out.closeEntry();
+    }
+    return jar.toByteArray();
+  }
+}
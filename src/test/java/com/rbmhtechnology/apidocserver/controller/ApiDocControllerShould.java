@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.controller;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.google.common.io.ByteStreams;
+import com.rbmhtechnology.apidocserver.exception.NotFoundException;
+import com.rbmhtechnology.apidocserver.service.ArtifactIdentifier;
+import com.rbmhtechnology.apidocserver.service.Prefetcher;
+import com.rbmhtechnology.apidocserver.service.RepositoryService;
+import io.vavr.collection.List;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.GZIPInputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class ApiDocControllerShould {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @MockBean
+  private RepositoryService repositoryService;
+
+  @MockBean
+  private Prefetcher prefetcher;
+
+  @Before
+  public void setup() throws Exception {
+    File jar = tmp.newFile("javadoc.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      out.putNextEntry(new JarEntry("index.html"));
+      out.write("<html/>".getBytes(UTF_8));
+      out.closeEntry();
+    }
+
+    when(repositoryService.getExpectedClassifiers()).thenReturn(List.of("javadoc"));
+    when(repositoryService.getSnapshotCacheTimeoutSeconds()).thenReturn(1800);
+    when(repositoryService.getResolvedArtifactIdentifier(anyString(), anyString(), anyString(),
+        anyString())).thenAnswer(invocation -> new ArtifactIdentifier(
+        invocation.getArgument(0), invocation.getArgument(1),
+        "latest".equals(invocation.getArgument(2)) ? "1.0.0" : invocation.getArgument(2),
+        invocation.getArgument(3)));
+    when(repositoryService.getCachedJarFile(any(ArtifactIdentifier.class))).thenReturn(jar);
+    when(repositoryService.resolveArtifactIdentifierAsync(anyString(), anyString(), anyString(),
+        anyString())).thenAnswer(invocation -> CompletableFuture.completedFuture(
+        new ArtifactIdentifier(invocation.getArgument(0), invocation.getArgument(1),
+            invocation.getArgument(2), invocation.getArgument(3))));
+    when(repositoryService.retrieveJarFileAsync(any(ArtifactIdentifier.class)))
+        .thenReturn(CompletableFuture.completedFuture(jar));
+    when(repositoryService.getStaleAgeSeconds(anyString(), any(ArtifactIdentifier.class)))
+        .thenReturn(-1L);
+  }
+
+  @Test
+  public void serve_release_entries_as_immutable() throws Exception {
+    mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html"))
+        .andExpect(status().isOk())
+        .andExpect(content().string("<html/>"))
+        .andExpect(header().exists("ETag"))
+        .andExpect(header().exists("Last-Modified"))
+        .andExpect(header().string("Cache-Control", containsString("immutable")));
+  }
+
+  @Test
+  public void serve_entries_of_artifacts_which_are_not_loaded_yet_asynchronously()
+      throws Exception {
+    when(repositoryService.getCachedJarFile(any(ArtifactIdentifier.class))).thenReturn(null);
+
+    MvcResult result = mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(content().string("<html/>"));
+  }
+
+  @Test
+  public void answer_not_found_if_artifact_could_not_be_loaded() throws Exception {
+    when(repositoryService.getCachedJarFile(any(ArtifactIdentifier.class))).thenReturn(null);
+    CompletableFuture<File> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new NotFoundException("not found"));
+    when(repositoryService.retrieveJarFileAsync(any(ArtifactIdentifier.class))).thenReturn(failed);
+
+    MvcResult result = mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void load_jars_again_which_have_been_deleted_while_they_were_loaded() throws Exception {
+    File jar = new File(tmp.getRoot(), "javadoc.jar");
+    when(repositoryService.getCachedJarFile(any(ArtifactIdentifier.class))).thenReturn(null);
+    when(repositoryService.retrieveJarFileAsync(any(ArtifactIdentifier.class))).thenReturn(
+        CompletableFuture.completedFuture(new File(tmp.getRoot(), "deleted.jar")),
+        CompletableFuture.completedFuture(jar));
+
+    MvcResult result = mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(content().string("<html/>"));
+  }
+
+  @Test
+  public void serve_snapshot_entries_with_snapshot_cache_timeout() throws Exception {
+    mockMvc.perform(get("/com.foo/bar/1.0.0-SNAPSHOT/javadoc/index.html"))
+        .andExpect(status().isOk())
+        .andExpect(header().string("Cache-Control", "max-age=1800"));
+  }
+
+  @Test
+  public void serve_version_shortcuts_with_snapshot_cache_timeout() throws Exception {
+    mockMvc.perform(get("/com.foo/bar/latest/javadoc/index.html"))
+        .andExpect(status().isOk())
+        .andExpect(header().string("Cache-Control", "max-age=1800"));
+  }
+
+  @Test
+  public void mark_entries_served_stale() throws Exception {
+    when(repositoryService.getStaleAgeSeconds(anyString(), any(ArtifactIdentifier.class)))
+        .thenReturn(42L);
+
+    mockMvc.perform(get("/com.foo/bar/1.0.0-SNAPSHOT/javadoc/index.html"))
+        .andExpect(status().isOk())
+        .andExpect(header().string("Warning", containsString("110")))
+        .andExpect(header().string("Age", "42"));
+  }
+
+  @Test
+  public void answer_not_modified_for_matching_etag() throws Exception {
+    String etag = mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html"))
+        .andReturn().getResponse().getHeader("ETag");
+
+    mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html").header("If-None-Match", etag))
+        .andExpect(status().isNotModified())
+        .andExpect(content().string(""));
+  }
+
+  @Test
+  public void answer_not_modified_if_not_modified_since() throws Exception {
+    String lastModified = mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html"))
+        .andReturn().getResponse().getHeader("Last-Modified");
+
+    mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html")
+        .header("If-Modified-Since", lastModified))
+        .andExpect(status().isNotModified());
+  }
+
+  @Test
+  public void serve_deflated_entries_as_gzip_if_accepted() throws Exception {
+    MockHttpServletResponse response = mockMvc
+        .perform(get("/com.foo/bar/1.0.0/javadoc/index.html").header("Accept-Encoding", "gzip"))
+        .andExpect(status().isOk())
+        .andExpect(header().string("Content-Encoding", "gzip"))
+        .andExpect(header().string("Vary", "Accept-Encoding"))
+        .andReturn().getResponse();
+
+    assertThat(response.getContentLength()).isEqualTo(response.getContentAsByteArray().length);
+    try (InputStream input = new GZIPInputStream(
+        new ByteArrayInputStream(response.getContentAsByteArray()))) {
+      assertThat(new String(ByteStreams.toByteArray(input), UTF_8)).isEqualTo("<html/>");
+    }
+  }
+
+  @Test
+  public void serve_deflated_entries_inflated_if_gzip_is_refused() throws Exception {
+    mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html")
+        .header("Accept-Encoding", "gzip;q=0, identity"))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist("Content-Encoding"))
+        .andExpect(content().string("<html/>"));
+  }
+
+  @Test
+  public void serve_single_range() throws Exception {
+    mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html").header("Range", "bytes=1-4"))
+        .andExpect(status().isPartialContent())
+        .andExpect(header().string("Content-Range", "bytes 1-4/7"))
+        .andExpect(content().string("html"));
+  }
+
+  @Test
+  public void serve_multiple_ranges() throws Exception {
+    String body = mockMvc
+        .perform(get("/com.foo/bar/1.0.0/javadoc/index.html").header("Range", "bytes=0-0,-2"))
+        .andExpect(status().isPartialContent())
+        .andExpect(header().string("Content-Type", containsString("multipart/byteranges")))
+        .andReturn().getResponse().getContentAsString();
+
+    assertThat(body)
+        .contains("Content-Range: bytes 0-0/7\r\n\r\n<")
+        .contains("Content-Range: bytes 5-6/7\r\n\r\n/>");
+  }
+
+  @Test
+  public void serve_complete_entry_if_range_does_not_match() throws Exception {
+    mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html")
+        .header("Range", "bytes=1-4")
+        .header("If-Range", "\"outdated\""))
+        .andExpect(status().isOk())
+        .andExpect(content().string("<html/>"));
+  }
+
+  @Test
+  public void answer_range_not_satisfiable() throws Exception {
+    mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html").header("Range", "bytes=7-"))
+        .andExpect(status().isRequestedRangeNotSatisfiable())
+        .andExpect(header().string("Content-Range", "bytes */7"));
+  }
+
+  @Test
+  public void answer_not_found_for_missing_entries() throws Exception {
+    mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/missing.html"))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void serve_identical_entries_of_different_versions_with_the_same_etag()
+      throws Exception {
+    String etag = mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html"))
+        .andReturn().getResponse().getHeader("ETag");
+
+    mockMvc.perform(get("/com.foo/bar/1.0.1/javadoc/index.html").header("If-None-Match", etag))
+        .andExpect(status().isNotModified());
+  }
+
+  @Test
+  public void serve_frequently_requested_entries_from_memory() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html"))
+          .andExpect(status().isOk())
+          .andExpect(content().string("<html/>"));
+      mockMvc.perform(get("/com.foo/bar/1.0.0/javadoc/index.html").header("Range", "bytes=1-4"))
+          .andExpect(status().isPartialContent())
+          .andExpect(content().string("html"));
+    }
+  }
+
+  @Test
+  public void count_a_request_for_the_start_page_of_the_documentation_only() throws Exception {
+    mockMvc.perform(get("/com.foo/bar/latest/javadoc/index.html"))
+        .andExpect(status().isOk());
+    mockMvc.perform(get("/com.foo/bar/latest/javadoc/missing.html"))
+        .andExpect(status().isNotFound());
+
+    verify(prefetcher).record(new ArtifactIdentifier("com.foo", "bar", "latest", "javadoc"));
+  }
+}
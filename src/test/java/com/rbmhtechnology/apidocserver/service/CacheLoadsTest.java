@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.rbmhtechnology.apidocserver.exception.NotFoundException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class CacheLoadsTest {
+
+  private final AtomicInteger loads = new AtomicInteger();
+  private final CountDownLatch loading = new CountDownLatch(1);
+  private final CountDownLatch proceed = new CountDownLatch(1);
+
+  private final CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+    @Override
+    public String load(String key) throws Exception {
+      loads.incrementAndGet();
+      loading.countDown();
+      proceed.await();
+      if (key.equals("missing")) {
+        throw new NotFoundException("not found");
+      }
+      return key.toUpperCase();
+    }
+  };
+  private final LoadingCache<String, String> cache = CacheBuilder.newBuilder().build(loader);
+  private final CacheLoads<String, String> cacheLoads = new CacheLoads<>(cache, loader);
+
+  @Test
+  public void load_a_key_once_for_concurrent_requests() throws Exception {
+    CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> get("key"));
+    assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+    CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> get("key"));
+
+    proceed.countDown();
+
+    assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("KEY");
+    assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("KEY");
+    assertThat(cache.getIfPresent("key")).isEqualTo("KEY");
+    assertThat(cacheLoads.get("key")).isEqualTo("KEY");
+    assertThat(loads).hasValue(1);
+  }
+
+  @Test
+  public void fail_like_the_cache_without_caching_the_failure() {
+    proceed.countDown();
+
+    assertThatThrownBy(() -> cacheLoads.get("missing"))
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(NotFoundException.class);
+    assertThatThrownBy(() -> cacheLoads.get("missing"))
+        .isInstanceOf(ExecutionException.class);
+    assertThat(loads).hasValue(2);
+  }
+
+  private String get(String key) {
+    try {
+      return cacheLoads.get(key);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
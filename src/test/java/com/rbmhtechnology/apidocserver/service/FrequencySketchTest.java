@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class FrequencySketchTest {
+
+  @Test
+  public void estimate_frequencies_up_to_fifteen() {
+    FrequencySketch<String> sketch = new FrequencySketch<>(100);
+    for (int i = 0; i < 20; i++) {
+      sketch.increment("popular");
+    }
+    sketch.increment("rare");
+
+    assertThat(sketch.frequency("popular")).isEqualTo(15);
+    assertThat(sketch.frequency("rare")).isEqualTo(1);
+    assertThat(sketch.frequency("unknown")).isZero();
+  }
+
+  @Test
+  public void let_past_popularity_fade() {
+    FrequencySketch<Integer> sketch = new FrequencySketch<>(16);
+    for (int i = 0; i < 8; i++) {
+      sketch.increment(-1);
+    }
+    for (int i = 0; i < 1000; i++) {
+      sketch.increment(i);
+    }
+
+    assertThat(sketch.frequency(-1)).isLessThan(8);
+  }
+}
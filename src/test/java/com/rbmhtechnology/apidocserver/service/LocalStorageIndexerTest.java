@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.rbmhtechnology.apidocserver.service.jar.DedupStatistics;
+import com.rbmhtechnology.apidocserver.service.jar.JarLeases;
+import com.rbmhtechnology.apidocserver.service.jar.JarManifest;
+import com.rbmhtechnology.apidocserver.service.mavenrepo.MavenMetadataCache;
+import com.rbmhtechnology.apidocserver.service.mavenrepo.MavenRepoClient;
+import com.rbmhtechnology.apidocserver.service.mavenrepo.RepositoryCircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.context.ApplicationEventPublisher;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LocalStorageIndexerTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Mock
+  private MavenRepoClient client;
+
+  @Mock
+  private ApplicationEventPublisher eventPublisher;
+
+  private File storage;
+  private RepositoryService repoService;
+
+  @Before
+  public void setup() throws IOException {
+    storage = tmp.newFolder();
+    repoService = new RepositoryService("name", true, 60, storage, false,
+        Collections.singletonList("javadoc"), client,
+        new MavenMetadataCache(client, new SimpleMeterRegistry()), eventPublisher,
+        new DedupStatistics(new SimpleMeterRegistry()),
+        new RepositoryCircuitBreaker(20, 50, 10000, 30),
+        new LocalStorageQuota(0, 95, 85, 60, new SimpleMeterRegistry()),
+        new JarLeases(300, new SimpleMeterRegistry()),
+        new NegativeCache(600, 60, 1000, new SimpleMeterRegistry()),
+        MoreExecutors.directExecutor());
+  }
+
+  private File store(String version, String content) throws IOException {
+    File jar = new File(storage, "foo/bar/" + version + "/javadoc.jar");
+    jar.getParentFile().mkdirs();
+    Files.write(jar.toPath(), content.getBytes(UTF_8));
+    JarManifest.write(jar, null);
+    return jar;
+  }
+
+  private static ArtifactIdentifier javadoc(String version) {
+    return new ArtifactIdentifier("foo", "bar", version, "javadoc");
+  }
+
+  @Test
+  public void restore_verified_jars_without_downloading_them_again() throws Exception {
+    File release = store("1.0.0", "release");
+    File snapshot = store("1.1.0-SNAPSHOT", "snapshot");
+    File damaged = store("1.0.1", "damaged");
+    Files.write(damaged.toPath(), "truncated".getBytes(UTF_8));
+    LocalStorageIndexer indexer = new LocalStorageIndexer(repoService, true, true, 2);
+
+    indexer.start();
+
+    assertThat(indexer.isIndexing()).isFalse();
+    assertThat(indexer.getRestored()).isEqualTo(2);
+    assertThat(indexer.getRejected()).isEqualTo(1);
+    assertThat(repoService.getCachedJarFile(javadoc("1.0.0"))).isEqualTo(release);
+    assertThat(repoService.getCachedJarFile(javadoc("1.1.0-SNAPSHOT"))).isEqualTo(snapshot);
+    assertThat(repoService.getCachedJarFile(javadoc("1.0.1"))).isNull();
+    assertThat(repoService.retrieveJarFile(javadoc("1.0.0"))).isEqualTo(release);
+    verify(client, never()).get(anyString(), any(File.class));
+  }
+
+  @Test
+  public void restore_snapshots_only_for_the_rest_of_their_cache_timeout() throws Exception {
+    File snapshot = new File(storage, "foo/bar/1.1.0-SNAPSHOT/javadoc.jar");
+    snapshot.getParentFile().mkdirs();
+    Files.write(snapshot.toPath(), "snapshot".getBytes(UTF_8));
+    String sha256 = com.google.common.io.Files.asByteSource(snapshot).hash(Hashing.sha256())
+        .toString();
+    long storedAt = System.currentTimeMillis() - 120_000;
+    Files.write(JarManifest.fileOf(snapshot).toPath(),
+        (sha256 + " " + snapshot.length() + " " + storedAt).getBytes(UTF_8));
+
+    new LocalStorageIndexer(repoService, true, true, 1).start();
+
+    assertThat(repoService.getCachedJarFile(javadoc("1.1.0-SNAPSHOT"))).isNull();
+    // kept to be served stale while the repository is unavailable
+    assertThat(snapshot).exists();
+  }
+
+  @Test
+  public void use_stored_release_jars_requested_before_they_have_been_indexed()
+      throws Exception {
+    File release = store("1.0.0", "release");
+
+    assertThat(repoService.retrieveJarFile(javadoc("1.0.0"))).isEqualTo(release);
+    verify(client, never()).get(anyString(), any(File.class));
+  }
+}
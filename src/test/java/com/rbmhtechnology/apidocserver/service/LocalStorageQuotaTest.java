@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rbmhtechnology.apidocserver.service.jar.BlobStore;
+import com.rbmhtechnology.apidocserver.service.jar.EntryIndex;
+import com.rbmhtechnology.apidocserver.service.jar.ExplodedJars;
+import com.rbmhtechnology.apidocserver.service.jar.JarManifest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalStorageQuotaTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final List<ArtifactIdentifier> evicted = new CopyOnWriteArrayList<>();
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private LocalStorageQuota quota;
+
+  @Before
+  public void setup() {
+    quota = new LocalStorageQuota(1000, 90, 50, 3600, 0, meterRegistry);
+    quota.onEviction(evicted::add);
+  }
+
+  @After
+  public void teardown() {
+    quota.close();
+  }
+
+  private ArtifactIdentifier store(String version, int size, int requests) throws IOException {
+    ArtifactIdentifier artifactIdentifier = new ArtifactIdentifier("foo", "bar", version,
+        "javadoc");
+    for (int i = 0; i < requests; i++) {
+      quota.recordAccess(artifactIdentifier);
+    }
+    File jar = tmp.newFile();
+    Files.write(jar.toPath(), new byte[size]);
+    quota.add(artifactIdentifier, jar);
+    return artifactIdentifier;
+  }
+
+  @Test
+  public void evict_the_jars_requested_least_per_byte_down_to_the_low_watermark()
+      throws Exception {
+    ArtifactIdentifier popular = store("1.0.0", 300, 5);
+    ArtifactIdentifier unused = store("1.0.1", 300, 0);
+    ArtifactIdentifier large = store("1.0.2", 400, 1);
+
+    quota.sweep();
+
+    assertThat(evicted).containsExactly(unused, large);
+    assertThat(evicted).doesNotContain(popular);
+    assertThat(quota.getUsage()).isEqualTo(300);
+    assertThat(meterRegistry.get("apidoc.localstorage.group.usage").tag("group", "foo").gauge()
+        .value()).isEqualTo(300);
+  }
+
+  @Test
+  public void do_not_admit_jars_requested_less_often_than_the_ones_they_would_replace()
+      throws Exception {
+    store("1.0.0", 500, 5);
+    store("1.0.1", 400, 5);
+    ArtifactIdentifier oneOff = store("1.0.2", 300, 1);
+
+    quota.sweep();
+
+    assertThat(evicted).containsExactly(oneOff);
+    assertThat(quota.getUsage()).isEqualTo(900);
+  }
+
+  @Test
+  public void count_the_files_derived_from_a_jar() throws Exception {
+    File jar = new File(tmp.newFolder("1.0.0"), "javadoc.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      out.putNextEntry(new JarEntry("index.html"));
+      out.write(new byte[1000]);
+      out.closeEntry();
+    }
+    EntryIndex index = EntryIndex.write(jar);
+    JarManifest.write(jar, null);
+    long stored = jar.length() + EntryIndex.fileOf(jar).length()
+        + JarManifest.fileOf(jar).length();
+    assertThat(LocalStorageQuota.sizeOf(jar)).isEqualTo(stored);
+
+    ExplodedJars.explode(jar, index, new BlobStore(tmp.newFolder(".blobs")));
+
+    assertThat(LocalStorageQuota.sizeOf(jar)).isEqualTo(stored + 1000);
+  }
+}
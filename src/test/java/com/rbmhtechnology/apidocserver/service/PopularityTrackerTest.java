@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PopularityTrackerTest {
+
+  private static final ArtifactIdentifier OLD = new ArtifactIdentifier("foo", "bar", "1.0.0",
+      "javadoc");
+  private static final ArtifactIdentifier NEW = new ArtifactIdentifier("foo", "bar", "latest",
+      "javadoc");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final AtomicLong now = new AtomicLong(1_000_000);
+  private final PopularityTracker tracker = new PopularityTracker(3600, now::get);
+
+  @Test
+  public void rank_recent_requests_above_older_ones() {
+    for (int i = 0; i < 10; i++) {
+      tracker.record(OLD);
+    }
+    now.addAndGet(TimeUnit.HOURS.toMillis(4));
+    for (int i = 0; i < 2; i++) {
+      tracker.record(NEW);
+    }
+
+    assertThat(tracker.score(OLD)).isCloseTo(10 / 16.0, offset(1e-9));
+    assertThat(tracker.top(2)).containsExactly(NEW, OLD);
+    assertThat(tracker.top(1)).containsExactly(NEW);
+  }
+
+  @Test
+  public void restore_the_ranking_after_a_restart() throws Exception {
+    tracker.record(OLD);
+    tracker.record(NEW);
+    tracker.record(NEW);
+    File file = new File(tmp.getRoot(), ".popularity");
+    tracker.save(file, 1);
+
+    PopularityTracker restarted = new PopularityTracker(3600, now::get);
+    restarted.load(file);
+
+    assertThat(restarted.top(10)).containsExactly(NEW);
+    assertThat(restarted.score(NEW)).isEqualTo(2.0);
+  }
+}
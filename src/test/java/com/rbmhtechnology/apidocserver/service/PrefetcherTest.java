@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rbmhtechnology.apidocserver.service.mavenrepo.UpstreamLimiter;
+import com.rbmhtechnology.apidocserver.service.mavenrepo.UpstreamLimiter.Permit;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.File;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PrefetcherTest {
+
+  private static final ArtifactIdentifier POPULAR = new ArtifactIdentifier("foo", "bar", "latest",
+      "javadoc");
+  private static final ArtifactIdentifier WARM = new ArtifactIdentifier("foo", "baz", "1.0.0",
+      "javadoc");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Mock
+  private RepositoryService repositoryService;
+
+  private final UpstreamLimiter limiter = new UpstreamLimiter(2, 2, 10, 5000, 1000,
+      new SimpleMeterRegistry());
+  private final PopularityTracker tracker = new PopularityTracker(3600);
+  private Prefetcher prefetcher;
+
+  @Before
+  public void setup() {
+    when(repositoryService.getLocalJarStorage()).thenReturn(tmp.getRoot());
+    prefetcher = new Prefetcher(repositoryService, tracker, limiter, true, 10, 3600, 1,
+        " foo:baz:1.0.0:javadoc ");
+  }
+
+  @After
+  public void teardown() {
+    prefetcher.close();
+  }
+
+  @Test
+  public void prefetch_the_warm_list_and_popular_artifacts() throws Exception {
+    prefetcher.record(POPULAR);
+
+    prefetcher.prefetch();
+
+    verify(repositoryService).prefetch(WARM);
+    verify(repositoryService).prefetch(POPULAR);
+    assertThat(prefetcher.getPrefetched()).isEqualTo(2);
+    assertThat(new File(tmp.getRoot(), Prefetcher.POPULARITY_FILE)).exists();
+  }
+
+  @Test
+  public void not_prefetch_while_the_repository_is_busy() throws Exception {
+    try (Permit permit = limiter.acquire("request")) {
+      prefetcher.prefetch();
+    }
+
+    verify(repositoryService, never()).prefetch(any(ArtifactIdentifier.class));
+  }
+}
@@ -1,15 +1,37 @@
 package com.rbmhtechnology.apidocserver.service;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.util.concurrent.MoreExecutors;
+import com.rbmhtechnology.apidocserver.exception.DownloadException;
+import com.rbmhtechnology.apidocserver.exception.NotFoundException;
 import com.rbmhtechnology.apidocserver.exception.RepositoryException;
+import com.rbmhtechnology.apidocserver.service.jar.DedupStatistics;
+import com.rbmhtechnology.apidocserver.service.jar.JarLeases;
+import com.rbmhtechnology.apidocserver.service.mavenrepo.MavenMetadataCache;
 import com.rbmhtechnology.apidocserver.service.mavenrepo.MavenRepoClient;
+import com.rbmhtechnology.apidocserver.service.mavenrepo.RepositoryCircuitBreaker;
+import com.rbmhtechnology.apidocserver.service.mavenrepo.RepositoryResource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.vavr.collection.HashMap;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -17,6 +39,7 @@ import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.context.ApplicationEventPublisher;
 
 @RunWith(MockitoJUnitRunner.class)
 public class RepositoryServiceTest {
@@ -29,11 +52,25 @@ public class RepositoryServiceTest {
   @Mock
   private MavenRepoClient client;
 
+  @Mock
+  private ApplicationEventPublisher eventPublisher;
+
+  private final RepositoryCircuitBreaker circuitBreaker = new RepositoryCircuitBreaker(20, 50,
+      10000, 30);
+  private final LocalStorageQuota quota = new LocalStorageQuota(0, 95, 85, 60,
+      new SimpleMeterRegistry());
+  private final JarLeases leases = new JarLeases(300, new SimpleMeterRegistry());
+  private final NegativeCache notFound = new NegativeCache(600, 60, 1000,
+      new SimpleMeterRegistry());
+
   @Before
   public void setup() throws IOException {
     final List<String> expectedClassifier = Arrays.asList("javadoc", "groovydoc");
-    this.repoService = new RepositoryService("name", true, 0, tmp.newFolder(), expectedClassifier,
-        client);
+    this.repoService = new RepositoryService("name", true, 0, tmp.newFolder(), false,
+        expectedClassifier, client, new MavenMetadataCache(client, new SimpleMeterRegistry()),
+        eventPublisher,
+        new DedupStatistics(new SimpleMeterRegistry()), circuitBreaker, quota, leases, notFound,
+        MoreExecutors.directExecutor());
   }
 
   @Test
@@ -48,4 +85,215 @@ public class RepositoryServiceTest {
 
     assertThat(classifier).containsExactlyInAnyOrder("javadoc");
   }
-}
\ No newline at end of file
+
+  @Test
+  public void resolve_only_concrete_versions_without_repository_access() {
+    assertThat(repoService.getResolvedArtifactIdentifier("foo", "bar", "1.0.0", "javadoc"))
+        .isEqualTo(new ArtifactIdentifier("foo", "bar", "1.0.0", "javadoc"));
+    assertThat(repoService.getResolvedArtifactIdentifier("foo", "bar", "latest", "javadoc"))
+        .isNull();
+  }
+
+  @Test
+  public void one_metadata_download_serves_latest_release_and_versions() throws Exception {
+    RepositoryService cachingService = new RepositoryService("name", true, 60, tmp.newFolder(),
+        false, Arrays.asList("javadoc"), client,
+        new MavenMetadataCache(client, new SimpleMeterRegistry()), eventPublisher,
+        new DedupStatistics(new SimpleMeterRegistry()), circuitBreaker, quota, leases, notFound,
+        MoreExecutors.directExecutor());
+    when(client.getIfModified("foo/bar/maven-metadata.xml", null, null))
+        .thenReturn(new RepositoryResource((""
+            + "<metadata><versioning><latest>1.1.0-SNAPSHOT</latest><release>1.0.0</release>"
+            + "<versions><version>1.0.0</version><version>1.1.0-SNAPSHOT</version></versions>"
+            + "</versioning></metadata>").getBytes(UTF_8), null, null));
+
+    assertThat(cachingService.resolveArtifactIdentfier("foo", "bar", "latest", "javadoc")
+        .getVersion()).isEqualTo("1.1.0-SNAPSHOT");
+    assertThat(cachingService.resolveArtifactIdentfier("foo", "bar", "release", "javadoc")
+        .getVersion()).isEqualTo("1.0.0");
+    assertThat(cachingService.getAvailableVersions("foo", "bar"))
+        .containsExactly("1.1.0-SNAPSHOT", "1.0.0");
+    assertThat(cachingService.getResolvedArtifactIdentifier("foo", "bar", "release", "javadoc"))
+        .isEqualTo(new ArtifactIdentifier("foo", "bar", "1.0.0", "javadoc"));
+    verify(client, times(1)).getIfModified("foo/bar/maven-metadata.xml", null, null);
+  }
+
+  @Test
+  public void refresh_latest_version_in_the_background_while_serving_the_previous_one()
+      throws Exception {
+    List<Runnable> background = new ArrayList<>();
+    RepositoryService refreshingService = new RepositoryService("name", true, 1, tmp.newFolder(),
+        false, Arrays.asList("javadoc"), client,
+        new MavenMetadataCache(client, new SimpleMeterRegistry()), eventPublisher,
+        new DedupStatistics(new SimpleMeterRegistry()), circuitBreaker, quota, leases, notFound,
+        background::add);
+    when(client.getIfModified("foo/bar/maven-metadata.xml", null, null))
+        .thenReturn(new RepositoryResource(
+            "<metadata><versioning><latest>1.0.0</latest></versioning></metadata>".getBytes(UTF_8),
+            null, null))
+        .thenReturn(new RepositoryResource(
+            "<metadata><versioning><latest>1.1.0</latest></versioning></metadata>".getBytes(UTF_8),
+            null, null));
+
+    assertThat(refreshingService.resolveArtifactIdentfier("foo", "bar", "latest", "javadoc")
+        .getVersion()).isEqualTo("1.0.0");
+    Thread.sleep(1100);
+    assertThat(refreshingService.resolveArtifactIdentfier("foo", "bar", "latest", "javadoc")
+        .getVersion()).isEqualTo("1.0.0");
+    assertThat(background).hasSize(1);
+
+    background.get(0).run();
+    assertThat(refreshingService.resolveArtifactIdentfier("foo", "bar", "latest", "javadoc")
+        .getVersion()).isEqualTo("1.1.0");
+  }
+
+  @Test
+  public void download_a_refreshed_snapshot_only_if_a_new_build_has_been_published()
+      throws Exception {
+    List<Runnable> background = new ArrayList<>();
+    RepositoryService refreshingService = new RepositoryService("name", true, 1, tmp.newFolder(),
+        false, Arrays.asList("javadoc"), client,
+        new MavenMetadataCache(client, new SimpleMeterRegistry()), eventPublisher,
+        new DedupStatistics(new SimpleMeterRegistry()), circuitBreaker, quota, leases, notFound,
+        background::add);
+    when(client.getIfModified("foo/bar/1.0.0-SNAPSHOT/maven-metadata.xml", null, null))
+        .thenReturn(snapshotMetadata("1.0.0-20190101.120000-1"))
+        .thenReturn(snapshotMetadata("1.0.0-20190101.120000-1"))
+        .thenReturn(snapshotMetadata("1.0.0-20190102.120000-2"));
+    doAnswer(invocation -> writeJar(invocation.getArgument(1))).when(client)
+        .get(anyString(), any(File.class));
+    ArtifactIdentifier snapshot = new ArtifactIdentifier("foo", "bar", "1.0.0-SNAPSHOT",
+        "javadoc");
+
+    File jar = refreshingService.retrieveJarFile(snapshot);
+    Thread.sleep(1100);
+    assertThat(refreshingService.getCachedJarFile(snapshot)).isEqualTo(jar);
+    background.get(0).run();
+
+    verify(client, times(1)).get(anyString(), any(File.class));
+    verify(eventPublisher, never()).publishEvent(any(ArtifactEvictedEvent.class));
+
+    Thread.sleep(1100);
+    assertThat(refreshingService.getCachedJarFile(snapshot)).isEqualTo(jar);
+    background.get(1).run();
+
+    verify(client).get("foo/bar/1.0.0-SNAPSHOT/bar-1.0.0-20190102.120000-2-javadoc.jar", jar);
+    verify(eventPublisher).publishEvent(any(ArtifactEvictedEvent.class));
+  }
+
+  private static RepositoryResource snapshotMetadata(String build) {
+    return new RepositoryResource(("<metadata><versioning><snapshotVersions>"
+        + "<snapshotVersion><classifier>javadoc</classifier><extension>jar</extension>"
+        + "<value>" + build + "</value></snapshotVersion>"
+        + "</snapshotVersions></versioning></metadata>").getBytes(UTF_8), null, null);
+  }
+
+  private static Void writeJar(File file) throws IOException {
+    file.getParentFile().mkdirs();
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+      out.putNextEntry(new JarEntry("index.html"));
+      out.write("<html/>".getBytes(UTF_8));
+      out.closeEntry();
+    }
+    return null;
+  }
+
+  @Test
+  public void ask_the_repository_only_once_for_missing_artifacts() throws Exception {
+    doThrow(new NotFoundException("No jar")).when(client).get(anyString(), any(File.class));
+    when(client.getIfModified("foo/missing/maven-metadata.xml", null, null))
+        .thenThrow(new NotFoundException("No metadata"));
+    ArtifactIdentifier release = new ArtifactIdentifier("foo", "bar", "9.9.9", "javadoc");
+
+    for (int i = 0; i < 2; i++) {
+      assertThatThrownBy(() -> repoService.retrieveJarFile(release))
+          .isInstanceOf(NotFoundException.class)
+          .satisfies(e -> assertThat(e.getStackTrace()).isEmpty());
+      assertThatThrownBy(() -> repoService.resolveArtifactIdentfier("foo", "missing", "latest",
+          "javadoc")).isInstanceOf(NotFoundException.class);
+    }
+
+    verify(client, times(1)).get(anyString(), any(File.class));
+    verify(client, times(1)).getIfModified("foo/missing/maven-metadata.xml", null, null);
+  }
+
+  @Test
+  public void serve_latest_version_stale_while_the_repository_is_unavailable() throws Exception {
+    when(client.getIfModified("foo/bar/maven-metadata.xml", null, null))
+        .thenReturn(new RepositoryResource(
+            "<metadata><versioning><latest>1.1.0</latest></versioning></metadata>".getBytes(UTF_8),
+            null, null))
+        .thenThrow(new DownloadException("Transfer failed"));
+    ArtifactIdentifier latest = new ArtifactIdentifier("foo", "bar", "1.1.0", "javadoc");
+
+    assertThat(repoService.resolveArtifactIdentfier("foo", "bar", "latest", "javadoc"))
+        .isEqualTo(latest);
+    assertThat(repoService.getStaleAgeSeconds("latest", latest)).isEqualTo(-1);
+    assertThat(repoService.resolveArtifactIdentfier("foo", "bar", "latest", "javadoc"))
+        .isEqualTo(latest);
+    assertThat(repoService.getStaleAgeSeconds("latest", latest)).isGreaterThanOrEqualTo(0);
+  }
+
+  @Test
+  public void do_not_serve_versions_stale_which_are_not_found_anymore() throws Exception {
+    when(client.getIfModified("foo/bar/maven-metadata.xml", null, null))
+        .thenReturn(new RepositoryResource(
+            "<metadata><versioning><latest>1.1.0</latest></versioning></metadata>".getBytes(UTF_8),
+            null, null))
+        .thenThrow(new NotFoundException("No jar"));
+
+    repoService.resolveArtifactIdentfier("foo", "bar", "latest", "javadoc");
+
+    assertThatThrownBy(() -> repoService.resolveArtifactIdentfier("foo", "bar", "latest",
+        "javadoc")).isInstanceOf(NotFoundException.class);
+  }
+
+  @Test
+  public void classifiers_of_a_version_are_cached() throws RepositoryException {
+    when(client.exists(any())).thenReturn(HashMap.of(
+        "javadoc", true,
+        "groovydoc", false
+    ));
+
+    repoService.getAvailableClassifier("foo", "bar", "1.0.0");
+    final List<String> classifier = repoService.getAvailableClassifier("foo", "bar", "1.0.0");
+
+    assertThat(classifier).containsExactly("javadoc");
+    verify(client, times(1)).exists(any());
+  }
+
+  @Test
+  public void remember_versions_without_documentation_as_not_found() throws Exception {
+    when(client.exists(any())).thenReturn(HashMap.of(
+        "javadoc", false,
+        "groovydoc", false
+    ));
+
+    for (int i = 0; i < 2; i++) {
+      assertThatThrownBy(() -> repoService.getAvailableClassifier("foo", "bar", "9.9.9"))
+          .isInstanceOf(NotFoundException.class);
+    }
+
+    verify(client, times(1)).exists(any());
+  }
+
+  @Test
+  public void classifiers_of_snapshots_are_read_from_metadata() throws RepositoryException {
+    when(client.getIfModified("foo/bar/1.0.0-SNAPSHOT/maven-metadata.xml", null, null))
+        .thenReturn(new RepositoryResource((""
+            + "<metadata><versioning><snapshotVersions>"
+            + "<snapshotVersion><classifier>groovydoc</classifier><extension>jar</extension>"
+            + "<value>1.0.0-20190101.120000-1</value></snapshotVersion>"
+            + "<snapshotVersion><classifier>sources</classifier><extension>jar</extension>"
+            + "<value>1.0.0-20190101.120000-1</value></snapshotVersion>"
+            + "<snapshotVersion><extension>pom</extension>"
+            + "<value>1.0.0-20190101.120000-1</value></snapshotVersion>"
+            + "</snapshotVersions></versioning></metadata>").getBytes(UTF_8), null, null));
+
+    final List<String> classifier = repoService
+        .getAvailableClassifier("foo", "bar", "1.0.0-SNAPSHOT");
+
+    assertThat(classifier).containsExactly("groovydoc");
+    verify(client, never()).exists(any());
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+
+  @Test
+  public void run_tasks_on_named_threads_if_supported() throws Exception {
+    assumeTrue(VirtualThreads.isSupported());
+    ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-");
+    try {
+      String name = executor.submit(() -> Thread.currentThread().getName())
+          .get(5, TimeUnit.SECONDS);
+      assertThat(name).startsWith("test-");
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void refuse_to_create_executor_if_not_supported() {
+    assumeFalse(VirtualThreads.isSupported());
+    assertThatThrownBy(() -> VirtualThreads.newThreadPerTaskExecutor("test-"))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("Java 21");
+  }
+}
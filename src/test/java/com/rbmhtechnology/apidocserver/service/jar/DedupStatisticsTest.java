@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DedupStatisticsTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void identical_content_is_counted_once() throws IOException {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    DedupStatistics statistics = new DedupStatistics(registry);
+
+    statistics.record(index("1.0.0", "0123456789", "first"));
+    statistics.record(index("1.0.1", "0123456789", "other"));
+
+    assertThat(registry.get("apidoc.dedup.total").gauge().value()).isEqualTo(30);
+    assertThat(registry.get("apidoc.dedup.unique").gauge().value()).isEqualTo(20);
+    assertThat(registry.get("apidoc.dedup.ratio").gauge().value()).isEqualTo(1.5);
+  }
+
+  private EntryIndex index(String version, String stylesheet, String page) throws IOException {
+    File jar = new File(tmp.newFolder(version), "javadoc.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      out.putNextEntry(new JarEntry("stylesheet.css"));
+      out.write(stylesheet.getBytes(UTF_8));
+      out.putNextEntry(new JarEntry("index.html"));
+      out.write(page.getBytes(UTF_8));
+      out.closeEntry();
+    }
+    return EntryIndex.write(jar);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EntryIndexTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File jar;
+  private EntryIndex index;
+
+  @Before
+  public void setup() throws IOException {
+    jar = tmp.newFile("javadoc.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      write(out, "index.html", "<html/>");
+      write(out, "com/", null);
+      write(out, "com/foo/", null);
+      write(out, "com/foo/index.htm", "foo");
+      write(out, "com/foo/Bär.html", "bär");
+      write(out, "com/empty/", null);
+      write(out, "stylesheet.css", "body {}");
+    }
+    index = EntryIndex.write(jar);
+  }
+
+  @Test
+  public void entries_are_found_by_exact_name() {
+    assertThat(index.name(index.find("com/foo/Bär.html"))).isEqualTo("com/foo/Bär.html");
+    assertThat(index.find("com/foo/Bar.html")).isEqualTo(-1);
+    assertThat(index.find("missing")).isEqualTo(-1);
+  }
+
+  @Test
+  public void directories_resolve_to_their_index_file() {
+    assertThat(index.name(index.resolve("com/foo/"))).isEqualTo("com/foo/index.htm");
+    assertThat(index.name(index.resolve("com/foo"))).isEqualTo("com/foo/index.htm");
+    assertThat(index.resolve("com/empty/")).isEqualTo(-1);
+    assertThat(index.resolve("com/")).isEqualTo(-1);
+  }
+
+  @Test
+  public void entry_attributes_match_the_jar() throws IOException {
+    try (JarFile jarFile = new JarFile(jar)) {
+      JarEntry expected = jarFile.getJarEntry("stylesheet.css");
+      int entry = index.resolve("stylesheet.css");
+
+      assertThat(index.size(entry)).isEqualTo(expected.getSize());
+      assertThat(index.compressedSize(entry)).isEqualTo(expected.getCompressedSize());
+      assertThat(index.crc(entry)).isEqualTo(expected.getCrc());
+      assertThat(index.method(entry)).isEqualTo(expected.getMethod());
+      assertThat(index.time(entry)).isEqualTo(expected.getTime());
+      assertThat(index.mimeType(entry)).isEqualTo("text/css");
+      assertThat(index.contentHash(entry))
+          .isEqualTo(Hashing.sha256().hashString("body {}", UTF_8));
+    }
+  }
+
+  @Test
+  public void persisted_index_is_reused() throws IOException {
+    assertThat(EntryIndex.fileOf(jar)).isFile();
+    // an empty channel cannot be indexed, so the index must be read from disk
+    try (FileChannel empty = FileChannel.open(tmp.newFile().toPath(), READ)) {
+      EntryIndex loaded = EntryIndex.load(jar, empty, jar.length(), jar.lastModified());
+      assertThat(loaded.size()).isEqualTo(index.size());
+      assertThat(loaded.name(loaded.resolve("com/foo"))).isEqualTo("com/foo/index.htm");
+      assertThat(loaded.dataOffset(loaded.find("index.html")))
+          .isEqualTo(index.dataOffset(index.find("index.html")));
+    }
+  }
+
+  @Test
+  public void outdated_index_is_rebuilt() throws IOException {
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      write(out, "other.html", "<html/>");
+    }
+    try (FileChannel channel = FileChannel.open(jar.toPath(), READ)) {
+      EntryIndex loaded = EntryIndex.load(jar, channel, jar.length(), jar.lastModified() + 1);
+      assertThat(loaded.find("other.html")).isGreaterThanOrEqualTo(0);
+      assertThat(loaded.find("index.html")).isEqualTo(-1);
+    }
+  }
+
+  private static void write(JarOutputStream out, String name, String content)
+      throws IOException {
+    out.putNextEntry(new JarEntry(name));
+    if (content != null) {
+      out.write(content.getBytes(UTF_8));
+    }
+    out.closeEntry();
+  }
+}
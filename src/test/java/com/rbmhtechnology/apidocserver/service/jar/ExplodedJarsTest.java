@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExplodedJarsTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private BlobStore blobs;
+
+  @Before
+  public void setup() throws IOException {
+    blobs = new BlobStore(tmp.newFolder(".blobs"));
+  }
+
+  @Test
+  public void directory_is_next_to_jar_and_named_after_the_build() {
+    File jar = new File("/storage/com.foo/bar/1.0.0/javadoc.jar");
+    assertThat(ExplodedJars.directoryOf(jar, 0x1234, 0xff))
+        .isEqualTo(new File("/storage/com.foo/bar/1.0.0/javadoc.1234-ff"));
+  }
+
+  @Test
+  public void explode_extracts_all_entries() throws IOException {
+    File jar = writeJar(newJar("1.0.0"), "index.html", "<html/>",
+        "com/foo/Bar.html", "<bar/>");
+
+    File directory = explode(jar);
+
+    assertThat(new File(directory, "index.html")).hasContent("<html/>");
+    assertThat(new File(directory, "com/foo/Bar.html")).hasContent("<bar/>");
+    assertThat(jar.getParentFile().list())
+        .containsExactlyInAnyOrder("javadoc.jar", "javadoc.jar.idx", directory.getName());
+  }
+
+  @Test
+  public void explode_keeps_only_the_previous_build_for_its_readers() throws IOException {
+    File jar = newJar("1.0.0-SNAPSHOT");
+    File first = explode(build(writeJar(jar, "first.html", "first"), 1000));
+    Path firstBlob = blobs.pathOf(EntryIndex.readPersisted(jar).contentHash(0));
+    File second = explode(build(writeJar(jar, "second.html", "second"), 2000));
+
+    File third = explode(build(writeJar(jar, "third.html", "third"), 3000));
+
+    assertThat(third.list()).containsExactly("third.html");
+    assertThat(second.list()).containsExactly("second.html");
+    assertThat(first).doesNotExist();
+    assertThat(jar.getParentFile().list()).containsExactlyInAnyOrder("javadoc.jar",
+        "javadoc.jar.idx", second.getName(), third.getName());
+    assertThat(firstBlob).doesNotExist();
+
+    ExplodedJars.delete(jar, blobs);
+    assertThat(jar.getParentFile().list())
+        .containsExactlyInAnyOrder("javadoc.jar", "javadoc.jar.idx");
+  }
+
+  @Test
+  public void explode_rejects_entries_outside_of_the_directory() throws IOException {
+    File jar = writeJar(newJar("1.0.0"), "../evil.html", "evil");
+
+    assertThatThrownBy(() -> explode(jar)).isInstanceOf(IOException.class);
+    assertThat(jar.getParentFile().list())
+        .containsExactlyInAnyOrder("javadoc.jar", "javadoc.jar.idx");
+  }
+
+  @Test
+  public void identical_entries_of_different_jars_share_their_content() throws IOException {
+    File first = explode(writeJar(newJar("1.0.0"), "stylesheet.css", "body {}"));
+    File second = explode(writeJar(newJar("1.0.1"), "stylesheet.css", "body {}"));
+
+    assertThat(Files.isSameFile(new File(first, "stylesheet.css").toPath(),
+        new File(second, "stylesheet.css").toPath())).isTrue();
+  }
+
+  @Test
+  public void blobs_are_removed_with_the_last_extraction_linking_them() throws IOException {
+    File firstJar = writeJar(newJar("1.0.0"), "stylesheet.css", "body {}");
+    File secondJar = writeJar(newJar("1.0.1"), "stylesheet.css", "body {}");
+    explode(firstJar);
+    explode(secondJar);
+    Path blob = blobs.pathOf(EntryIndex.readPersisted(firstJar).contentHash(0));
+
+    ExplodedJars.delete(firstJar, blobs);
+    assertThat(blob).exists();
+
+    ExplodedJars.delete(secondJar, blobs);
+    assertThat(blob).doesNotExist();
+  }
+
+  private File newJar(String version) throws IOException {
+    return new File(tmp.newFolder(version), "javadoc.jar");
+  }
+
+  private static File build(File jar, long lastModified) {
+    assertThat(jar.setLastModified(lastModified)).isTrue();
+    return jar;
+  }
+
+  private File explode(File jar) throws IOException {
+    return ExplodedJars.explode(jar, EntryIndex.write(jar), blobs);
+  }
+
+  private static File writeJar(File file, String... namesAndContents) throws IOException {
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+      for (int i = 0; i < namesAndContents.length; i += 2) {
+        out.putNextEntry(new JarEntry(namesAndContents[i]));
+        out.write(namesAndContents[i + 1].getBytes(UTF_8));
+        out.closeEntry();
+      }
+    }
+    return file;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.rbmhtechnology.apidocserver.service.jar.HotEntryCache.HotEntry;
+import com.rbmhtechnology.apidocserver.service.jar.HotEntryCache.Key;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HotEntryCacheTest {
+
+  private HotEntryCache cache;
+
+  @Before
+  public void setup() {
+    cache = new HotEntryCache(1024, 512, 2);
+  }
+
+  @Test
+  public void entry_is_admitted_after_repeated_requests() {
+    Key key = key("<html/>", false);
+
+    assertThat(cache.get(key)).isNull();
+    assertThat(cache.shouldAdmit(key, 7)).isFalse();
+    assertThat(cache.get(key)).isNull();
+    assertThat(cache.shouldAdmit(key, 7)).isTrue();
+  }
+
+  @Test
+  public void oversized_entry_is_never_admitted() {
+    Key key = key("<html/>", false);
+    cache.get(key);
+    cache.get(key);
+
+    assertThat(cache.shouldAdmit(key, 513)).isFalse();
+  }
+
+  @Test
+  public void cached_entry_is_written_unchanged() throws IOException {
+    cache.put(key("<html/>", false), entry("<html/>"));
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    cache.get(key("<html/>", false)).writeTo(output);
+    assertThat(new String(output.toByteArray(), UTF_8)).isEqualTo("<html/>");
+
+    output.reset();
+    cache.get(key("<html/>", false)).rangeReader().copy(1, 4, output);
+    assertThat(new String(output.toByteArray(), UTF_8)).isEqualTo("html");
+  }
+
+  @Test
+  public void representations_of_the_same_content_are_cached_separately() {
+    cache.put(key("<html/>", false), entry("<html/>"));
+
+    assertThat(cache.get(key("<html/>", true))).isNull();
+  }
+
+  @Test
+  public void byte_budget_is_not_exceeded() {
+    for (int i = 0; i < 10; i++) {
+      cache.put(key("entry" + i, false), entry(new String(new char[300])));
+    }
+
+    int cached = 0;
+    for (int i = 0; i < 10; i++) {
+      if (cache.get(key("entry" + i, false)) != null) {
+        cached++;
+      }
+    }
+    assertThat(cached * 300).isLessThanOrEqualTo(1024);
+  }
+
+  @Test
+  public void least_frequently_requested_entry_makes_room() {
+    Key popular = requested("popular", 5);
+    Key rare = requested("rare", 1);
+    cache.put(popular, entry(new String(new char[500])));
+    cache.put(rare, entry(new String(new char[500])));
+
+    Key candidate = requested("candidate", 2);
+    cache.put(candidate, entry(new String(new char[500])));
+
+    assertThat(cache.get(rare)).isNull();
+    assertThat(cache.get(popular)).isNotNull();
+    assertThat(cache.get(candidate)).isNotNull();
+  }
+
+  @Test
+  public void entries_are_not_displaced_by_less_frequently_requested_ones() {
+    Key first = requested("first", 5);
+    Key second = requested("second", 5);
+    cache.put(first, entry(new String(new char[500])));
+    cache.put(second, entry(new String(new char[500])));
+
+    Key candidate = requested("candidate", 2);
+    cache.put(candidate, entry(new String(new char[500])));
+
+    assertThat(cache.get(candidate)).isNull();
+    assertThat(cache.get(first)).isNotNull();
+    assertThat(cache.get(second)).isNotNull();
+  }
+
+  @Test
+  public void disabled_cache_admits_nothing() {
+    cache = new HotEntryCache(0, 512, 1);
+    Key key = key("<html/>", false);
+    cache.get(key);
+
+    assertThat(cache.shouldAdmit(key, 7)).isFalse();
+  }
+
+  private Key requested(String content, int times) {
+    Key key = key(content, false);
+    for (int i = 0; i < times; i++) {
+      cache.get(key);
+    }
+    return key;
+  }
+
+  private static Key key(String content, boolean gzip) {
+    HashCode hash = Hashing.sha256().hashString(content, UTF_8);
+    return new Key(hash, gzip);
+  }
+
+  private static HotEntry entry(String content) {
+    byte[] bytes = content.getBytes(UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes);
+    buffer.flip();
+    return new HotEntry(buffer);
+  }
+}
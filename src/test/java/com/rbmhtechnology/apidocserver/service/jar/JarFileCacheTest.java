@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JarFileCacheTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private JarFileCache cache;
+  private File jar;
+
+  @Before
+  public void setup() throws IOException {
+    cache = new JarFileCache(2, 60, 1024 * 1024);
+    jar = writeJar(tmp.newFile("javadoc.jar"), "index.html", "<html/>");
+  }
+
+  @Test
+  public void acquiring_the_same_jar_twice_shares_the_handle() throws IOException {
+    try (JarHandle first = cache.acquire(jar); JarHandle second = cache.acquire(jar)) {
+      assertThat(first).isSameAs(second);
+    }
+  }
+
+  @Test
+  public void evicted_handle_stays_open_until_released() throws IOException {
+    JarHandle handle = cache.acquire(jar);
+    cache.invalidate(jar);
+
+    assertThat(handle.isOpen()).isTrue();
+    assertThat(read(handle, "index.html")).isEqualTo("<html/>");
+
+    handle.close();
+    assertThat(handle.isOpen()).isFalse();
+  }
+
+  @Test
+  public void least_recently_used_handle_is_closed_when_cache_is_full() throws IOException {
+    JarHandle first = cache.acquire(jar);
+    first.close();
+    try (JarHandle ignored = cache.acquire(writeJar(tmp.newFile("a.jar"), "a", "a"));
+        JarHandle ignored2 = cache.acquire(writeJar(tmp.newFile("b.jar"), "b", "b"))) {
+      assertThat(first.isOpen()).isFalse();
+    }
+  }
+
+  @Test
+  public void replaced_jar_is_reopened() throws IOException {
+    JarHandle first = cache.acquire(jar);
+    first.close();
+
+    writeJar(jar, "index.html", "<html>new</html>");
+    jar.setLastModified(jar.lastModified() + 2000);
+
+    try (JarHandle second = cache.acquire(jar)) {
+      assertThat(second).isNotSameAs(first);
+      assertThat(first.isOpen()).isFalse();
+      assertThat(read(second, "index.html")).isEqualTo("<html>new</html>");
+    }
+  }
+
+  private static String read(JarHandle handle, String name) throws IOException {
+    try (InputStream input = handle.getInputStream(handle.index().find(name))) {
+      return new String(ByteStreams.toByteArray(input), UTF_8);
+    }
+  }
+
+  private static File writeJar(File file, String name, String content) throws IOException {
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+      out.putNextEntry(new JarEntry(name));
+      out.write(content.getBytes(UTF_8));
+      out.closeEntry();
+    }
+    return file;
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JarHandleTest {
+
+  private static final String CONTENT = Strings.repeat("<p>documentation</p>", 1000);
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private JarHandle handle;
+
+  @Before
+  public void setup() throws IOException {
+    File jar = tmp.newFile("javadoc.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      out.putNextEntry(new JarEntry("first.html"));
+      out.write("first".getBytes(UTF_8));
+      out.closeEntry();
+      out.putNextEntry(new JarEntry("com/foo/Bar.html"));
+      out.write(CONTENT.getBytes(UTF_8));
+      out.closeEntry();
+      out.putNextEntry(stored("stored.txt", "0123456789"));
+      out.write("0123456789".getBytes(UTF_8));
+      out.closeEntry();
+    }
+    handle = new JarHandle(jar, new Semaphore(1));
+  }
+
+  @Test
+  public void deflated_entry_is_written_as_gzip() throws IOException {
+    int entry = handle.index().find("com/foo/Bar.html");
+    assertThat(handle.isDeflated(entry)).isTrue();
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    handle.writeGzip(entry, output);
+
+    assertThat((long) output.size()).isEqualTo(handle.gzipLength(entry));
+    assertThat(output.size()).isLessThan(CONTENT.length());
+    try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+      assertThat(new String(ByteStreams.toByteArray(input), UTF_8)).isEqualTo(CONTENT);
+    }
+  }
+
+  @Test
+  public void ranges_of_stored_entry_are_read_directly() throws IOException {
+    try (RangeReader reader = handle.rangeReader(handle.index().find("stored.txt"))) {
+      assertThat(read(reader, 7, 3)).isEqualTo("789");
+      assertThat(read(reader, 2, 2)).isEqualTo("23");
+    }
+  }
+
+  @Test
+  public void ranges_of_deflated_entry_are_read_in_any_order() throws IOException {
+    try (RangeReader reader = handle.rangeReader(handle.index().find("com/foo/Bar.html"))) {
+      assertThat(read(reader, 20, 20)).isEqualTo("<p>documentation</p>");
+      assertThat(read(reader, 60, 3)).isEqualTo("<p>");
+      assertThat(read(reader, 3, 13)).isEqualTo("documentation");
+    }
+  }
+
+  @Test
+  public void inflater_is_returned_when_stream_is_closed() throws IOException {
+    int entry = handle.index().find("first.html");
+    handle.getInputStream(entry).close();
+    // would block forever if the single inflater permit was not returned
+    try (InputStream input = handle.getInputStream(entry)) {
+      assertThat(new String(ByteStreams.toByteArray(input), UTF_8)).isEqualTo("first");
+    }
+  }
+
+  @Test
+  public void deflated_entry_is_inflated() throws IOException {
+    try (InputStream input = handle.getInputStream(handle.index().find("com/foo/Bar.html"))) {
+      assertThat(new String(ByteStreams.toByteArray(input), UTF_8)).isEqualTo(CONTENT);
+    }
+  }
+
+  @Test
+  public void entries_are_read_into_direct_buffers() throws IOException {
+    int deflated = handle.index().find("com/foo/Bar.html");
+    int stored = handle.index().find("stored.txt");
+
+    ByteBuffer gzip = ByteBuffer.allocateDirect((int) handle.gzipLength(deflated));
+    handle.read(deflated, true, gzip);
+    ByteBuffer inflated = ByteBuffer.allocateDirect(CONTENT.length());
+    handle.read(deflated, false, inflated);
+    ByteBuffer plain = ByteBuffer.allocateDirect(10);
+    handle.read(stored, false, plain);
+
+    assertThat(gzip.hasRemaining()).isFalse();
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    handle.writeGzip(deflated, written);
+    assertThat(bytes(gzip)).isEqualTo(written.toByteArray());
+    assertThat(new String(bytes(inflated), UTF_8)).isEqualTo(CONTENT);
+    assertThat(new String(bytes(plain), UTF_8)).isEqualTo("0123456789");
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    buffer.flip();
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private static String read(RangeReader reader, long start, long count) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    reader.copy(start, count, output);
+    return new String(output.toByteArray(), UTF_8);
+  }
+
+  private static JarEntry stored(String name, String content) {
+    CRC32 crc = new CRC32();
+    crc.update(content.getBytes(UTF_8));
+    JarEntry entry = new JarEntry(name);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(content.length());
+    entry.setCompressedSize(content.length());
+    entry.setCrc(crc.getValue());
+    return entry;
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.jar;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rbmhtechnology.apidocserver.service.jar.JarLeases.Lease;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JarLeasesTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final AtomicLong now = new AtomicLong();
+  private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor();
+  private final JarLeases leases =
+      new JarLeases(1000, now::get, new SimpleMeterRegistry(), reaper);
+  private File jar;
+
+  @Before
+  public void setup() throws Exception {
+    jar = tmp.newFile("javadoc.jar");
+  }
+
+  @After
+  public void teardown() throws Exception {
+    leases.close();
+    reaper.awaitTermination(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void delete_a_jar_when_the_last_reader_released_it() throws Exception {
+    Lease first = leases.lease(jar);
+    Lease second = leases.lease(jar);
+
+    leases.delete(jar, jar::delete);
+    assertThat(jar).exists();
+    assertThat(leases.lease(jar)).isNull();
+    assertThat(leases.getPendingDeletions()).isEqualTo(1);
+
+    first.close();
+    awaitReaper();
+    assertThat(jar).exists();
+    second.close();
+    awaitReaper();
+    assertThat(jar).doesNotExist();
+    assertThat(leases.getPendingDeletions()).isZero();
+  }
+
+  @Test
+  public void delete_a_released_jar_on_the_reaper() throws Exception {
+    Lease lease = leases.lease(jar);
+    AtomicReference<Thread> deletingThread = new AtomicReference<>();
+    leases.delete(jar, () -> deletingThread.set(Thread.currentThread()));
+
+    lease.close();
+    awaitReaper();
+
+    assertThat(deletingThread.get()).isNotNull().isNotSameAs(Thread.currentThread());
+  }
+
+  @Test
+  public void delete_a_jar_which_is_not_read_right_away() {
+    leases.lease(jar).close();
+
+    leases.delete(jar, jar::delete);
+
+    assertThat(jar).doesNotExist();
+    assertThat(leases.lease(jar)).isNull();
+  }
+
+  @Test
+  public void delete_a_jar_once_the_leases_of_its_readers_timed_out() {
+    Lease stuck = leases.lease(jar);
+    leases.delete(jar, jar::delete);
+
+    now.addAndGet(999);
+    leases.expireLeases();
+    assertThat(jar).exists();
+
+    now.addAndGet(1);
+    leases.expireLeases();
+    assertThat(jar).doesNotExist();
+    stuck.close();
+  }
+
+  @Test
+  public void keep_a_jar_which_is_replaced_before_its_readers_are_done() {
+    Lease lease = leases.lease(jar);
+    leases.delete(jar, jar::delete);
+
+    leases.cancelDeletion(jar);
+    lease.close();
+
+    assertThat(jar).exists();
+    assertThat(leases.lease(jar)).isNotNull();
+  }
+
+  @Test
+  public void wait_for_a_running_deletion_before_a_jar_is_replaced() throws Exception {
+    CountDownLatch deleting = new CountDownLatch(1);
+    CountDownLatch proceed = new CountDownLatch(1);
+    Thread deletion = new Thread(() -> leases.delete(jar, () -> {
+      deleting.countDown();
+      try {
+        proceed.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      jar.delete();
+    }));
+    deletion.start();
+    assertThat(deleting.await(5, TimeUnit.SECONDS)).isTrue();
+
+    Thread replacement = new Thread(() -> leases.cancelDeletion(jar));
+    replacement.start();
+    replacement.join(100);
+    assertThat(replacement.isAlive()).isTrue();
+
+    proceed.countDown();
+    replacement.join(5000);
+    assertThat(replacement.isAlive()).isFalse();
+    assertThat(jar).doesNotExist();
+    assertThat(tmp.newFile("javadoc.jar")).exists();
+    assertThat(leases.lease(jar)).isNotNull();
+  }
+
+  private void awaitReaper() throws Exception {
+    reaper.submit(() -> {
+    }).get(5, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.mavenrepo;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MavenMetadataCacheTest {
+
+  private static final String RESOURCE = "com/foo/bar/maven-metadata.xml";
+  private static final String METADATA = "<metadata><versioning>"
+      + "<latest>1.1.0</latest><release>1.0.0</release>"
+      + "<versions><version>1.0.0</version><version>1.1.0</version><version>1.0.0</version>"
+      + "</versions></versioning></metadata>";
+
+  private final MavenRepoClient client = mock(MavenRepoClient.class);
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private MavenMetadataCache cache;
+
+  @Before
+  public void setup() throws Exception {
+    cache = new MavenMetadataCache(client, registry);
+    when(client.getIfModified(RESOURCE, null, null))
+        .thenReturn(new RepositoryResource(METADATA.getBytes(UTF_8), "\"v1\"", null));
+  }
+
+  @Test
+  public void parse_metadata() throws Exception {
+    MavenMetadata metadata = cache.get("com.foo", "bar");
+
+    assertThat(metadata.getVersions()).containsExactly("1.0.0", "1.1.0");
+    assertThat(metadata.getLatest()).containsExactly("1.1.0");
+    assertThat(metadata.getRelease()).containsExactly("1.0.0");
+  }
+
+  @Test
+  public void reuse_parsed_metadata_if_not_modified() throws Exception {
+    when(client.getIfModified(RESOURCE, "\"v1\"", null)).thenReturn(null);
+
+    MavenMetadata first = cache.get("com.foo", "bar");
+    MavenMetadata second = cache.get("com.foo", "bar");
+
+    assertThat(second).isSameAs(first);
+    assertThat(registry.get("apidoc.metadata.saved").counter().count())
+        .isEqualTo(METADATA.getBytes(UTF_8).length);
+    assertThat(registry.get("apidoc.metadata.not-modified.ratio").gauge().value())
+        .isEqualTo(0.5);
+  }
+
+  @Test
+  public void replace_modified_metadata() throws Exception {
+    when(client.getIfModified(RESOURCE, "\"v1\"", null)).thenReturn(new RepositoryResource(
+        METADATA.replace("1.1.0", "1.2.0").getBytes(UTF_8), "\"v2\"", null));
+
+    cache.get("com.foo", "bar");
+
+    assertThat(cache.get("com.foo", "bar").getLatest()).containsExactly("1.2.0");
+  }
+
+  @Test
+  public void do_not_keep_metadata_without_validators() throws Exception {
+    when(client.getIfModified(RESOURCE, null, null))
+        .thenReturn(new RepositoryResource(METADATA.getBytes(UTF_8), null, null));
+
+    assertThat(cache.get("com.foo", "bar")).isNotSameAs(cache.get("com.foo", "bar"));
+  }
+}
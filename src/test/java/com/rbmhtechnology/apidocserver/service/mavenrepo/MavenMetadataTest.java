@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.mavenrepo;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rbmhtechnology.apidocserver.service.mavenrepo.MavenMetadata.SnapshotVersion;
+import java.io.IOException;
+import org.junit.Test;
+
+public class MavenMetadataTest {
+
+  @Test
+  public void parse_artifact_metadata() throws Exception {
+    MavenMetadata metadata = MavenMetadata.parse((""
+        + "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<metadata>\n"
+        + "  <groupId>com.foo</groupId>\n"
+        + "  <artifactId>bar</artifactId>\n"
+        + "  <version>1.0.0</version>\n"
+        + "  <versioning>\n"
+        + "    <latest>1.1.0-SNAPSHOT</latest>\n"
+        + "    <release> 1.0.0 </release>\n"
+        + "    <versions>\n"
+        + "      <version>1.0.0</version>\n"
+        + "      <version>1.1.0-SNAPSHOT</version>\n"
+        + "    </versions>\n"
+        + "    <lastUpdated>20190101120000</lastUpdated>\n"
+        + "  </versioning>\n"
+        + "</metadata>").getBytes(UTF_8));
+
+    assertThat(metadata.getVersions()).containsExactly("1.0.0", "1.1.0-SNAPSHOT");
+    assertThat(metadata.getLatest()).containsExactly("1.1.0-SNAPSHOT");
+    assertThat(metadata.getRelease()).containsExactly("1.0.0");
+    assertThat(metadata.getLastUpdated()).isEqualTo("20190101120000");
+    assertThat(metadata.getSnapshotVersions()).isEmpty();
+  }
+
+  @Test
+  public void parse_snapshot_metadata() throws Exception {
+    MavenMetadata metadata = MavenMetadata.parse((""
+        + "<metadata><version>1.0.0-SNAPSHOT</version><versioning>"
+        + "<snapshot><timestamp>20190101.120000</timestamp><buildNumber>3</buildNumber></snapshot>"
+        + "<lastUpdated>20190101120000</lastUpdated>"
+        + "<snapshotVersions>"
+        + "<snapshotVersion><classifier>javadoc</classifier><extension>jar</extension>"
+        + "<value>1.0.0-20190101.120000-3</value><updated>20190101120000</updated>"
+        + "</snapshotVersion>"
+        + "<snapshotVersion><extension>pom</extension>"
+        + "<value>1.0.0-20190101.120000-3</value></snapshotVersion>"
+        + "</snapshotVersions></versioning></metadata>").getBytes(UTF_8));
+
+    assertThat(metadata.getVersions()).isEmpty();
+    assertThat(metadata.getSnapshotTimestamp()).isEqualTo("20190101.120000");
+    assertThat(metadata.getSnapshotBuildNumber()).isEqualTo("3");
+    assertThat(metadata.getSnapshotVersions()).hasSize(2);
+    SnapshotVersion javadoc = metadata.getSnapshotVersions().get(0);
+    assertThat(javadoc.getClassifier()).isEqualTo("javadoc");
+    assertThat(javadoc.getExtension()).isEqualTo("jar");
+    assertThat(javadoc.getValue()).isEqualTo("1.0.0-20190101.120000-3");
+    assertThat(metadata.getSnapshotVersions().get(1).getClassifier()).isNull();
+  }
+
+  @Test
+  public void do_not_resolve_entities() {
+    assertThatThrownBy(() -> MavenMetadata.parse((""
+        + "<!DOCTYPE metadata [<!ENTITY secret SYSTEM \"file:///etc/passwd\">]>"
+        + "<metadata><versioning><latest>&secret;</latest></versioning></metadata>")
+        .getBytes(UTF_8)))
+        .isInstanceOf(IOException.class);
+  }
+}
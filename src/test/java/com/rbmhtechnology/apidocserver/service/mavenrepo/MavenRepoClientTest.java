@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.mavenrepo;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.io.BaseEncoding;
+import com.rbmhtechnology.apidocserver.exception.DownloadException;
+import com.rbmhtechnology.apidocserver.exception.NotFoundException;
+import com.rbmhtechnology.apidocserver.exception.RepositoryUnavailableException;
+import com.rbmhtechnology.apidocserver.service.ArtifactIdentifier;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vavr.collection.List;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MavenRepoClientTest {
+
+  private static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+  private static final int MAX_RESOURCE_SIZE = 1024;
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+  private final CountDownLatch concurrentProbes = new CountDownLatch(3);
+  private final CopyOnWriteArrayList<String> ranges = new CopyOnWriteArrayList<>();
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private ExecutorService probeExecutor;
+  private MavenRepoClient client;
+  private RepositoryCircuitBreaker circuitBreaker = new RepositoryCircuitBreaker(20, 50, 10000, 30);
+
+  @Before
+  public void setup() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", this::handle);
+    serverExecutor = Executors.newFixedThreadPool(16);
+    server.setExecutor(serverExecutor);
+    server.start();
+    probeExecutor = Executors.newCachedThreadPool();
+    client = client(null, null);
+  }
+
+  @After
+  public void teardown() throws IOException {
+    client.close();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+    probeExecutor.shutdownNow();
+  }
+
+  private MavenRepoClient client(String username, String password) throws IOException {
+    return client(new MavenRepositoryConfig(url("/repo"), username, password), 0);
+  }
+
+  private MavenRepoClient client(MavenRepositoryConfig config, int hedgeDelayMillis) {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    return new MavenRepoClient(config, 1000, 5000, 10, MAX_CONNECTIONS_PER_ROUTE,
+        MAX_RESOURCE_SIZE, hedgeDelayMillis, probeExecutor, circuitBreaker,
+        new UpstreamLimiter(10, 10, 100, 5000, 30000, meterRegistry), meterRegistry);
+  }
+
+  private URL url(String path) throws IOException {
+    return new URL("http://localhost:" + server.getAddress().getPort() + path);
+  }
+
+  /**
+   * Serves the path of every resource below /repo/ as its content, unless its name tells
+   * otherwise. Resources named "concurrent" are only found if three of them are requested at the
+   * same time. Checksums are published as ".sha1" files, or as ".sha256" files for resources
+   * named "strong". The mirror below /slow/ takes two seconds to answer, the one below /down/
+   * fails.
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    clientPorts.add(exchange.getRemoteAddress().getPort());
+    String path = exchange.getRequestURI().getPath();
+    String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    if (range != null) {
+      ranges.add(range);
+    }
+    int status = 200;
+    byte[] body = resource(path);
+    if (path.startsWith("/slow/")) {
+      sleepQuietly(2000);
+    }
+    if (path.startsWith("/down/")) {
+      status = 503;
+    } else if (!(path.startsWith("/repo/") || path.startsWith("/slow/"))
+        || path.contains("missing")) {
+      status = 404;
+    } else if (path.contains("secret") && !("Basic " + Base64.getEncoder()
+        .encodeToString("user:pass".getBytes(UTF_8))).equals(authorization)) {
+      status = 401;
+    } else if (path.contains("broken")) {
+      status = 500;
+    } else if (path.endsWith(".sha1")) {
+      String resource = path.substring(0, path.length() - ".sha1".length());
+      status = path.contains("nosum") || path.contains("strong") ? 404 : 200;
+      body = (checksum("SHA-1", path.contains("badsum") ? new byte[1] : resource(resource))
+          + "  " + resource).getBytes(UTF_8);
+    } else if (path.endsWith(".sha256")) {
+      String resource = path.substring(0, path.length() - ".sha256".length());
+      status = path.contains("strong") ? 200 : 404;
+      body = checksum("SHA-256", resource(resource)).getBytes(UTF_8);
+    } else if (path.contains("metadata")) {
+      exchange.getResponseHeaders().set("ETag", "\"v1\"");
+      if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        status = 304;
+      }
+    } else if (path.contains("concurrent")) {
+      concurrentProbes.countDown();
+      status = awaitQuietly(concurrentProbes) ? 200 : 404;
+    } else if (path.contains("resumable")) {
+      if (range == null) {
+        // break off in the middle of the transfer
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body, 0, body.length / 2);
+        exchange.getResponseBody().flush();
+        exchange.close();
+        return;
+      }
+      int offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+      exchange.getResponseHeaders().set("Content-Range",
+          "bytes " + offset + "-" + (body.length - 1) + "/" + body.length);
+      body = Arrays.copyOfRange(body, offset, body.length);
+      status = 206;
+    }
+    if (status >= 300 || "HEAD".equals(exchange.getRequestMethod())) {
+      exchange.sendResponseHeaders(status, -1);
+    } else {
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream output = exchange.getResponseBody()) {
+        output.write(body);
+      }
+    }
+    exchange.close();
+  }
+
+  private static byte[] resource(String path) {
+    if (path.contains("resumable")) {
+      byte[] content = new byte[256 * 1024];
+      new Random(42).nextBytes(content);
+      return content;
+    }
+    return path.getBytes(UTF_8);
+  }
+
+  private static String checksum(String algorithm, byte[] content) {
+    try {
+      return BaseEncoding.base16().lowerCase()
+          .encode(MessageDigest.getInstance(algorithm).digest(content));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void sleepQuietly(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static boolean awaitQuietly(CountDownLatch latch) {
+    try {
+      return latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static String content(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), UTF_8);
+  }
+
+  @Test
+  public void download_resource() throws Exception {
+    File destination = new File(tmp.getRoot(), "foo/bar.jar");
+
+    client.get("com/foo/bar.jar", destination);
+
+    assertThat(content(destination)).isEqualTo("/repo/com/foo/bar.jar");
+  }
+
+  @Test
+  public void verify_sha256_checksum() throws Exception {
+    File destination = new File(tmp.getRoot(), "strong.jar");
+
+    client.get("com/foo/strong.jar", destination);
+
+    assertThat(content(destination)).isEqualTo("/repo/com/foo/strong.jar");
+  }
+
+  @Test
+  public void download_resource_without_checksum() throws Exception {
+    File destination = new File(tmp.getRoot(), "nosum.jar");
+
+    client.get("com/foo/nosum.jar", destination);
+
+    assertThat(content(destination)).isEqualTo("/repo/com/foo/nosum.jar");
+  }
+
+  @Test
+  public void reject_resource_not_matching_its_checksum() {
+    File destination = new File(tmp.getRoot(), "badsum.jar");
+
+    assertThatThrownBy(() -> client.get("com/foo/badsum.jar", destination))
+        .isInstanceOf(DownloadException.class)
+        .hasMessageContaining("Checksum mismatch");
+    assertThat(destination).doesNotExist();
+    assertThat(new File(tmp.getRoot(), "badsum.jar.part")).doesNotExist();
+  }
+
+  @Test
+  public void resume_interrupted_transfer() throws Exception {
+    File destination = new File(tmp.getRoot(), "resumable.jar");
+
+    client.get("com/foo/resumable.jar", destination);
+
+    assertThat(Files.readAllBytes(destination.toPath()))
+        .isEqualTo(resource("/repo/com/foo/resumable.jar"));
+    assertThat(ranges).hasSize(1);
+    assertThat(ranges.get(0)).isNotEqualTo("bytes=0-");
+    assertThat(new File(tmp.getRoot(), "resumable.jar.part")).doesNotExist();
+  }
+
+  @Test
+  public void not_resume_transfer_without_checksum() throws Exception {
+    File destination = new File(tmp.getRoot(), "nosum.jar");
+    Files.write(new File(tmp.getRoot(), "nosum.jar.part").toPath(), "/old/".getBytes(UTF_8));
+
+    client.get("com/foo/nosum.jar", destination);
+
+    assertThat(content(destination)).isEqualTo("/repo/com/foo/nosum.jar");
+    assertThat(ranges).isEmpty();
+  }
+
+  @Test
+  public void missing_resource_is_not_found() {
+    assertThatThrownBy(() -> client.get("com/foo/missing.jar", new File(tmp.getRoot(), "x")))
+        .isInstanceOf(NotFoundException.class);
+  }
+
+  @Test
+  public void denied_or_failed_transfer_is_a_download_exception() {
+    assertThatThrownBy(() -> client.get("com/foo/secret.jar", new File(tmp.getRoot(), "x")))
+        .isInstanceOf(DownloadException.class)
+        .isNotInstanceOf(NotFoundException.class)
+        .hasMessageContaining("Access denied");
+    assertThatThrownBy(() -> client.get("com/foo/broken.jar", new File(tmp.getRoot(), "x")))
+        .isInstanceOf(DownloadException.class)
+        .isNotInstanceOf(NotFoundException.class)
+        .hasMessageContaining("Transfer failed");
+  }
+
+  @Test
+  public void send_credentials() throws Exception {
+    File destination = tmp.newFile();
+    MavenRepoClient authenticated = client("user", "pass");
+    try {
+      authenticated.get("com/foo/secret.jar", destination);
+    } finally {
+      authenticated.close();
+    }
+
+    assertThat(content(destination)).isEqualTo("/repo/com/foo/secret.jar");
+  }
+
+  @Test
+  public void download_only_modified_resources() throws Exception {
+    RepositoryResource resource = client.getIfModified("com/foo/metadata.xml", null, null);
+
+    assertThat(new String(resource.getContent(), UTF_8)).isEqualTo("/repo/com/foo/metadata.xml");
+    assertThat(resource.getEtag()).isEqualTo("\"v1\"");
+    assertThat(client.getIfModified("com/foo/metadata.xml", "\"v1\"", null)).isNull();
+    assertThat(client.getIfModified("com/foo/metadata.xml", "\"v0\"", null)).isNotNull();
+  }
+
+  @Test
+  public void reject_resources_exceeding_the_maximum_size() {
+    assertThatThrownBy(() -> client.getIfModified("com/foo/resumable/metadata.xml", null, null))
+        .isInstanceOf(DownloadException.class)
+        .hasMessageContaining("exceeds the maximum size");
+  }
+
+  @Test
+  public void hedge_requests_to_slow_repository_with_mirror() throws Exception {
+    MavenRepoClient hedging = client(new MavenRepositoryConfig(url("/slow"),
+        Arrays.asList(url("/repo").toString()), null, null), 100);
+    try {
+      RepositoryResource resource = hedging.getIfModified("com/foo/metadata.xml", null, null);
+
+      assertThat(new String(resource.getContent(), UTF_8)).isEqualTo("/repo/com/foo/metadata.xml");
+    } finally {
+      hedging.close();
+    }
+  }
+
+  @Test
+  public void fail_over_to_mirror_without_waiting_for_hedge_delay() throws Exception {
+    File destination = new File(tmp.getRoot(), "bar.jar");
+    MavenRepoClient failingOver = client(new MavenRepositoryConfig(url("/down"),
+        Arrays.asList(url("/repo").toString()), null, null), 60000);
+    try {
+      failingOver.get("com/foo/bar.jar", destination);
+    } finally {
+      failingOver.close();
+    }
+
+    assertThat(content(destination)).isEqualTo("/repo/com/foo/bar.jar");
+  }
+
+  @Test
+  public void fail_fast_while_the_repository_is_unavailable() throws Exception {
+    circuitBreaker = new RepositoryCircuitBreaker(2, 50, 10000, 30);
+    MavenRepoClient breaking = client(null, null);
+    try {
+      for (int i = 0; i < 2; i++) {
+        assertThatThrownBy(() -> breaking.getIfModified("com/foo/broken.xml", null, null))
+            .isInstanceOf(DownloadException.class)
+            .isNotInstanceOf(RepositoryUnavailableException.class);
+      }
+
+      assertThatThrownBy(() -> breaking.getIfModified("com/foo/metadata.xml", null, null))
+          .isInstanceOf(RepositoryUnavailableException.class);
+      assertThatThrownBy(() -> breaking.exists(List.of(
+          new ArtifactIdentifier("com.foo", "bar", "1.0.0", "javadoc"))))
+          .isInstanceOf(RepositoryUnavailableException.class);
+    } finally {
+      breaking.close();
+    }
+  }
+
+  @Test
+  public void check_existence_of_classifiers() throws Exception {
+    assertThat(client.exists(List.of(
+        new ArtifactIdentifier("com.foo", "bar", "1.0.0", "javadoc"),
+        new ArtifactIdentifier("com.foo", "bar", "1.0.0", "missing"),
+        new ArtifactIdentifier("com.foo", "bar", "1.0.0", "broken"))).toJavaMap())
+        .containsEntry("javadoc", true)
+        .containsEntry("missing", false)
+        .containsEntry("broken", false);
+  }
+
+  @Test
+  public void probe_classifiers_at_the_same_time() throws Exception {
+    assertThat(client.exists(List.of(
+        new ArtifactIdentifier("com.foo", "bar", "1.0.0", "concurrent1"),
+        new ArtifactIdentifier("com.foo", "bar", "1.0.0", "concurrent2"),
+        new ArtifactIdentifier("com.foo", "bar", "1.0.0", "concurrent3"))).values())
+        .containsOnly(true);
+  }
+
+  @Test
+  public void download_concurrently_over_pooled_connections() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(32);
+    try {
+      Future<?>[] downloads = new Future<?>[500];
+      for (int i = 0; i < downloads.length; i++) {
+        String resource = "com/foo/" + i + ".jar";
+        File destination = new File(tmp.getRoot(), i + ".jar");
+        downloads[i] = executor.submit(() -> {
+          client.get(resource, destination);
+          assertThat(content(destination)).isEqualTo("/repo/" + resource);
+          return null;
+        });
+      }
+      for (Future<?> download : downloads) {
+        download.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(clientPorts.size()).isLessThanOrEqualTo(MAX_CONNECTIONS_PER_ROUTE);
+  }
+}
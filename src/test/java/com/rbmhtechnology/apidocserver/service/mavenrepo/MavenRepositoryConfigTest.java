@@ -22,6 +22,7 @@ import static org.assertj.vavr.api.VavrAssertions.assertThat;
 import com.rbmhtechnology.apidocserver.service.mavenrepo.MavenRepositoryConfig.Credentials;
 import java.net.MalformedURLException;
 import java.net.URI;
+import java.util.Arrays;
 import org.junit.Test;
 
 public class MavenRepositoryConfigTest {
@@ -53,4 +54,22 @@ public class MavenRepositoryConfigTest {
     assertThat(config.getCredentials().get()).isEqualTo(new Credentials("foo", "bar"));
   }
 
+  @Test
+  public void mirrors_are_tried_after_the_repository() throws MalformedURLException {
+    final MavenRepositoryConfig config = new MavenRepositoryConfig(URI
+        .create("http://example.com").toURL(),
+        Arrays.asList("http://mirror1.example.com", " http://mirror2.example.com", ""), null, null);
+    assertThat(config.repositoryUrls()).containsExactly(
+        URI.create("http://example.com").toURL(),
+        URI.create("http://mirror1.example.com").toURL(),
+        URI.create("http://mirror2.example.com").toURL());
+  }
+
+  @Test
+  public void invalid_mirror_urls_are_rejected() {
+    assertThatThrownBy(() -> new MavenRepositoryConfig(URI.create("http://example.com").toURL(),
+        Arrays.asList("example.com"), null, null))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
 }
\ No newline at end of file
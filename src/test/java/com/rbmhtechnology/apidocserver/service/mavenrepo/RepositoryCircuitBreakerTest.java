@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.mavenrepo;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rbmhtechnology.apidocserver.service.mavenrepo.RepositoryCircuitBreaker.State;
+import org.junit.Test;
+
+public class RepositoryCircuitBreakerTest {
+
+  @Test
+  public void stay_closed_while_most_calls_succeed() {
+    RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(4, 50, 10000, 30);
+
+    breaker.onSuccess(0);
+    breaker.onSuccess(0);
+    breaker.onSuccess(0);
+    breaker.onFailure();
+
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    assertThat(breaker.tryAcquire()).isTrue();
+  }
+
+  @Test
+  public void open_on_failure_rate() {
+    RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(4, 50, 10000, 30);
+
+    breaker.onSuccess(0);
+    breaker.onFailure();
+    breaker.onSuccess(0);
+    breaker.onFailure();
+
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    assertThat(breaker.tryAcquire()).isFalse();
+  }
+
+  @Test
+  public void open_on_slow_calls() {
+    RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(4, 50, 1000, 30);
+
+    for (int i = 0; i < 4; i++) {
+      breaker.onSuccess(SECONDS.toNanos(2));
+    }
+
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    assertThat(breaker.getSlowCallRate()).isEqualTo(100);
+  }
+
+  @Test
+  public void close_after_successful_trial_calls() {
+    RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(2, 50, 10000, 0);
+    breaker.onFailure();
+    breaker.onFailure();
+
+    for (int i = 0; i < 3; i++) {
+      assertThat(breaker.tryAcquire()).isTrue();
+    }
+    assertThat(breaker.tryAcquire()).isFalse();
+    for (int i = 0; i < 3; i++) {
+      breaker.onSuccess(0);
+    }
+
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  public void open_again_if_a_trial_call_fails() {
+    RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(2, 50, 10000, 0);
+    breaker.onFailure();
+    breaker.onFailure();
+
+    assertThat(breaker.tryAcquire()).isTrue();
+    breaker.onFailure();
+
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 Red Bull Media House GmbH <http://www.redbullmediahouse.com> - all rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rbmhtechnology.apidocserver.service.mavenrepo;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rbmhtechnology.apidocserver.exception.RepositoryUnavailableException;
+import com.rbmhtechnology.apidocserver.service.Deadline;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class UpstreamLimiterTest {
+
+  private static UpstreamLimiter limiter(int limit, int queueCapacity) {
+    return new UpstreamLimiter(limit, 10, queueCapacity, 1000, 30000, new SimpleMeterRegistry());
+  }
+
+  @Test
+  public void reject_operations_beyond_the_queue_capacity_right_away() throws Exception {
+    UpstreamLimiter limiter = limiter(1, 0);
+
+    try (UpstreamLimiter.Permit permit = limiter.acquire("a")) {
+      assertThatThrownBy(() -> limiter.acquire("b"))
+          .isInstanceOf(RepositoryUnavailableException.class);
+    }
+    limiter.acquire("c").close();
+  }
+
+  @Test
+  public void hand_released_permits_to_waiting_operations() throws Exception {
+    UpstreamLimiter limiter = limiter(1, 1);
+    UpstreamLimiter.Permit permit = limiter.acquire("a");
+
+    CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+      try {
+        limiter.acquire("b").close();
+      } catch (RepositoryUnavailableException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    while (limiter.getWaiting() == 0) {
+      Thread.sleep(10);
+    }
+    permit.close();
+
+    waiting.get(5, SECONDS);
+    assertThat(limiter.getInFlight()).isZero();
+  }
+
+  @Test
+  public void give_up_waiting_at_the_deadline_of_the_request() throws Exception {
+    UpstreamLimiter limiter = limiter(1, 1);
+
+    try (UpstreamLimiter.Permit permit = limiter.acquire("a");
+        Deadline.Scope scope = Deadline.enter(Deadline.after(100, MILLISECONDS))) {
+      long start = System.nanoTime();
+      assertThatThrownBy(() -> limiter.acquire("b"))
+          .isInstanceOf(RepositoryUnavailableException.class)
+          .hasMessageContaining("deadline");
+      assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(5));
+    }
+    assertThat(limiter.getWaiting()).isZero();
+  }
+
+  @Test
+  public void adapt_the_limit_to_the_responses() throws Exception {
+    UpstreamLimiter limiter = limiter(4, 0);
+
+    limiter.onSample(MILLISECONDS.toNanos(10), true);
+    assertThat(limiter.getLimit()).isEqualTo(3);
+    limiter.onSample(SECONDS.toNanos(2), false);
+    assertThat(limiter.getLimit()).isEqualTo(3);
+
+    // an idle limit is not raised, it says nothing about the capacity of the repository
+    limiter.onSample(MILLISECONDS.toNanos(10), false);
+    assertThat(limiter.getLimit()).isEqualTo(3);
+    try (UpstreamLimiter.Permit first = limiter.acquire("a");
+        UpstreamLimiter.Permit second = limiter.acquire("b")) {
+      limiter.onSample(MILLISECONDS.toNanos(10), false);
+      assertThat(limiter.getLimit()).isEqualTo(4);
+    }
+  }
+}